@@ -0,0 +1,198 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cooperative cancellation flag for a request and everything it fans out to. Install it on the request's
+ * {@link ThreadContext} via {@link ThreadContext#setCancellationToken(CancellationToken)}; every task submitted through
+ * a {@link PoolWeftExecutorService} from that context inherits it. Once cancelled, new submissions are rejected, queued
+ * tasks are skipped when they reach a worker, and running tasks can poll {@link #isCurrentCancelled()}.
+ *
+ * A {@link #child()} token is cancelled along with its parent, but can also be cancelled on its own. Polling only
+ * reads volatile fields along the (usually very short) parent chain. Code that blocks rather than polls can register a
+ * callback with {@link #addCancelListener(Runnable)}.
+ * @since 2.3
+ */
+public final class CancellationToken
+{
+    private final CancellationToken parent;
+
+    private volatile boolean cancelled;
+
+    private volatile String reason;
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public CancellationToken()
+    {
+        this( null );
+    }
+
+    private CancellationToken( CancellationToken parent )
+    {
+        this.parent = parent;
+    }
+
+    public CancellationToken child()
+    {
+        return new CancellationToken( this );
+    }
+
+    public void cancel()
+    {
+        cancel( null );
+    }
+
+    public void cancel( String reason )
+    {
+        synchronized ( this )
+        {
+            if ( cancelled )
+            {
+                return;
+            }
+
+            this.reason = reason;
+            this.cancelled = true;
+        }
+
+        listeners.forEach( Listener::fire );
+    }
+
+    /**
+     * Run the callback once, on the cancelling thread, when this token or any of its ancestors is cancelled; right away
+     * if it already is. Remove it with {@link #removeCancelListener(Runnable)} once it is no longer needed, since
+     * ancestors hold on to it.
+     */
+    public void addCancelListener( Runnable callback )
+    {
+        Listener listener = new Listener( callback );
+        for ( CancellationToken t = this; t != null; t = t.parent )
+        {
+            t.listeners.add( listener );
+        }
+
+        if ( isCancelled() )
+        {
+            listener.fire();
+        }
+    }
+
+    public void removeCancelListener( Runnable callback )
+    {
+        for ( CancellationToken t = this; t != null; t = t.parent )
+        {
+            t.listeners.removeIf( l -> l.callback == callback );
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        for ( CancellationToken t = this; t != null; t = t.parent )
+        {
+            if ( t.cancelled )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the reason given by whichever token in the chain was cancelled, or null.
+     */
+    public String getReason()
+    {
+        for ( CancellationToken t = this; t != null; t = t.parent )
+        {
+            if ( t.cancelled )
+            {
+                return t.reason;
+            }
+        }
+
+        return null;
+    }
+
+    public void throwIfCancelled()
+    {
+        if ( isCancelled() )
+        {
+            String why = getReason();
+            throw new CancellationException( why == null ? "Cancelled" : "Cancelled: " + why );
+        }
+    }
+
+    /**
+     * @return the token on the current thread's {@link ThreadContext}, or null.
+     */
+    public static CancellationToken current()
+    {
+        ThreadContext ctx = ThreadContext.current();
+        return ctx == null ? null : ctx.getCancellationToken();
+    }
+
+    /**
+     * @return true if the current thread's {@link ThreadContext} carries a cancelled token.
+     */
+    public static boolean isCurrentCancelled()
+    {
+        CancellationToken token = current();
+        return token != null && token.isCancelled();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "CancellationToken{cancelled=" + isCancelled() + ", reason=" + getReason() + "}";
+    }
+
+    private static final class Listener
+    {
+        private final Runnable callback;
+
+        private final AtomicBoolean fired = new AtomicBoolean( false );
+
+        private Listener( Runnable callback )
+        {
+            this.callback = callback;
+        }
+
+        private void fire()
+        {
+            if ( fired.compareAndSet( false, true ) )
+            {
+                try
+                {
+                    callback.run();
+                }
+                catch ( RuntimeException e )
+                {
+                    LoggerFactory.getLogger( CancellationToken.class )
+                                 .error( "Cancellation listener failed: " + callback, e );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,433 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Thread-safe counterpart of {@link ContextSensitiveWeakHashMap}. Keys are weakly referenced, but an entry will not be
+ * GC-ed until all the threads that ever wrote it clear their {@link ThreadContext}.
+ *
+ * Entries are stored in a {@link ConcurrentHashMap}, so reads are lock-free and writes only lock the affected bin.
+ * Cleared keys are expunged from the map's {@link ReferenceQueue} by whichever thread happens to be writing; the
+ * queue and the map are both safe for concurrent expunging. Unlike
+ * {@link ContextSensitiveWeakHashMap#newSynchronizedContextSensitiveWeakHashMap()}, no global monitor is involved.
+ *
+ * Null keys are not supported.
+ */
+public class ConcurrentContextSensitiveWeakHashMap<K, V>
+        extends AbstractMap<K, V>
+        implements ConcurrentMap<K, V>
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<>();
+
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    private final String uniqueId;
+
+    private EntrySet entrySet;
+
+    public ConcurrentContextSensitiveWeakHashMap()
+    {
+        this.uniqueId = UUID.randomUUID().toString();
+    }
+
+    @Override
+    public int size()
+    {
+        expungeStaleEntries();
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size() == 0;
+    }
+
+    @Override
+    public V get( Object key )
+    {
+        return map.get( new LookupKey( key ) );
+    }
+
+    @Override
+    public boolean containsKey( Object key )
+    {
+        return map.containsKey( new LookupKey( key ) );
+    }
+
+    @Override
+    public boolean containsValue( Object value )
+    {
+        return map.containsValue( value );
+    }
+
+    @Override
+    public V put( K key, V value )
+    {
+        expungeStaleEntries();
+        V ret = map.put( newWeakKey( key ), value );
+        pin( key );
+        return ret;
+    }
+
+    @Override
+    public V putIfAbsent( K key, V value )
+    {
+        expungeStaleEntries();
+        V ret = map.putIfAbsent( newWeakKey( key ), value );
+        if ( ret == null )
+        {
+            pin( key );
+        }
+        return ret;
+    }
+
+    @Override
+    public V remove( Object key )
+    {
+        expungeStaleEntries();
+        return map.remove( new LookupKey( key ) );
+    }
+
+    @Override
+    public boolean remove( Object key, Object value )
+    {
+        expungeStaleEntries();
+        return map.remove( new LookupKey( key ), value );
+    }
+
+    @Override
+    public boolean replace( K key, V oldValue, V newValue )
+    {
+        expungeStaleEntries();
+        boolean ret = map.replace( new LookupKey( key ), oldValue, newValue );
+        if ( ret )
+        {
+            pin( key );
+        }
+        return ret;
+    }
+
+    @Override
+    public V replace( K key, V value )
+    {
+        expungeStaleEntries();
+        V ret = map.replace( new LookupKey( key ), value );
+        if ( ret != null )
+        {
+            pin( key );
+        }
+        return ret;
+    }
+
+    @Override
+    public V computeIfAbsent( K key, Function<? super K, ? extends V> mappingFunction )
+    {
+        V value = get( key );
+        if ( value != null )
+        {
+            return value;
+        }
+
+        expungeStaleEntries();
+        boolean[] created = { false };
+        value = map.computeIfAbsent( newWeakKey( key ), k -> {
+            created[0] = true;
+            return mappingFunction.apply( key );
+        } );
+
+        if ( created[0] && value != null )
+        {
+            pin( key );
+        }
+
+        return value;
+    }
+
+    @Override
+    public V computeIfPresent( K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction )
+    {
+        expungeStaleEntries();
+        V value = map.computeIfPresent( new LookupKey( key ), ( k, v ) -> remappingFunction.apply( key, v ) );
+        if ( value != null )
+        {
+            pin( key );
+        }
+        return value;
+    }
+
+    @Override
+    public V compute( K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction )
+    {
+        expungeStaleEntries();
+        V value = map.compute( newWeakKey( key ), ( k, v ) -> remappingFunction.apply( key, v ) );
+        if ( value != null )
+        {
+            pin( key );
+        }
+        return value;
+    }
+
+    @Override
+    public V merge( K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction )
+    {
+        expungeStaleEntries();
+        V ret = map.merge( newWeakKey( key ), value, remappingFunction );
+        if ( ret != null )
+        {
+            pin( key );
+        }
+        return ret;
+    }
+
+    @Override
+    public void clear()
+    {
+        map.clear();
+        while ( queue.poll() != null )
+        {
+            // drain; the entries are already gone.
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet()
+    {
+        EntrySet es = entrySet;
+        return es == null ? ( entrySet = new EntrySet() ) : es;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ConcurrentContextSensitiveWeakHashMap{" + "uniqueId='" + uniqueId + '\'' + '}';
+    }
+
+    private WeakKey<K> newWeakKey( K key )
+    {
+        return new WeakKey<>( Objects.requireNonNull( key, "Null keys are not supported" ), queue );
+    }
+
+    /**
+     * Keep a strong reference to the key in the current {@link ThreadContext} (if any), so it will not be GC-ed until
+     * that context is finalized.
+     */
+    private void pin( K key )
+    {
+        ThreadContext ctx = ThreadContext.getContext( false );
+        if ( ctx != null )
+        {
+            logger.trace( "Pin key {} for {}", key, uniqueId );
+            ctx.pin( uniqueId, key );
+        }
+    }
+
+    private void expungeStaleEntries()
+    {
+        Reference<? extends K> ref;
+        while ( ( ref = queue.poll() ) != null )
+        {
+            map.remove( ref );
+        }
+    }
+
+    /**
+     * Weakly-referenced key stored in the map. Once the referent has been cleared, it is only equal to itself, which
+     * is enough to remove it when it shows up on the reference queue.
+     */
+    private static final class WeakKey<K>
+            extends WeakReference<K>
+    {
+        private final int hash;
+
+        private WeakKey( K referent, ReferenceQueue<? super K> queue )
+        {
+            super( referent, queue );
+            this.hash = referent.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+
+            Object referent = get();
+            if ( referent == null )
+            {
+                return false;
+            }
+
+            if ( o instanceof WeakKey )
+            {
+                return referent.equals( ( (WeakKey<?>) o ).get() );
+            }
+
+            if ( o instanceof LookupKey )
+            {
+                return referent.equals( ( (LookupKey) o ).key );
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Strongly-referenced key used for reads and removals, to avoid registering a new reference for every lookup.
+     */
+    private static final class LookupKey
+    {
+        private final Object key;
+
+        private final int hash;
+
+        private LookupKey( Object key )
+        {
+            this.key = Objects.requireNonNull( key, "Null keys are not supported" );
+            this.hash = key.hashCode();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public boolean equals( Object o )
+        {
+            if ( this == o )
+            {
+                return true;
+            }
+
+            if ( o instanceof WeakKey )
+            {
+                return key.equals( ( (WeakKey<?>) o ).get() );
+            }
+
+            return o instanceof LookupKey && key.equals( ( (LookupKey) o ).key );
+        }
+    }
+
+    private final class EntrySet
+            extends AbstractSet<Entry<K, V>>
+    {
+        @Override
+        public Iterator<Entry<K, V>> iterator()
+        {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return ConcurrentContextSensitiveWeakHashMap.this.size();
+        }
+
+        @Override
+        public void clear()
+        {
+            ConcurrentContextSensitiveWeakHashMap.this.clear();
+        }
+    }
+
+    /**
+     * Weakly-consistent iterator, like those of {@link ConcurrentHashMap}. Entries whose keys have been cleared are
+     * skipped, and each returned entry holds a strong reference to its key.
+     */
+    private final class EntryIterator
+            implements Iterator<Entry<K, V>>
+    {
+        private final Iterator<Entry<Object, V>> delegate = map.entrySet().iterator();
+
+        private Entry<K, V> next;
+
+        private Entry<K, V> last;
+
+        @Override
+        public boolean hasNext()
+        {
+            while ( next == null && delegate.hasNext() )
+            {
+                Entry<Object, V> e = delegate.next();
+                // only WeakKeys are ever stored; LookupKeys are used for reads and removals and never inserted
+                @SuppressWarnings( "unchecked" )
+                K key = ( (WeakKey<K>) e.getKey() ).get();
+                if ( key != null )
+                {
+                    next = new SimpleImmutableEntry<>( key, e.getValue() );
+                }
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next()
+        {
+            if ( !hasNext() )
+            {
+                throw new NoSuchElementException();
+            }
+
+            last = next;
+            next = null;
+            return last;
+        }
+
+        @Override
+        public void remove()
+        {
+            if ( last == null )
+            {
+                throw new IllegalStateException();
+            }
+
+            ConcurrentContextSensitiveWeakHashMap.this.remove( last.getKey(), last.getValue() );
+            last = null;
+        }
+    }
+}
@@ -19,19 +19,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
-import java.util.function.Consumer;
 
 /**
  * ContextSensitiveWeakHashMap is a subclass of WeakHashMap. But an entry will not be GC-ed until all the threads
  * ever use it clears their ThreadContext.
  *
  * An utility method newSynchronizedContextSensitiveWeakHashMap is provided as a convenient way to obtain a
- * synchronized ContextSensitiveWeakHashMap instance.
+ * synchronized ContextSensitiveWeakHashMap instance. Where many threads share the map, prefer
+ * {@link ConcurrentContextSensitiveWeakHashMap}, which avoids the single global monitor.
  *
  * Created by ruhan on 12/21/17.
  */
@@ -42,18 +40,10 @@ public class ContextSensitiveWeakHashMap<K, V>
 
     private final String uniqueId;
 
-    private final Consumer<ThreadContext> finalizer;
-
     public ContextSensitiveWeakHashMap()
     {
         super();
         this.uniqueId = UUID.randomUUID().toString();
-
-        this.finalizer = ctx ->
-        {
-            logger.trace( "Finalizer called for {}", uniqueId );
-            ctx.remove( uniqueId );
-        };
     }
 
     @Override
@@ -64,12 +54,8 @@ public class ContextSensitiveWeakHashMap<K, V>
         ThreadContext ctx = ThreadContext.getContext( false );
         if ( ctx != null )
         {
-            Object obj = ctx.computeIfAbsent( uniqueId, o -> new HashSet<K>() );
-            Set<K> keys = (Set) obj;
-            logger.trace( "Add key {} for {}", k, uniqueId );
-            keys.add( k ); // the k is referenced in ctx so that it will not be GC-ed until ctx clears it
-
-            ctx.registerFinalizer( finalizer ); // register finalizer if not present
+            logger.trace( "Pin key {} for {}", k, uniqueId );
+            ctx.pin( uniqueId, k ); // the k is referenced in ctx so that it will not be GC-ed until ctx is finalized
         }
 
         return ret;
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.io.IOException;
+
+/**
+ * Binds the calling thread to a set of CPUs. The default, {@link TasksetAffinityBinder}, uses the Linux
+ * {@code taskset} tool; provide a CDI bean implementing this interface to use a native binding instead.
+ * @since 2.3
+ */
+public interface CpuAffinityBinder
+{
+    /**
+     * @return false if this binder cannot work on the current platform.
+     */
+    boolean isSupported();
+
+    void bindCurrentThread( CpuSet cpus )
+            throws IOException;
+}
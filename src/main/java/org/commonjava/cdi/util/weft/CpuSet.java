@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+/**
+ * Immutable set of CPU ids, written in the Linux cpu-list format used by {@code taskset -c} and
+ * {@code /sys/devices/system/cpu/online}: comma-separated ids and inclusive ranges, like {@code 0-3,8,10-11}.
+ * @since 2.3
+ */
+public final class CpuSet
+{
+    public static final CpuSet EMPTY = new CpuSet( new BitSet() );
+
+    private static final Path ONLINE = Paths.get( "/sys/devices/system/cpu/online" );
+
+    private final BitSet cpus;
+
+    private CpuSet( final BitSet cpus )
+    {
+        this.cpus = cpus;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the list is malformed
+     */
+    public static CpuSet parse( final String list )
+    {
+        BitSet cpus = new BitSet();
+        if ( list == null || list.trim().isEmpty() )
+        {
+            return EMPTY;
+        }
+
+        for ( String part : list.split( "," ) )
+        {
+            String p = part.trim();
+            int dash = p.indexOf( '-' );
+            try
+            {
+                int from = Integer.parseInt( dash < 0 ? p : p.substring( 0, dash ).trim() );
+                int to = dash < 0 ? from : Integer.parseInt( p.substring( dash + 1 ).trim() );
+                if ( from < 0 || to < from )
+                {
+                    throw new IllegalArgumentException( "Invalid CPU range: '" + p + "' in: " + list );
+                }
+                cpus.set( from, to + 1 );
+            }
+            catch ( NumberFormatException e )
+            {
+                throw new IllegalArgumentException( "Invalid CPU list: " + list, e );
+            }
+        }
+
+        return new CpuSet( cpus );
+    }
+
+    /**
+     * @return the CPUs the OS reports online, or ids 0 to {@link Runtime#availableProcessors()} - 1 if that is not
+     * known.
+     */
+    public static CpuSet online()
+    {
+        try
+        {
+            return parse( new String( Files.readAllBytes( ONLINE ), StandardCharsets.US_ASCII ).trim() );
+        }
+        catch ( IOException | IllegalArgumentException e )
+        {
+            BitSet cpus = new BitSet();
+            cpus.set( 0, Runtime.getRuntime().availableProcessors() );
+            return new CpuSet( cpus );
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return cpus.isEmpty();
+    }
+
+    public int size()
+    {
+        return cpus.cardinality();
+    }
+
+    public boolean contains( final int cpu )
+    {
+        return cpus.get( cpu );
+    }
+
+    public CpuSet minus( final CpuSet other )
+    {
+        BitSet result = (BitSet) cpus.clone();
+        result.andNot( other.cpus );
+        return new CpuSet( result );
+    }
+
+    public CpuSet union( final CpuSet other )
+    {
+        BitSet result = (BitSet) cpus.clone();
+        result.or( other.cpus );
+        return new CpuSet( result );
+    }
+
+    @Override
+    public boolean equals( final Object o )
+    {
+        return o instanceof CpuSet && cpus.equals( ( (CpuSet) o ).cpus );
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return cpus.hashCode();
+    }
+
+    /**
+     * @return the set in cpu-list format, with consecutive ids collapsed into ranges.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for ( int from = cpus.nextSetBit( 0 ); from >= 0; )
+        {
+            int to = cpus.nextClearBit( from ) - 1;
+            if ( sb.length() > 0 )
+            {
+                sb.append( ',' );
+            }
+            sb.append( from );
+            if ( to > from )
+            {
+                sb.append( '-' ).append( to );
+            }
+            from = cpus.nextSetBit( to + 1 );
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time, on the {@link System#nanoTime()} clock, after which the result of some work is no longer wanted.
+ * Attach one to a task via {@link WeftExecutorService#submit(java.util.concurrent.Callable, Deadline)}, or to a whole
+ * request via {@link ThreadContext#setDeadline(Deadline)}, in which case every task submitted from that context
+ * inherits it.
+ * @since 2.3
+ */
+public final class Deadline
+        implements Comparable<Deadline>
+{
+    private final long nanoTime;
+
+    private Deadline( long nanoTime )
+    {
+        this.nanoTime = nanoTime;
+    }
+
+    public static Deadline after( long timeout, TimeUnit unit )
+    {
+        return new Deadline( System.nanoTime() + unit.toNanos( timeout ) );
+    }
+
+    /**
+     * @return whichever of the two deadlines comes first; either may be null.
+     */
+    public static Deadline earliest( Deadline a, Deadline b )
+    {
+        if ( a == null )
+        {
+            return b;
+        }
+        if ( b == null )
+        {
+            return a;
+        }
+
+        return a.compareTo( b ) <= 0 ? a : b;
+    }
+
+    public boolean isExpired()
+    {
+        return System.nanoTime() - nanoTime >= 0;
+    }
+
+    /**
+     * @return the time left, which is negative once the deadline has passed.
+     */
+    public long remaining( TimeUnit unit )
+    {
+        return unit.convert( nanoTime - System.nanoTime(), TimeUnit.NANOSECONDS );
+    }
+
+    public long getNanoTime()
+    {
+        return nanoTime;
+    }
+
+    @Override
+    public int compareTo( Deadline other )
+    {
+        // nanoTime values may wrap, so only their difference is meaningful.
+        return Long.signum( nanoTime - other.nanoTime );
+    }
+
+    @Override
+    public boolean equals( Object o )
+    {
+        return o instanceof Deadline && ( (Deadline) o ).nanoTime == nanoTime;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode( nanoTime );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Deadline{remaining=" + remaining( TimeUnit.MILLISECONDS ) + "ms}";
+    }
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size {@link ThreadPoolExecutor} whose queue hands out the task with the earliest {@link Deadline} first. Tasks
+ * without a deadline run after all tasks that have one, and ties are broken in submission order. Deadlines are read
+ * from tasks wrapped by {@link PoolWeftExecutorService}. The queue is unbounded, so the pool never grows past its core
+ * size.
+ * @since 2.3
+ */
+public class DeadlineOrderedThreadPoolExecutor
+        extends ThreadPoolExecutor
+{
+    private static final Comparator<Runnable> EARLIEST_DEADLINE_FIRST = ( a, b ) -> {
+        Ordered x = (Ordered) a;
+        Ordered y = (Ordered) b;
+        if ( x.deadline() != null && y.deadline() != null )
+        {
+            int c = x.deadline().compareTo( y.deadline() );
+            if ( c != 0 )
+            {
+                return c;
+            }
+        }
+        else if ( x.deadline() != null )
+        {
+            return -1;
+        }
+        else if ( y.deadline() != null )
+        {
+            return 1;
+        }
+
+        return Long.compare( x.sequence(), y.sequence() );
+    };
+
+    private final AtomicLong sequence = new AtomicLong( 0 );
+
+    public DeadlineOrderedThreadPoolExecutor( int threads, ThreadFactory threadFactory )
+    {
+        super( threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>( 11, EARLIEST_DEADLINE_FIRST ),
+               threadFactory );
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor( Callable<T> callable )
+    {
+        return new OrderedFutureTask<>( callable, deadlineOf( callable ), sequence.getAndIncrement() );
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor( Runnable runnable, T value )
+    {
+        return new OrderedFutureTask<>( runnable, value, deadlineOf( runnable ), sequence.getAndIncrement() );
+    }
+
+    @Override
+    public void execute( Runnable command )
+    {
+        if ( command instanceof Ordered )
+        {
+            super.execute( command );
+        }
+        else
+        {
+            super.execute( new OrderedRunnable( command, deadlineOf( command ), sequence.getAndIncrement() ) );
+        }
+    }
+
+    private static Deadline deadlineOf( Object task )
+    {
+        return task instanceof Deadlined ? ( (Deadlined) task ).getDeadline() : null;
+    }
+
+    /**
+     * Implemented by tasks that carry a deadline.
+     */
+    interface Deadlined
+    {
+        Deadline getDeadline();
+    }
+
+    private interface Ordered
+    {
+        Deadline deadline();
+
+        long sequence();
+    }
+
+    private static final class OrderedFutureTask<T>
+            extends FutureTask<T>
+            implements Ordered
+    {
+        private final Deadline deadline;
+
+        private final long sequence;
+
+        private OrderedFutureTask( Callable<T> callable, Deadline deadline, long sequence )
+        {
+            super( callable );
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        private OrderedFutureTask( Runnable runnable, T value, Deadline deadline, long sequence )
+        {
+            super( runnable, value );
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public Deadline deadline()
+        {
+            return deadline;
+        }
+
+        @Override
+        public long sequence()
+        {
+            return sequence;
+        }
+    }
+
+    private static final class OrderedRunnable
+            implements Runnable, Ordered
+    {
+        private final Runnable delegate;
+
+        private final Deadline deadline;
+
+        private final long sequence;
+
+        private OrderedRunnable( Runnable delegate, Deadline deadline, long sequence )
+        {
+            this.delegate = delegate;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run()
+        {
+            delegate.run();
+        }
+
+        @Override
+        public Deadline deadline()
+        {
+            return deadline;
+        }
+
+        @Override
+        public long sequence()
+        {
+            return sequence;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf( delegate );
+        }
+    }
+}
@@ -15,26 +15,73 @@
  */
 package org.commonjava.cdi.util.weft;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Tracks how many submitted tasks are still outstanding, so callers can consume every result without keeping the
+ * futures themselves.
+ *
+ * Besides {@link #drain(Consumer)}, results can be streamed in completion order through {@link #iterator()},
+ * {@link #stream()}, {@link #publisher(Executor)} or {@link #drainTo(Consumer, int, long, TimeUnit)}. These hand out
+ * each result as a {@link Completion}, so one failed task does not stop the others from being consumed.
+ *
+ * With a max-in-flight limit, at most that many tasks may be outstanding (submitted but not yet taken) at once, which
+ * bounds memory when fanning out over huge inputs. {@link #submit(Callable)} then blocks until a result is taken, so
+ * results must be consumed by another thread; a single thread that both submits and drains should use
+ * {@link #trySubmit(Callable)} and drain whenever it returns null.
+ */
 public class DrainingExecutorCompletionService<T>
 {
     private final ExecutorCompletionService<T> service;
 
     private final AtomicInteger count = new AtomicInteger( 0 );
 
+    private final int maxInFlight;
+
+    private final Semaphore window;
+
     public DrainingExecutorCompletionService( ExecutorService service )
     {
         this.service = new ExecutorCompletionService<>( service );
+        this.maxInFlight = 0;
+        this.window = null;
+    }
+
+    /**
+     * @param maxInFlight the maximum number of outstanding tasks; 0 or less means unbounded.
+     */
+    public DrainingExecutorCompletionService( ExecutorService service, int maxInFlight )
+    {
+        this.service = new ExecutorCompletionService<>( service );
+        this.maxInFlight = Math.max( maxInFlight, 0 );
+        this.window = maxInFlight > 0 ? new Semaphore( maxInFlight ) : null;
     }
 
+    /**
+     * Stops at the first failed task, leaving the remaining results queued. Use {@link #stream()} or
+     * {@link #drainTo(Consumer, int, long, TimeUnit)} to see every result.
+     */
     public void drain( Consumer<T> consumer )
             throws InterruptedException, ExecutionException
     {
@@ -50,49 +97,435 @@ public class DrainingExecutorCompletionService<T>
         return count.get();
     }
 
+    public int getMaxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    /**
+     * Blocks while the in-flight window is full. If interrupted while waiting, the interrupt flag is restored and
+     * {@link RejectedExecutionException} is thrown.
+     */
     public Future<T> submit( final Callable<T> task )
     {
-        Future<T> item = service.submit( task );
-        count.incrementAndGet();
-        return item;
+        acquire();
+        return doSubmit( task );
     }
 
+    /**
+     * Blocks while the in-flight window is full, like {@link #submit(Callable)}.
+     */
     public Future<T> submit( final Runnable task, final T result )
     {
-        Future<T> item = service.submit( task, result );
-        count.incrementAndGet();
-
-        return item;
+        acquire();
+        try
+        {
+            Future<T> item = service.submit( task, result );
+            count.incrementAndGet();
+            return item;
+        }
+        catch ( RuntimeException e )
+        {
+            release();
+            throw e;
+        }
     }
 
-    public Future<T> take()
+    /**
+     * Waits up to the given timeout for room in the in-flight window.
+     *
+     * @throws RejectedExecutionException if the window is still full when the timeout passes
+     */
+    public Future<T> submit( final Callable<T> task, final long timeout, final TimeUnit unit )
             throws InterruptedException
     {
-        Future<T> item = service.take();
-        count.decrementAndGet();
-        return item;
+        if ( window != null && !window.tryAcquire( timeout, unit ) )
+        {
+            throw new RejectedExecutionException( maxInFlight + " tasks already in flight" );
+        }
+
+        return doSubmit( task );
     }
 
-    public Future<T> poll()
+    /**
+     * @return the future, or null if the in-flight window is full.
+     */
+    public Future<T> trySubmit( final Callable<T> task )
+    {
+        if ( window != null && !window.tryAcquire() )
+        {
+            return null;
+        }
+
+        return doSubmit( task );
+    }
+
+    private Future<T> doSubmit( final Callable<T> task )
+    {
+        try
+        {
+            Future<T> item = service.submit( task );
+            count.incrementAndGet();
+            return item;
+        }
+        catch ( RuntimeException e )
+        {
+            release();
+            throw e;
+        }
+    }
+
+    private void acquire()
+    {
+        if ( window == null )
+        {
+            return;
+        }
+
+        try
+        {
+            window.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException( "Interrupted while waiting for room in the in-flight window", e );
+        }
+    }
+
+    private void release()
+    {
+        if ( window != null )
+        {
+            window.release();
+        }
+    }
+
+    private Future<T> taken( final Future<T> item )
     {
-        Future<T> item = service.poll();
         if ( item != null )
         {
             count.decrementAndGet();
+            release();
         }
 
         return item;
     }
 
+    public Future<T> take()
+            throws InterruptedException
+    {
+        return taken( service.take() );
+    }
+
+    public Future<T> poll()
+    {
+        return taken( service.poll() );
+    }
+
     public Future<T> poll( final long timeout, final TimeUnit unit )
             throws InterruptedException
     {
-        Future<T> item = service.poll( timeout, unit );
-        if ( item != null )
+        return taken( service.poll( timeout, unit ) );
+    }
+
+    /**
+     * Block until the next task finishes.
+     */
+    public Completion<T> takeCompletion()
+            throws InterruptedException
+    {
+        return Completion.of( take() );
+    }
+
+    /**
+     * Iterate over the results of all outstanding tasks in completion order, blocking in {@link Iterator#next()} until
+     * each one is available. Iteration ends once nothing is outstanding. If the waiting thread is interrupted, its
+     * interrupt flag is restored and {@link IllegalStateException} is thrown.
+     */
+    public Iterator<Completion<T>> iterator()
+    {
+        return new Iterator<Completion<T>>()
         {
-            count.decrementAndGet();
+            @Override
+            public boolean hasNext()
+            {
+                return count.get() > 0;
+            }
+
+            @Override
+            public Completion<T> next()
+            {
+                if ( !hasNext() )
+                {
+                    throw new NoSuchElementException( "No outstanding tasks" );
+                }
+
+                try
+                {
+                    return takeCompletion();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException( "Interrupted while waiting for the next result", e );
+                }
+            }
+        };
+    }
+
+    /**
+     * Sequential stream over {@link #iterator()}.
+     */
+    public Stream<Completion<T>> stream()
+    {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize( iterator(), Spliterator.ORDERED | Spliterator.NONNULL ), false );
+    }
+
+    /**
+     * Publish results in completion order, honouring the subscriber's demand. Results are only taken from the service
+     * as they are requested, so completed results wait in the service rather than piling up in the subscriber. The
+     * publisher completes once nothing is outstanding. Deliveries run on the given executor, which blocks while waiting
+     * for results; each subscriber takes its own share of the results, so there should normally be only one.
+     */
+    public Flow.Publisher<Completion<T>> publisher( final Executor deliveryExecutor )
+    {
+        return subscriber -> new CompletionSubscription( subscriber, deliveryExecutor ).start();
+    }
+
+    /**
+     * Hand results to the consumer in batches of up to batchSize, until nothing is outstanding or the timeout passes.
+     * A partial batch is flushed before returning either way.
+     *
+     * @return the number of results drained; if this is less than the outstanding count on entry, the timeout passed.
+     */
+    public int drainTo( final Consumer<List<Completion<T>>> batchConsumer, final int batchSize, final long timeout,
+                        final TimeUnit unit )
+            throws InterruptedException
+    {
+        if ( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "batchSize must be at least 1" );
         }
 
-        return item;
+        long deadline = System.nanoTime() + unit.toNanos( timeout );
+        int drained = 0;
+        List<Completion<T>> batch = new ArrayList<>( batchSize );
+        while ( count.get() > 0 )
+        {
+            long remaining = deadline - System.nanoTime();
+            Future<T> item = remaining > 0 ? poll( remaining, TimeUnit.NANOSECONDS ) : poll();
+            if ( item == null )
+            {
+                break;
+            }
+
+            batch.add( Completion.of( item ) );
+            drained++;
+            if ( batch.size() >= batchSize )
+            {
+                batchConsumer.accept( batch );
+                batch = new ArrayList<>( batchSize );
+            }
+        }
+
+        if ( !batch.isEmpty() )
+        {
+            batchConsumer.accept( batch );
+        }
+
+        return drained;
+    }
+
+    /**
+     * Outcome of one finished task: either a result or the error that ended it.
+     */
+    public static final class Completion<T>
+    {
+        private final T result;
+
+        private final Throwable error;
+
+        private Completion( final T result, final Throwable error )
+        {
+            this.result = result;
+            this.error = error;
+        }
+
+        static <T> Completion<T> of( final Future<T> future )
+                throws InterruptedException
+        {
+            try
+            {
+                return new Completion<>( future.get(), null );
+            }
+            catch ( ExecutionException e )
+            {
+                return new Completion<>( null, e.getCause() == null ? e : e.getCause() );
+            }
+            catch ( CancellationException e )
+            {
+                return new Completion<>( null, e );
+            }
+        }
+
+        public boolean isSuccess()
+        {
+            return error == null;
+        }
+
+        public T getResult()
+        {
+            return result;
+        }
+
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        /**
+         * @return the result, or throw the task's error wrapped in {@link ExecutionException}.
+         */
+        public T get()
+                throws ExecutionException
+        {
+            if ( error != null )
+            {
+                throw new ExecutionException( error );
+            }
+
+            return result;
+        }
+
+        @Override
+        public String toString()
+        {
+            return isSuccess() ? "Completion{result=" + result + "}" : "Completion{error=" + error + "}";
+        }
+    }
+
+    private final class CompletionSubscription
+            implements Flow.Subscription
+    {
+        private final Flow.Subscriber<? super Completion<T>> subscriber;
+
+        private final Executor deliveryExecutor;
+
+        private final AtomicLong demand = new AtomicLong( 0 );
+
+        private final AtomicInteger wip = new AtomicInteger( 0 );
+
+        private volatile boolean cancelled;
+
+        // an error to signal from deliver(), so it is not signalled concurrently with onNext (Reactive Streams 1.3).
+        private volatile Throwable error;
+
+        private boolean done;
+
+        private CompletionSubscription( final Flow.Subscriber<? super Completion<T>> subscriber,
+                                        final Executor deliveryExecutor )
+        {
+            this.subscriber = subscriber;
+            this.deliveryExecutor = deliveryExecutor;
+        }
+
+        private void start()
+        {
+            subscriber.onSubscribe( this );
+            signal();
+        }
+
+        @Override
+        public void request( final long n )
+        {
+            if ( n <= 0 )
+            {
+                if ( error == null )
+                {
+                    error = new IllegalArgumentException( "Non-positive request: " + n );
+                }
+                signal();
+                return;
+            }
+
+            demand.getAndUpdate( d -> d + n < 0 ? Long.MAX_VALUE : d + n );
+            signal();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+        }
+
+        private void signal()
+        {
+            if ( wip.getAndIncrement() == 0 )
+            {
+                try
+                {
+                    deliveryExecutor.execute( this::deliver );
+                }
+                catch ( RejectedExecutionException e )
+                {
+                    cancelled = true;
+                    subscriber.onError( e );
+                }
+            }
+        }
+
+        // only ever runs on one thread at a time, guarded by wip.
+        private void deliver()
+        {
+            int missed = 1;
+            while ( true )
+            {
+                while ( !cancelled && !done )
+                {
+                    if ( error != null )
+                    {
+                        done = true;
+                        subscriber.onError( error );
+                        break;
+                    }
+
+                    if ( count.get() < 1 )
+                    {
+                        done = true;
+                        subscriber.onComplete();
+                        break;
+                    }
+
+                    if ( demand.get() < 1 )
+                    {
+                        break;
+                    }
+
+                    Completion<T> next;
+                    try
+                    {
+                        next = takeCompletion();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                        done = true;
+                        subscriber.onError( e );
+                        break;
+                    }
+
+                    demand.decrementAndGet();
+                    subscriber.onNext( next );
+                }
+
+                missed = wip.addAndGet( -missed );
+                if ( missed == 0 )
+                {
+                    return;
+                }
+            }
+        }
     }
 }
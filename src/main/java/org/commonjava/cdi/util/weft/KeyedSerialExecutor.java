@@ -0,0 +1,277 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a shared {@link WeftExecutorService} so that tasks with the same key run one at a time, in submission
+ * order, while tasks with different keys run in parallel.
+ *
+ * No thread is dedicated to a key, and no pool thread blocks waiting for its turn: each key with pending work has at
+ * most one drain task on the pool, which runs up to {@link #getBatchSize()} queued tasks and then resubmits itself if
+ * more remain, so one busy key cannot monopolize a pool thread. Keys are forgotten as soon as their queue empties.
+ * Each task runs with the {@link ThreadContext} of its submitter. Drain tasks carry no context of their own, so a
+ * cancelled request only skips its own tasks, never those queued behind them by other requests.
+ * @since 2.3
+ */
+public class KeyedSerialExecutor<K>
+{
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final WeftExecutorService executor;
+
+    private final int batchSize;
+
+    private final ConcurrentMap<K, Queue<SerialTask<?>>> queues = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger( 0 );
+
+    public KeyedSerialExecutor( final WeftExecutorService executor )
+    {
+        this( executor, DEFAULT_BATCH_SIZE );
+    }
+
+    public KeyedSerialExecutor( final WeftExecutorService executor, final int batchSize )
+    {
+        if ( batchSize < 1 )
+        {
+            throw new IllegalArgumentException( "batchSize must be at least 1" );
+        }
+
+        this.executor = executor;
+        this.batchSize = batchSize;
+    }
+
+    public <T> Future<T> submit( final K key, final Callable<T> callable )
+    {
+        return enqueue( key, new SerialTask<>( key, callable, callable, false ) );
+    }
+
+    public <T> Future<T> submit( final K key, final Runnable runnable, final T result )
+    {
+        return enqueue( key, new SerialTask<>( key, Executors.callable( runnable, result ), runnable, false ) );
+    }
+
+    public Future<?> submit( final K key, final Runnable runnable )
+    {
+        return submit( key, runnable, null );
+    }
+
+    /**
+     * Like {@link #submit(Object, Runnable)}, but failures are logged since nobody holds the future.
+     */
+    public void execute( final K key, final Runnable runnable )
+    {
+        enqueue( key, new SerialTask<>( key, Executors.callable( runnable ), runnable, true ) );
+    }
+
+    public WeftExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * @return the number of tasks waiting for their key's turn, not counting those currently running.
+     */
+    public int getQueuedTaskCount()
+    {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of keys with queued or running tasks.
+     */
+    public int getActiveKeyCount()
+    {
+        return queues.size();
+    }
+
+    private <T> Future<T> enqueue( final K key, final SerialTask<T> task )
+    {
+        if ( executor.isShutdown() )
+        {
+            throw new RejectedExecutionException( "Executor is shut down: " + executor.getName() );
+        }
+
+        boolean[] first = { false };
+        queues.compute( key, ( k, q ) -> {
+            if ( q == null )
+            {
+                q = new ConcurrentLinkedQueue<>();
+                first[0] = true;
+            }
+
+            q.add( task );
+            return q;
+        } );
+        queued.incrementAndGet();
+
+        if ( first[0] )
+        {
+            schedule( key );
+        }
+
+        return task;
+    }
+
+    /**
+     * Submit the drain for a key. If the pool refuses it, because it is shut down or overloaded (see
+     * {@link org.commonjava.cdi.util.weft.exception.PoolOverloadException}), nothing would ever run what is queued for
+     * the key, so the key is dropped and its pending tasks fail with the pool's exception, which is then rethrown.
+     */
+    private void schedule( final K key )
+    {
+        try
+        {
+            // the drain serves every submitter of the key, so it must not inherit this one's token or deadline.
+            ThreadContext.runWith( null, () -> executor.execute( new Drain( key ) ) );
+        }
+        catch ( RuntimeException e )
+        {
+            Queue<SerialTask<?>> q = queues.remove( key );
+            if ( q != null )
+            {
+                SerialTask<?> task;
+                while ( ( task = q.poll() ) != null )
+                {
+                    queued.decrementAndGet();
+                    task.fail( e );
+                }
+            }
+
+            throw e;
+        }
+    }
+
+    private final class Drain
+            implements Runnable
+    {
+        private final K key;
+
+        private Drain( final K key )
+        {
+            this.key = key;
+        }
+
+        @Override
+        public void run()
+        {
+            Queue<SerialTask<?>> q = queues.get( key );
+            for ( int i = 0; q != null && i < batchSize; i++ )
+            {
+                SerialTask<?> task = q.poll();
+                if ( task == null )
+                {
+                    break;
+                }
+
+                queued.decrementAndGet();
+                if ( task.ctx != null && task.ctx.isCancelled() )
+                {
+                    task.cancel( false );
+                    continue;
+                }
+
+                ThreadContext.runWith( task.ctx, task );
+            }
+
+            // enqueue() adds under the same bin lock, so a task added after our last poll keeps the queue alive here.
+            Queue<SerialTask<?>> remaining = queues.computeIfPresent( key, ( k, cur ) -> cur.isEmpty() ? null : cur );
+            if ( remaining != null )
+            {
+                try
+                {
+                    schedule( key );
+                }
+                catch ( RuntimeException e )
+                {
+                    Logger logger = LoggerFactory.getLogger( getClass() );
+                    logger.warn( "Cannot reschedule serial tasks for key: {}; failed the pending tasks. Reason: {}",
+                                 key, e.getMessage() );
+                }
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return "Serial drain for: " + key;
+        }
+    }
+
+    private final class SerialTask<T>
+            extends FutureTask<T>
+    {
+        private final K key;
+
+        private final Object task;
+
+        private final ThreadContext ctx;
+
+        private final boolean logFailure;
+
+        private SerialTask( final K key, final Callable<T> callable, final Object task, final boolean logFailure )
+        {
+            super( callable );
+            this.key = key;
+            this.task = task;
+            this.logFailure = logFailure;
+
+            ThreadContext current = ThreadContext.getContext( false );
+            this.ctx = current == null ? null : current.inheritForChild();
+        }
+
+        private void fail( final Throwable t )
+        {
+            setException( t );
+        }
+
+        @Override
+        protected void setException( final Throwable t )
+        {
+            super.setException( t );
+            if ( logFailure )
+            {
+                Logger logger = LoggerFactory.getLogger( getClass() );
+                logger.error( "Serial task failed for key: " + key + ": " + task, t );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf( task );
+        }
+    }
+}
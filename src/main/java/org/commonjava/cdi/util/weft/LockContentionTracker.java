@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Optional instrumentation for {@link Locker} and {@link SignallingLocker}, recording per-key acquisition counts, wait
+ * times, timeouts, contended try-locks and the thread currently holding the lock.
+ *
+ * Memory is bounded using a sampled variant of the Space-Saving heavy-hitter algorithm: at most {@link #getCapacity()}
+ * keys are tracked. When a new key arrives and the tracker is full, the least-active of a few randomly sampled keys is
+ * evicted, and the newcomer inherits its activity as {@link LockKeyStats#getError()}: activity it may have had before
+ * it was tracked. The error is kept apart from the counts, which only cover what was seen while tracked, and is added
+ * back only to rank keys. Keys that are genuinely hot will therefore almost always be present.
+ *
+ * Recording on a tracked key only touches that key's counters, so lockers on different keys do not contend here. Only
+ * the arrival of an untracked key, which may evict another, takes a lock, and only long enough to sample
+ * {@link #EVICTION_SAMPLES} keys. Counts updated while their key is being evicted may be lost, so under concurrency
+ * the counts are approximate.
+ *
+ * @param <K> The key used to map the locks.
+ */
+public class LockContentionTracker<K>
+{
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /**
+     * How many tracked keys are compared to pick one to evict.
+     */
+    public static final int EVICTION_SAMPLES = 8;
+
+    private final int capacity;
+
+    private final Map<K, KeyCounter> counters;
+
+    private final Object evictionLock = new Object();
+
+    // the tracked counters, indexed by their slot so eviction can sample them; guarded by evictionLock
+    private final KeyCounter[] slots;
+
+    // guarded by evictionLock
+    private int tracked;
+
+    public LockContentionTracker()
+    {
+        this( DEFAULT_CAPACITY );
+    }
+
+    public LockContentionTracker( int capacity )
+    {
+        if ( capacity < 1 )
+        {
+            throw new IllegalArgumentException( "Invalid contention tracker capacity: " + capacity );
+        }
+
+        this.capacity = capacity;
+        this.counters = new ConcurrentHashMap<>( capacity * 2 );
+        this.slots = new KeyCounter[capacity];
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Record that the current thread acquired the lock for the given key after waiting the given time. Reentrant
+     * acquisitions are counted, and the holder stays set until the outermost release.
+     */
+    public void recordAcquired( K key, long waitNanos )
+    {
+        KeyCounter counter = counterFor( key );
+        counter.acquisitions.increment();
+        counter.addWait( waitNanos );
+
+        Thread current = Thread.currentThread();
+        if ( counter.holder == current )
+        {
+            counter.holds++;
+        }
+        else
+        {
+            counter.holds = 1;
+            counter.holder = current;
+        }
+    }
+
+    /**
+     * Record that the current thread gave up on acquiring the lock for the given key after waiting the given time,
+     * because the wait timed out or was interrupted.
+     */
+    public void recordTimeout( K key, long waitNanos )
+    {
+        KeyCounter counter = counterFor( key );
+        counter.timeouts.increment();
+        counter.addWait( waitNanos );
+    }
+
+    /**
+     * Record that the current thread found the lock for the given key held, and did not wait for it.
+     */
+    public void recordContended( K key )
+    {
+        counterFor( key ).contended.increment();
+    }
+
+    /**
+     * Record that the current thread released one hold on the lock for the given key.
+     */
+    public void recordReleased( K key )
+    {
+        KeyCounter counter = counters.get( key );
+        if ( counter != null && counter.holder == Thread.currentThread() && --counter.holds <= 0 )
+        {
+            counter.holds = 0;
+            counter.holder = null;
+        }
+    }
+
+    /**
+     * @return snapshots of all tracked keys, hottest (most acquisitions + timeouts + contended + error) first.
+     */
+    public List<LockKeyStats<K>> getHotKeys()
+    {
+        return getHotKeys( capacity );
+    }
+
+    /**
+     * @return snapshots of at most limit tracked keys, hottest (most acquisitions + timeouts + contended + error) first.
+     */
+    public List<LockKeyStats<K>> getHotKeys( int limit )
+    {
+        List<LockKeyStats<K>> result = new ArrayList<>( counters.size() );
+        counters.forEach( ( key, counter ) -> {
+            Thread holder = counter.holder;
+            result.add( new LockKeyStats<>( key, counter.acquisitions.sum(), counter.timeouts.sum(),
+                                            counter.contended.sum(), counter.totalWaitNanos.sum(),
+                                            counter.maxWaitNanos.get(), holder == null ? null : holder.getName(),
+                                            counter.error ) );
+        } );
+
+        result.sort( Comparator.comparingLong( ( LockKeyStats<K> s ) -> s.getActivity() + s.getError() ).reversed() );
+
+        return result.size() > limit ? new ArrayList<>( result.subList( 0, limit ) ) : result;
+    }
+
+    public void reset()
+    {
+        synchronized ( evictionLock )
+        {
+            counters.clear();
+            Arrays.fill( slots, null );
+            tracked = 0;
+        }
+    }
+
+    private KeyCounter counterFor( K key )
+    {
+        KeyCounter counter = counters.get( key );
+        if ( counter != null )
+        {
+            return counter;
+        }
+
+        synchronized ( evictionLock )
+        {
+            counter = counters.get( key );
+            if ( counter != null )
+            {
+                return counter;
+            }
+
+            int slot;
+            long error = 0;
+            if ( tracked < capacity )
+            {
+                slot = tracked++;
+            }
+            else
+            {
+                // Space-Saving: the newcomer inherits the evicted key's rank as its error.
+                slot = leastActiveSlot();
+                KeyCounter evicted = slots[slot];
+                counters.remove( evicted.key, evicted );
+                error = evicted.rank();
+            }
+
+            counter = new KeyCounter( key, error );
+            slots[slot] = counter;
+            counters.put( key, counter );
+            return counter;
+        }
+    }
+
+    /**
+     * @return the slot of the least active of {@link #EVICTION_SAMPLES} randomly chosen counters, or of all of them if
+     * there are no more than that. Must hold evictionLock.
+     */
+    private int leastActiveSlot()
+    {
+        boolean sampled = capacity > EVICTION_SAMPLES;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        int min = -1;
+        long minRank = Long.MAX_VALUE;
+        for ( int i = 0; i < Math.min( capacity, EVICTION_SAMPLES ); i++ )
+        {
+            int slot = sampled ? random.nextInt( capacity ) : i;
+            long rank = slots[slot].rank();
+            if ( rank < minRank )
+            {
+                min = slot;
+                minRank = rank;
+            }
+        }
+
+        return min;
+    }
+
+    private static final class KeyCounter
+    {
+        private final LongAdder acquisitions = new LongAdder();
+
+        private final LongAdder timeouts = new LongAdder();
+
+        private final LongAdder contended = new LongAdder();
+
+        private final LongAdder totalWaitNanos = new LongAdder();
+
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private final Object key;
+
+        private final long error;
+
+        // only written by the thread holding the key's lock
+        private volatile Thread holder;
+
+        private int holds;
+
+        private KeyCounter( Object key, long error )
+        {
+            this.key = key;
+            this.error = error;
+        }
+
+        private long rank()
+        {
+            return acquisitions.sum() + timeouts.sum() + contended.sum() + error;
+        }
+
+        private void addWait( long waitNanos )
+        {
+            totalWaitNanos.add( waitNanos );
+            maxWaitNanos.accumulateAndGet( waitNanos, Math::max );
+        }
+    }
+}
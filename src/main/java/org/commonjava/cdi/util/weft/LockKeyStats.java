@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time snapshot of the contention statistics for one lock key, as reported by {@link LockContentionTracker}.
+ *
+ * @param <K> The key used to map the locks.
+ */
+public final class LockKeyStats<K>
+{
+    private final K key;
+
+    private final long acquisitions;
+
+    private final long timeouts;
+
+    private final long contended;
+
+    private final long totalWaitNanos;
+
+    private final long maxWaitNanos;
+
+    private final String holder;
+
+    private final long error;
+
+    public LockKeyStats( K key, long acquisitions, long timeouts, long contended, long totalWaitNanos,
+                         long maxWaitNanos, String holder, long error )
+    {
+        this.key = key;
+        this.acquisitions = acquisitions;
+        this.timeouts = timeouts;
+        this.contended = contended;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+        this.holder = holder;
+        this.error = error;
+    }
+
+    public K getKey()
+    {
+        return key;
+    }
+
+    public long getAcquisitions()
+    {
+        return acquisitions;
+    }
+
+    public long getTimeouts()
+    {
+        return timeouts;
+    }
+
+    /**
+     * @return how many times the lock was found held by a caller that did not wait for it, as in
+     * {@link Locker#ifUnlocked}.
+     */
+    public long getContended()
+    {
+        return contended;
+    }
+
+    public long getActivity()
+    {
+        return acquisitions + timeouts + contended;
+    }
+
+    public long getTotalWait( TimeUnit unit )
+    {
+        return unit.convert( totalWaitNanos, TimeUnit.NANOSECONDS );
+    }
+
+    public long getMaxWait( TimeUnit unit )
+    {
+        return unit.convert( maxWaitNanos, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * @return name of the thread holding the lock when this snapshot was taken, or null if it was free.
+     */
+    public String getHolder()
+    {
+        return holder;
+    }
+
+    /**
+     * @return how much activity the key may have had before it was tracked, inherited from the key it displaced under
+     * bounded tracking. It is not included in the other counts, which may therefore underestimate by up to this much.
+     */
+    public long getError()
+    {
+        return error;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LockKeyStats{" + "key=" + key + ", acquisitions=" + acquisitions + ", timeouts=" + timeouts
+                + ", contended=" + contended + ", totalWaitMs=" + getTotalWait( TimeUnit.MILLISECONDS )
+                + ", maxWaitMs=" + getMaxWait( TimeUnit.MILLISECONDS ) + ", holder='" + holder + '\'' + ", error="
+                + error + '}';
+    }
+}
@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
@@ -37,22 +38,41 @@ public class Locker<K>
 
     private Map<K, ReentrantLock> locks;
 
+    private final LockContentionTracker<K> tracker;
+
     public Locker()
     {
-        this( new ContextSensitiveWeakHashMap<>(), DEFAULT_SWEEP_MS );
+        this( new ConcurrentContextSensitiveWeakHashMap<>(), DEFAULT_SWEEP_MS );
     }
 
     public Locker( long sweepStaleLocks )
     {
-        this( new ContextSensitiveWeakHashMap<>(), sweepStaleLocks );
+        this( new ConcurrentContextSensitiveWeakHashMap<>(), sweepStaleLocks );
     }
 
     public Locker( Map<K, ReentrantLock> locks, long staleSweepMillis )
     {
-        this.locks = Collections.synchronizedMap( locks );
+        this( locks, staleSweepMillis, null );
+    }
+
+    /**
+     * @param tracker optional contention tracker, used to report hot keys and their holders. May be null.
+     */
+    public Locker( Map<K, ReentrantLock> locks, long staleSweepMillis, LockContentionTracker<K> tracker )
+    {
+        this.locks = locks instanceof ConcurrentMap ? locks : Collections.synchronizedMap( locks );
+        this.tracker = tracker;
         this.timer.scheduleAtFixedRate( new SweepStaleTask(), staleSweepMillis, staleSweepMillis );
     }
 
+    /**
+     * @return the contention tracker for this locker, or null if contention tracking is disabled.
+     */
+    public LockContentionTracker<K> getContentionTracker()
+    {
+        return tracker;
+    }
+
     public <T> T ifUnlocked( K key, Function<K, T> function, BiFunction<K, ReentrantLock, T> lockedFunction )
     {
         final ReentrantLock lock = locks.computeIfAbsent( key, k -> new ReentrantLock() );
@@ -62,10 +82,12 @@ public class Locker<K>
             locked = lock.tryLock();
             if ( locked )
             {
+                recordAcquired( key, 0 );
                 return function.apply( key );
             }
             else
             {
+                recordContended( key );
                 return lockedFunction.apply( key, lock );
             }
         }
@@ -73,6 +95,7 @@ public class Locker<K>
         {
             if ( lock.isHeldByCurrentThread() )
             {
+                recordReleased( key );
                 lock.unlock();
             }
         }
@@ -112,17 +135,20 @@ public class Locker<K>
         do
         {
             Boolean locked = false;
+            long start = System.nanoTime();
             try
             {
                 logger.debug( "Locking on: {} with timeout seconds: {}", key, timeoutSeconds );
                 locked = lock.tryLock( timeoutSeconds, TimeUnit.SECONDS );
                 if ( locked )
                 {
+                    recordAcquired( key, System.nanoTime() - start );
                     logger.debug( "Applying function locked with: {}", key );
                     return function.apply( key );
                 }
                 else
                 {
+                    recordTimeout( key, System.nanoTime() - start );
                     logger.debug( "Lock failed for key: {}", key );
                     retry = lockFailedFunction.apply( key, lock );
                     logger.debug( "Retry lock on: {}? {}", key, retry );
@@ -130,6 +156,7 @@ public class Locker<K>
             }
             catch ( InterruptedException e )
             {
+                recordTimeout( key, System.nanoTime() - start );
                 logger.warn( "Interrupted waiting for lock on key: {}", key );
             }
             finally
@@ -138,6 +165,7 @@ public class Locker<K>
                 if ( locked )
                 {
                     logger.debug( "Unlocking key: {}", key );
+                    recordReleased( key );
                     lock.unlock();
                 }
             }
@@ -148,6 +176,38 @@ public class Locker<K>
         return null;
     }
 
+    private void recordAcquired( K key, long waitNanos )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordAcquired( key, waitNanos );
+        }
+    }
+
+    private void recordTimeout( K key, long waitNanos )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordTimeout( key, waitNanos );
+        }
+    }
+
+    private void recordContended( K key )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordContended( key );
+        }
+    }
+
+    private void recordReleased( K key )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordReleased( key );
+        }
+    }
+
     private boolean isStale( ReentrantLock lock )
     {
         synchronized ( lock )
@@ -177,7 +237,7 @@ public class Locker<K>
             toScan.forEach( ( key, lock)->{
                 if ( isStale(lock) )
                 {
-                    locks.remove( key );
+                    locks.remove( key, lock );
                 }
             } );
         }
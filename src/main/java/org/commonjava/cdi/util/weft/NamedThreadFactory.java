@@ -15,6 +15,9 @@
  */
 package org.commonjava.cdi.util.weft;
 
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
 import java.util.concurrent.ThreadFactory;
 
 public class NamedThreadFactory
@@ -33,6 +36,12 @@ public class NamedThreadFactory
 
     private ThreadGroup threadGroup;
 
+    private volatile Runnable warmUp;
+
+    private volatile CpuSet affinity;
+
+    private volatile CpuAffinityBinder binder;
+
     @Deprecated
     public NamedThreadFactory( final String name, final boolean daemon, final int priority )
     {
@@ -49,10 +58,48 @@ public class NamedThreadFactory
         this.priority = priority;
     }
 
+    /**
+     * Run the given task on each new thread before it starts working. Failures are logged, and do not stop the thread.
+     * @since 2.3
+     */
+    public void setWarmUp( final Runnable warmUp )
+    {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Bind each new thread to the given CPUs as it starts, before any warm-up. If binding fails, the failure is logged
+     * and the thread runs unbound. Null CPUs turn binding off for threads created afterward.
+     * @since 2.3
+     */
+    public void setAffinity( final CpuSet affinity, final CpuAffinityBinder binder )
+    {
+        this.binder = binder;
+        this.affinity = affinity == null || affinity.isEmpty() ? null : affinity;
+    }
+
+    public CpuSet getAffinity()
+    {
+        return affinity;
+    }
+
     @Override
     public Thread newThread( final Runnable runnable )
     {
-        final Thread t = new Thread( threadGroup, runnable );
+        final Runnable w = warmUp;
+        final CpuSet cpus = affinity;
+        final CpuAffinityBinder b = binder;
+        final Thread t = new Thread( threadGroup, w == null && cpus == null ? runnable : () -> {
+            if ( cpus != null )
+            {
+                bind( b, cpus );
+            }
+            if ( w != null )
+            {
+                warmUp( w );
+            }
+            runnable.run();
+        } );
         t.setContextClassLoader( ccl );
         t.setName( name + "-" + counter++ );
         t.setDaemon( daemon );
@@ -60,4 +107,29 @@ public class NamedThreadFactory
 
         return t;
     }
+
+    private void bind( final CpuAffinityBinder b, final CpuSet cpus )
+    {
+        try
+        {
+            b.bindCurrentThread( cpus );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            LoggerFactory.getLogger( getClass() )
+                         .warn( "Cannot bind thread: " + Thread.currentThread().getName() + " to CPUs: " + cpus, e );
+        }
+    }
+
+    private void warmUp( final Runnable w )
+    {
+        try
+        {
+            w.run();
+        }
+        catch ( RuntimeException e )
+        {
+            LoggerFactory.getLogger( getClass() ).warn( "Warm-up failed on thread: " + Thread.currentThread().getName(), e );
+        }
+    }
 }
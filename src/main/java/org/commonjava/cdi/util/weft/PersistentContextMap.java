@@ -0,0 +1,379 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Immutable hash array mapped trie, used to back {@link ThreadContext} in snapshot inheritance mode. Every update
+ * returns a new map that shares all untouched nodes with the old one, so capturing the current state for a child is
+ * just a read of the root reference.
+ *
+ * Keys and values must not be null.
+ */
+final class PersistentContextMap
+{
+    static final PersistentContextMap EMPTY = new PersistentContextMap( null, 0 );
+
+    private static final Object NOT_FOUND = new Object();
+
+    private static final int BITS = 5;
+
+    private static final int MASK = ( 1 << BITS ) - 1;
+
+    private final Node root;
+
+    private final int size;
+
+    private PersistentContextMap( Node root, int size )
+    {
+        this.root = root;
+        this.size = size;
+    }
+
+    static PersistentContextMap copyOf( Map<String, Object> map )
+    {
+        PersistentContextMap result = EMPTY;
+        for ( Map.Entry<String, Object> e : map.entrySet() )
+        {
+            result = result.put( e.getKey(), e.getValue() );
+        }
+
+        return result;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    Object get( Object key )
+    {
+        if ( root == null || key == null )
+        {
+            return null;
+        }
+
+        Object v = root.find( 0, key.hashCode(), key );
+        return v == NOT_FOUND ? null : v;
+    }
+
+    PersistentContextMap put( String key, Object value )
+    {
+        if ( key == null || value == null )
+        {
+            throw new NullPointerException( "ThreadContext does not support null keys or values" );
+        }
+
+        boolean[] added = { false };
+        Node start = root == null ? BitmapNode.EMPTY : root;
+        Node newRoot = start.assoc( 0, key.hashCode(), key, value, added );
+        if ( newRoot == root )
+        {
+            return this;
+        }
+
+        return new PersistentContextMap( newRoot, added[0] ? size + 1 : size );
+    }
+
+    PersistentContextMap remove( Object key )
+    {
+        if ( root == null || key == null )
+        {
+            return this;
+        }
+
+        Node newRoot = root.without( 0, key.hashCode(), key );
+        if ( newRoot == root )
+        {
+            return this;
+        }
+
+        return newRoot == null ? EMPTY : new PersistentContextMap( newRoot, size - 1 );
+    }
+
+    void forEach( BiConsumer<String, Object> action )
+    {
+        if ( root != null )
+        {
+            root.forEach( action );
+        }
+    }
+
+    private static int bitpos( int hash, int shift )
+    {
+        return 1 << ( ( hash >>> shift ) & MASK );
+    }
+
+    private static Object[] cloneAndSet( Object[] array, int i, Object a )
+    {
+        Object[] clone = array.clone();
+        clone[i] = a;
+        return clone;
+    }
+
+    private static Object[] cloneAndSet( Object[] array, int i, Object a, int j, Object b )
+    {
+        Object[] clone = array.clone();
+        clone[i] = a;
+        clone[j] = b;
+        return clone;
+    }
+
+    private static Object[] removePair( Object[] array, int i )
+    {
+        Object[] result = new Object[array.length - 2];
+        System.arraycopy( array, 0, result, 0, 2 * i );
+        System.arraycopy( array, 2 * ( i + 1 ), result, 2 * i, result.length - 2 * i );
+        return result;
+    }
+
+    private interface Node
+    {
+        Object find( int shift, int hash, Object key );
+
+        Node assoc( int shift, int hash, String key, Object value, boolean[] added );
+
+        Node without( int shift, int hash, Object key );
+
+        void forEach( BiConsumer<String, Object> action );
+    }
+
+    /**
+     * Stores key/value pairs as adjacent array slots. A null key slot means the value slot holds a sub-node.
+     */
+    private static final class BitmapNode
+            implements Node
+    {
+        private static final BitmapNode EMPTY = new BitmapNode( 0, new Object[0] );
+
+        private final int bitmap;
+
+        private final Object[] array;
+
+        private BitmapNode( int bitmap, Object[] array )
+        {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index( int bit )
+        {
+            return Integer.bitCount( bitmap & ( bit - 1 ) );
+        }
+
+        @Override
+        public Object find( int shift, int hash, Object key )
+        {
+            int bit = bitpos( hash, shift );
+            if ( ( bitmap & bit ) == 0 )
+            {
+                return NOT_FOUND;
+            }
+
+            int idx = index( bit );
+            Object k = array[2 * idx];
+            Object v = array[2 * idx + 1];
+            if ( k == null )
+            {
+                return ( (Node) v ).find( shift + BITS, hash, key );
+            }
+
+            return key.equals( k ) ? v : NOT_FOUND;
+        }
+
+        @Override
+        public Node assoc( int shift, int hash, String key, Object value, boolean[] added )
+        {
+            int bit = bitpos( hash, shift );
+            int idx = index( bit );
+            if ( ( bitmap & bit ) != 0 )
+            {
+                Object k = array[2 * idx];
+                Object v = array[2 * idx + 1];
+                if ( k == null )
+                {
+                    Node n = ( (Node) v ).assoc( shift + BITS, hash, key, value, added );
+                    return n == v ? this : new BitmapNode( bitmap, cloneAndSet( array, 2 * idx + 1, n ) );
+                }
+
+                if ( key.equals( k ) )
+                {
+                    return v == value ? this : new BitmapNode( bitmap, cloneAndSet( array, 2 * idx + 1, value ) );
+                }
+
+                added[0] = true;
+                Node sub = createNode( shift + BITS, (String) k, v, hash, key, value );
+                return new BitmapNode( bitmap, cloneAndSet( array, 2 * idx, null, 2 * idx + 1, sub ) );
+            }
+
+            int n = Integer.bitCount( bitmap );
+            Object[] newArray = new Object[2 * ( n + 1 )];
+            System.arraycopy( array, 0, newArray, 0, 2 * idx );
+            newArray[2 * idx] = key;
+            newArray[2 * idx + 1] = value;
+            System.arraycopy( array, 2 * idx, newArray, 2 * ( idx + 1 ), 2 * ( n - idx ) );
+
+            added[0] = true;
+            return new BitmapNode( bitmap | bit, newArray );
+        }
+
+        @Override
+        public Node without( int shift, int hash, Object key )
+        {
+            int bit = bitpos( hash, shift );
+            if ( ( bitmap & bit ) == 0 )
+            {
+                return this;
+            }
+
+            int idx = index( bit );
+            Object k = array[2 * idx];
+            Object v = array[2 * idx + 1];
+            if ( k == null )
+            {
+                Node n = ( (Node) v ).without( shift + BITS, hash, key );
+                if ( n == v )
+                {
+                    return this;
+                }
+
+                if ( n != null )
+                {
+                    return new BitmapNode( bitmap, cloneAndSet( array, 2 * idx + 1, n ) );
+                }
+            }
+            else if ( !key.equals( k ) )
+            {
+                return this;
+            }
+
+            return bitmap == bit ? null : new BitmapNode( bitmap ^ bit, removePair( array, idx ) );
+        }
+
+        @Override
+        public void forEach( BiConsumer<String, Object> action )
+        {
+            for ( int i = 0; i < array.length; i += 2 )
+            {
+                if ( array[i] == null )
+                {
+                    ( (Node) array[i + 1] ).forEach( action );
+                }
+                else
+                {
+                    action.accept( (String) array[i], array[i + 1] );
+                }
+            }
+        }
+
+        private static Node createNode( int shift, String k1, Object v1, int h2, String k2, Object v2 )
+        {
+            int h1 = k1.hashCode();
+            if ( h1 == h2 )
+            {
+                return new CollisionNode( h1, new Object[] { k1, v1, k2, v2 } );
+            }
+
+            boolean[] ignored = { false };
+            return EMPTY.assoc( shift, h1, k1, v1, ignored ).assoc( shift, h2, k2, v2, ignored );
+        }
+    }
+
+    /**
+     * Holds keys whose full 32-bit hashes are identical.
+     */
+    private static final class CollisionNode
+            implements Node
+    {
+        private final int hash;
+
+        private final Object[] array;
+
+        private CollisionNode( int hash, Object[] array )
+        {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf( Object key )
+        {
+            for ( int i = 0; i < array.length; i += 2 )
+            {
+                if ( key.equals( array[i] ) )
+                {
+                    return i;
+                }
+            }
+
+            return -1;
+        }
+
+        @Override
+        public Object find( int shift, int hash, Object key )
+        {
+            int idx = hash == this.hash ? indexOf( key ) : -1;
+            return idx < 0 ? NOT_FOUND : array[idx + 1];
+        }
+
+        @Override
+        public Node assoc( int shift, int hash, String key, Object value, boolean[] added )
+        {
+            if ( hash != this.hash )
+            {
+                return new BitmapNode( bitpos( this.hash, shift ), new Object[] { null, this } ).assoc( shift, hash,
+                                                                                                      key, value,
+                                                                                                      added );
+            }
+
+            int idx = indexOf( key );
+            if ( idx >= 0 )
+            {
+                return array[idx + 1] == value ? this : new CollisionNode( hash, cloneAndSet( array, idx + 1, value ) );
+            }
+
+            Object[] newArray = new Object[array.length + 2];
+            System.arraycopy( array, 0, newArray, 0, array.length );
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+
+            added[0] = true;
+            return new CollisionNode( hash, newArray );
+        }
+
+        @Override
+        public Node without( int shift, int hash, Object key )
+        {
+            int idx = hash == this.hash ? indexOf( key ) : -1;
+            if ( idx < 0 )
+            {
+                return this;
+            }
+
+            return array.length == 2 ? null : new CollisionNode( hash, removePair( array, idx / 2 ) );
+        }
+
+        @Override
+        public void forEach( BiConsumer<String, Object> action )
+        {
+            for ( int i = 0; i < array.length; i += 2 )
+            {
+                action.accept( (String) array[i], array[i + 1] );
+            }
+        }
+    }
+}
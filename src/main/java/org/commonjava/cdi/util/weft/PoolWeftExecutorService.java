@@ -15,25 +15,44 @@
  */
 package org.commonjava.cdi.util.weft;
 
+import org.commonjava.cdi.util.weft.exception.DeadlineExceededException;
 import org.commonjava.cdi.util.weft.exception.PoolOverloadException;
+import org.commonjava.cdi.util.weft.load.ConcurrencyLimit;
+import org.commonjava.cdi.util.weft.load.LoadSheddingPolicy;
+import org.commonjava.cdi.util.weft.load.ThresholdLoadSheddingPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -50,20 +69,49 @@ public class PoolWeftExecutorService
 
     private static final boolean DEFAULT_LOAD_SENSITIVE = false;
 
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
     private final String name;
 
     private final ThreadPoolExecutor delegate;
 
-    private final Integer threadCount;
-
-    private final Float maxLoadFactor;
+    private volatile Settings settings;
 
-    private final boolean loadSensitive;
+    // runs submissions inline on the caller while the pool is disabled.
+    private final SingleThreadedExecutorService inline;
 
     private Set<ThreadContextualizer> contextualizers;
 
     private final AtomicLong load = new AtomicLong( 0L );
 
+    private final AtomicLong cancelled = new AtomicLong( 0L );
+
+    private final AtomicLong expired = new AtomicLong( 0L );
+
+    private final AtomicLong shed = new AtomicLong( 0L );
+
+    private final AtomicLong overruns = new AtomicLong( 0L );
+
+    private volatile LoadSheddingPolicy sheddingPolicy = new ThresholdLoadSheddingPolicy();
+
+    private volatile ConcurrencyLimit concurrencyLimit;
+
+    private volatile ThreadBudget.Member budget;
+
+    private volatile ResourceAccounting accounting;
+
+    private volatile long stuckTaskNanos;
+
+    // threads kept when idle if keep-alive is on, or -1 to keep all core threads forever.
+    private volatile int minWarmThreads = -1;
+
+    private final Set<ContextualTask<?>> queuedTasks = ConcurrentHashMap.newKeySet();
+
+    private final Set<ContextualTask<?>> runningTasks = ConcurrentHashMap.newKeySet();
+
+    // builds the futures for submit and invokeAll/invokeAny, so a task cancelled while queued is taken off the books.
+    private final AbstractExecutorService submitter = new Submitter();
+
 
     public PoolWeftExecutorService( String name, ThreadPoolExecutor delegate )
     {
@@ -84,11 +132,13 @@ public class PoolWeftExecutorService
     {
         this.name = name;
         this.delegate = delegate;
-        this.threadCount = threadCount;
-        this.maxLoadFactor = maxLoadFactor;
-        this.loadSensitive = loadSensitive;
+        this.settings = new Settings( threadCount, maxLoadFactor, loadSensitive, true );
+        this.inline = new SingleThreadedExecutorService( name + ":inline" );
         this.contextualizers = new HashSet<>();
-        contextualizers.forEach( c -> this.contextualizers.add( c ) );
+        if ( contextualizers != null )
+        {
+            contextualizers.forEach( c -> this.contextualizers.add( c ) );
+        }
     }
 
     @Override
@@ -100,7 +150,8 @@ public class PoolWeftExecutorService
     @Override
     public boolean isHealthy()
     {
-        return !loadSensitive || getLoadFactor() < maxLoadFactor;
+        Settings s = settings;
+        return !s.loadSensitive || getLoadFactor() < s.maxLoadFactor;
     }
 
     @Override
@@ -118,19 +169,116 @@ public class PoolWeftExecutorService
     @Override
     public Integer getThreadCount()
     {
+        int threadCount = settings.threadCount;
         return threadCount < 1 ? 1 : threadCount;
     }
 
+    /**
+     * @since 2.3
+     */
+    public float getMaxLoadFactor()
+    {
+        return settings.maxLoadFactor;
+    }
+
+    /**
+     * @since 2.3
+     */
+    public boolean isLoadSensitive()
+    {
+        return settings.loadSensitive;
+    }
+
+    /**
+     * @since 2.3
+     * @return false if the pool has been disabled by {@link #reconfigure(int, float, boolean, boolean)}, in which case
+     * new submissions run inline on the submitting thread.
+     */
+    public boolean isEnabled()
+    {
+        return settings.enabled;
+    }
+
+    /**
+     * Change the pool's sizing and load settings while it runs. Queued and running tasks are unaffected: shrinking
+     * lets surplus threads exit as they go idle, and disabling the pool only sends new submissions inline to the
+     * submitting thread, while the pool's threads keep working off the queue. Scheduled pools cannot be disabled, and
+     * unbounded (cached) pools keep their size. Under a {@link ThreadBudget}, the thread count is the most the pool
+     * may borrow up to.
+     * @since 2.3
+     */
+    public synchronized void reconfigure( final int threadCount, final float maxLoadFactor,
+                                          final boolean loadSensitive, final boolean enabled )
+    {
+        Settings old = settings;
+        boolean scheduled = delegate instanceof ScheduledThreadPoolExecutor;
+        int threads = Math.max( 1, threadCount );
+
+        if ( old.threadCount < 1 && !scheduled )
+        {
+            logger.warn( "Pool: {} is unbounded; ignoring new thread count: {}", name, threadCount );
+            threads = old.threadCount;
+        }
+        else if ( scheduled )
+        {
+            // the max size of a scheduled pool is unbounded already; only core threads ever run.
+            delegate.setCorePoolSize( threads );
+        }
+        else if ( budget != null )
+        {
+            if ( threads > delegate.getMaximumPoolSize() )
+            {
+                delegate.setMaximumPoolSize( threads );
+                budget.setMax( threads );
+            }
+            else
+            {
+                budget.setMax( threads );
+                delegate.setMaximumPoolSize( threads );
+            }
+        }
+        else if ( threads > delegate.getMaximumPoolSize() )
+        {
+            delegate.setMaximumPoolSize( threads );
+            delegate.setCorePoolSize( threads );
+        }
+        else
+        {
+            delegate.setCorePoolSize( threads );
+            delegate.setMaximumPoolSize( threads );
+        }
+
+        if ( minWarmThreads >= 0 && old.threadCount >= 1 && !scheduled && budget == null )
+        {
+            // threads above the warm minimum time out again once idle.
+            delegate.setCorePoolSize( Math.min( minWarmThreads, threads ) );
+        }
+
+        boolean nowEnabled = enabled;
+        if ( !enabled && scheduled )
+        {
+            logger.warn( "Scheduled pool: {} cannot run tasks inline; leaving it enabled", name );
+            nowEnabled = true;
+        }
+
+        settings = new Settings( threads, maxLoadFactor, loadSensitive, nowEnabled );
+        logger.info( "Reconfigured pool: {} from {} to {}", name, old, settings );
+    }
+
     @Override
     public void shutdown()
     {
+        inline.shutdown();
         delegate.shutdown();
     }
 
     @Override
     public List<Runnable> shutdownNow()
     {
-        return delegate.shutdownNow();
+        inline.shutdownNow();
+        List<Runnable> dropped = delegate.shutdownNow();
+        queuedTasks.clear();
+        return dropped;
     }
 
     @Override
@@ -152,80 +300,505 @@ public class PoolWeftExecutorService
         return delegate.awaitTermination( l, timeUnit );
     }
 
+    /**
+     * Set the policy deciding when a load-sensitive pool rejects new tasks. The default,
+     * {@link ThresholdLoadSheddingPolicy}, rejects everything once the max load factor is reached.
+     * @since 2.3
+     */
+    public void setLoadSheddingPolicy( LoadSheddingPolicy sheddingPolicy )
+    {
+        this.sheddingPolicy = sheddingPolicy == null ? new ThresholdLoadSheddingPolicy() : sheddingPolicy;
+    }
+
+    /**
+     * @since 2.3
+     */
+    public LoadSheddingPolicy getLoadSheddingPolicy()
+    {
+        return sheddingPolicy;
+    }
+
+    /**
+     * @since 2.3
+     * @return the number of submissions rejected by the load shedding policy or the concurrency limit.
+     */
+    public long getShedTaskCount()
+    {
+        return shed.get();
+    }
+
+    /**
+     * Cap the number of queued plus running tasks with an adaptive limit, independently of the load-sensitive
+     * setting. Null removes the limit.
+     * @since 2.3
+     */
+    public void setConcurrencyLimit( ConcurrencyLimit concurrencyLimit )
+    {
+        this.concurrencyLimit = concurrencyLimit;
+    }
+
+    /**
+     * @since 2.3
+     */
+    public ConcurrencyLimit getConcurrencyLimit()
+    {
+        return concurrencyLimit;
+    }
+
+    /**
+     * Let the given budget size this pool's threads, with the given number of them guaranteed.
+     * @since 2.3
+     */
+    public void joinThreadBudget( ThreadBudget threadBudget, int guaranteed )
+    {
+        this.budget = threadBudget.join( name, delegate, guaranteed );
+    }
+
+    /**
+     * @since 2.3
+     * @return this pool's share of a {@link ThreadBudget}, or null if it does not have one.
+     */
+    public ThreadBudget.Member getThreadBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Measure the CPU time and heap allocation of this pool's tasks. Null turns accounting off.
+     * @since 2.3
+     */
+    public void setResourceAccounting( ResourceAccounting accounting )
+    {
+        this.accounting = accounting;
+    }
+
+    /**
+     * @since 2.3
+     * @return the pool's resource accounting, or null if it is off.
+     */
+    public ResourceAccounting getResourceAccounting()
+    {
+        return accounting;
+    }
+
+    /**
+     * Flag tasks running longer than this as stuck in {@link #getRunningTasks()}. Zero turns detection off.
+     * @since 2.3
+     */
+    public void setStuckTaskThreshold( long threshold, TimeUnit unit )
+    {
+        this.stuckTaskNanos = unit.toNanos( threshold );
+    }
+
+    /**
+     * @since 2.3
+     */
+    public long getStuckTaskThreshold( TimeUnit unit )
+    {
+        return unit.convert( stuckTaskNanos, TimeUnit.NANOSECONDS );
+    }
+
+    @Override
+    public List<TaskInfo> getRunningTasks()
+    {
+        long now = System.nanoTime();
+        return runningTasks.stream()
+                           .sorted( Comparator.comparingLong( t -> t.startedNanos ) )
+                           .map( t -> t.describe( now, false ) )
+                           .filter( Objects::nonNull )
+                           .collect( Collectors.toList() );
+    }
+
+    @Override
+    public List<TaskInfo> getQueuedTasks()
+    {
+        long now = System.nanoTime();
+        return queuedTasks.stream()
+                          .sorted( Comparator.comparingLong( t -> t.enqueued ) )
+                          .map( t -> t.describe( now, false ) )
+                          .filter( Objects::nonNull )
+                          .collect( Collectors.toList() );
+    }
+
+    /**
+     * @since 2.3
+     * @return the number of task runs a {@link TaskWatchdog} found past this pool's maximum run time.
+     */
+    public long getOverrunTaskCount()
+    {
+        return overruns.get();
+    }
+
+    /**
+     * Called by a {@link TaskWatchdog} on its timer thread. Each run of a task is reported at most once.
+     */
+    void checkOverruns( long maxNanos, TaskWatchdog.Action action, TaskWatchdog watchdog )
+    {
+        long now = System.nanoTime();
+        for ( ContextualTask<?> t : runningTasks )
+        {
+            Thread thread = t.worker;
+            long started = t.startedNanos;
+            if ( thread == null || now - started <= maxNanos || t.overrunStart == started )
+            {
+                continue;
+            }
+
+            t.overrunStart = started;
+            TaskInfo info = t.describe( now, true );
+            if ( info == null || !info.isRunning() )
+            {
+                continue;
+            }
+
+            overruns.incrementAndGet();
+            watchdog.onOverrun( this, info, maxNanos );
+
+            // the run can't end while we hold its lock, so the worker can't move on to another task under us.
+            synchronized ( t.runLock )
+            {
+                if ( t.worker != thread || t.startedNanos != started )
+                {
+                    continue;
+                }
+
+                if ( action == TaskWatchdog.Action.STOP && t.task instanceof StoppableRunnable )
+                {
+                    ( (StoppableRunnable) t.task ).stop();
+                    watchdog.onStopped();
+                }
+                else if ( action != TaskWatchdog.Action.LOG )
+                {
+                    thread.interrupt();
+                    watchdog.onInterrupted();
+                }
+            }
+        }
+    }
+
+    /**
+     * Let idle threads exit after the given keep-alive time, down to a minimum number of warm threads. The pool then
+     * raises its core size as load grows, up to its thread count, and lowers it again as load falls, so threads above
+     * the minimum time out once they have been idle for the keep-alive time. A keep-alive of zero or less restores
+     * the default of keeping all threads forever. Only applies to fixed-size pools that are not scheduled or in a
+     * {@link ThreadBudget}, which manages thread counts itself.
+     * @since 2.3
+     */
+    public synchronized void setKeepAlive( long keepAlive, TimeUnit unit, int minWarm )
+    {
+        int threads = settings.threadCount;
+        if ( threads < 1 || budget != null || delegate instanceof ScheduledThreadPoolExecutor )
+        {
+            logger.warn( "Pool: {} does not have a fixed size of its own; ignoring keep-alive", name );
+            return;
+        }
+
+        if ( keepAlive <= 0 )
+        {
+            minWarmThreads = -1;
+            delegate.setCorePoolSize( threads );
+            return;
+        }
+
+        delegate.setKeepAliveTime( keepAlive, unit );
+        minWarmThreads = Math.max( 0, Math.min( minWarm, threads ) );
+        delegate.setCorePoolSize( (int) Math.max( minWarmThreads, Math.min( threads, load.get() ) ) );
+    }
+
+    /**
+     * @since 2.3
+     * @return the number of threads kept when idle, or -1 if keep-alive is off and all threads are kept.
+     */
+    public int getMinWarmThreads()
+    {
+        return minWarmThreads;
+    }
+
+    private void growCore( long current )
+    {
+        int target = (int) Math.min( settings.threadCount, current );
+        if ( target > delegate.getCorePoolSize() )
+        {
+            synchronized ( this )
+            {
+                if ( minWarmThreads >= 0 && target > delegate.getCorePoolSize() )
+                {
+                    delegate.setCorePoolSize( target );
+                }
+            }
+        }
+    }
+
+    private void shrinkCore( long current )
+    {
+        int min = minWarmThreads;
+        int target = (int) Math.max( min, current );
+        if ( target < delegate.getCorePoolSize() )
+        {
+            synchronized ( this )
+            {
+                if ( minWarmThreads >= 0 && target < delegate.getCorePoolSize() )
+                {
+                    delegate.setCorePoolSize( Math.max( minWarmThreads, target ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Start all core threads now instead of on first submission, then run the given number of no-op tasks on the
+     * underlying executor so its threads and queue are exercised before real traffic arrives. The no-op tasks go
+     * straight to the executor, so they are not shed or limited, and they are not counted in the pool's load,
+     * concurrency limit samples, sojourn times or resource accounting. Waits at most the given time for them.
+     * @since 2.3
+     * @return the number of threads started.
+     */
+    public int warmUp( int rounds, long timeout, TimeUnit unit )
+    {
+        int started = delegate.prestartAllCoreThreads();
+
+        long deadline = System.nanoTime() + unit.toNanos( timeout );
+        List<Future<?>> futures = new ArrayList<>( rounds );
+        try
+        {
+            for ( int i = 0; i < rounds; i++ )
+            {
+                futures.add( delegate.submit( () -> {} ) );
+            }
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // a bounded or shut-down executor may refuse some of them; that is fine for warming up.
+            logger.debug( "Warm-up of pool: {} stopped after {} tasks: {}", name, futures.size(), e.toString() );
+        }
+
+        try
+        {
+            for ( Future<?> f : futures )
+            {
+                f.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch ( ExecutionException | TimeoutException e )
+        {
+            logger.debug( "Warm-up of pool: {} did not finish: {}", name, e.toString() );
+        }
+
+        logger.debug( "Warmed up pool: {} with {} new threads", name, started );
+        return started;
+    }
+
     private void verifyLoad()
     {
-        if ( loadSensitive && !isHealthy() )
+        Settings s = settings;
+        if ( s.loadSensitive && sheddingPolicy.shouldShed( getLoadFactor(), s.maxLoadFactor, currentPriority() ) )
+        {
+            shed.incrementAndGet();
+            throw new PoolOverloadException( getName(), getLoadFactor(), getCurrentLoad(), s.maxLoadFactor, getThreadCount() );
+        }
+    }
+
+    /**
+     * Count a new task in the pool's load, unless that would take it past the concurrency limit. The check and the
+     * increment are one atomic step, so concurrent submitters can't overshoot the limit together.
+     * @return the load including the new task
+     */
+    private long reserveLoad()
+    {
+        ConcurrencyLimit limit = concurrencyLimit;
+        while ( true )
         {
-            throw new PoolOverloadException( getName(), getLoadFactor(), getCurrentLoad(), maxLoadFactor, getThreadCount() );
+            long current = load.get();
+            if ( limit != null && current >= limit.getLimit() )
+            {
+                shed.incrementAndGet();
+                throw new PoolOverloadException( getName(), getLoadFactor(), current, settings.maxLoadFactor,
+                                                 getThreadCount(), limit.getLimit() );
+            }
+
+            if ( load.compareAndSet( current, current + 1 ) )
+            {
+                return current + 1;
+            }
         }
     }
 
+    /**
+     * @return the executor for new submissions if the pool is disabled, or null to use the pool.
+     */
+    private WeftExecutorService bypass()
+    {
+        return settings.enabled ? null : inline;
+    }
+
+    private int currentPriority()
+    {
+        ThreadContext ctx = ThreadContext.current();
+        Object priority = ctx == null ? null : ctx.get( LoadSheddingPolicy.PRIORITY_KEY );
+        return priority instanceof Integer ? (Integer) priority : LoadSheddingPolicy.NORM_PRIORITY;
+    }
+
     @Override
     public <T> Future<T> submit( Callable<T> callable )
     {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.submit( callable );
+        }
+
         verifyLoad();
 
-        return delegate.submit( wrapCallable( callable ) );
+        return submitTask( wrapCallable( callable ) );
     }
 
     @Override
     public <T> Future<T> submit( Runnable runnable, T t )
     {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.submit( runnable, t );
+        }
+
         verifyLoad();
 
-        return delegate.submit( wrapRunnable( runnable ), t );
+        return submitTask( new ContextualTask<>( Executors.callable( runnable, t ), runnable, null, true ) );
     }
 
     @Override
     public Future<?> submit( Runnable runnable )
     {
+        return submit( runnable, null );
+    }
+
+    @Override
+    public <T> Future<T> submit( Callable<T> callable, Deadline deadline )
+    {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.submit( callable, deadline );
+        }
+
         verifyLoad();
 
-        return delegate.submit( wrapRunnable( runnable ) );
+        return submitTask( new ContextualTask<>( callable, callable, deadline, true ) );
+    }
+
+    @Override
+    public Future<?> submit( Runnable runnable, Deadline deadline )
+    {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.submit( runnable, deadline );
+        }
+
+        verifyLoad();
+
+        return submitTask( new ContextualTask<>( Executors.callable( runnable ), runnable, deadline, true ) );
+    }
+
+    @Override
+    public void execute( Runnable runnable, Deadline deadline )
+    {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            b.execute( runnable, deadline );
+            return;
+        }
+
+        verifyLoad();
+
+        executeTask( new ContextualTask<>( Executors.callable( runnable ), runnable, deadline, true ) );
     }
 
     @Override
     public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> collection )
             throws InterruptedException
     {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.invokeAll( collection );
+        }
+
         verifyLoad();
 
-        return delegate.invokeAll( wrapAll(collection) );
+        return submitter.invokeAll( collection );
     }
 
     @Override
     public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> collection, long l, TimeUnit timeUnit )
             throws InterruptedException
     {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.invokeAll( collection, l, timeUnit );
+        }
+
         verifyLoad();
 
-        return delegate.invokeAll( wrapAll( collection ), l, timeUnit );
+        return submitter.invokeAll( collection, l, timeUnit );
     }
 
     @Override
     public <T> T invokeAny( Collection<? extends Callable<T>> collection )
             throws InterruptedException, ExecutionException
     {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.invokeAny( collection );
+        }
+
         verifyLoad();
 
-        return delegate.invokeAny( wrapAll( collection ) );
+        try
+        {
+            return doInvokeAny( collection, false, 0 );
+        }
+        catch ( TimeoutException e )
+        {
+            throw new IllegalStateException( "Untimed invokeAny timed out", e );
+        }
     }
 
     @Override
     public <T> T invokeAny( Collection<? extends Callable<T>> collection, long l, TimeUnit timeUnit )
             throws InterruptedException, ExecutionException, TimeoutException
     {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            return b.invokeAny( collection, l, timeUnit );
+        }
+
         verifyLoad();
 
-        return delegate.invokeAny( wrapAll( collection ), l, timeUnit );
+        return doInvokeAny( collection, true, timeUnit.toNanos( l ) );
     }
 
     @Override
     public void execute( Runnable runnable )
     {
+        WeftExecutorService b = bypass();
+        if ( b != null )
+        {
+            b.execute( runnable );
+            return;
+        }
+
         verifyLoad();
 
-        delegate.execute( wrapRunnable( runnable ) );
+        executeTask( new ContextualTask<>( Executors.callable( runnable, null ), runnable, null, true ) );
     }
 
     @Override
@@ -233,7 +806,7 @@ public class PoolWeftExecutorService
     {
         verifyLoad();
 
-        return asScheduled( ( d ) -> d.schedule( wrapRunnable( runnable ), l, timeUnit ) );
+        return asScheduled( ( d ) -> d.schedule( wrapScheduled( runnable ), l, timeUnit ) );
     }
 
     @Override
@@ -241,7 +814,7 @@ public class PoolWeftExecutorService
     {
         verifyLoad();
 
-        return asScheduled( (d) -> d.schedule( wrapCallable( callable ), l, timeUnit ) );
+        return asScheduled( (d) -> d.schedule( (Callable<V>) new ContextualTask<>( callable, callable, null, false ), l, timeUnit ) );
     }
 
     @Override
@@ -249,7 +822,7 @@ public class PoolWeftExecutorService
     {
         verifyLoad();
 
-        return asScheduled( ( d ) -> d.scheduleAtFixedRate( wrapRunnable( runnable ), l, l1, timeUnit ) );
+        return asScheduled( ( d ) -> d.scheduleAtFixedRate( wrapScheduled( runnable ), l, l1, timeUnit ) );
     }
 
     @Override
@@ -257,7 +830,7 @@ public class PoolWeftExecutorService
     {
         verifyLoad();
 
-        return asScheduled( ( d ) -> d.scheduleWithFixedDelay( wrapRunnable( runnable ), l, l1, timeUnit ) );
+        return asScheduled( ( d ) -> d.scheduleWithFixedDelay( wrapScheduled( runnable ), l, l1, timeUnit ) );
     }
 
     @Override
@@ -284,6 +857,22 @@ public class PoolWeftExecutorService
         return delegate.getTaskCount();
     }
 
+    @Override
+    public long getExpiredTaskCount()
+    {
+        return expired.get();
+    }
+
+    /**
+     * @since 2.3
+     * @return the number of tasks rejected at submission, or skipped before starting, because the submitting
+     * context's {@link CancellationToken} was cancelled.
+     */
+    public long getCancelledTaskCount()
+    {
+        return cancelled.get();
+    }
+
     private <T> ScheduledFuture<T> asScheduled( Function<ScheduledExecutorService, ScheduledFuture<T>> consumer )
     {
         if ( delegate instanceof ScheduledExecutorService )
@@ -297,79 +886,123 @@ public class PoolWeftExecutorService
         }
     }
 
-    private <T> Collection<Callable<T>> wrapAll( Collection<? extends Callable<T>> collection )
+    private <T> Future<T> submitTask( ContextualTask<T> task )
     {
-        ThreadContext ctx = ThreadContext.getContext( false );
-        Map<String, Object> extractedContext = extractContext();
-        load.addAndGet( collection.size() );
-        return collection.parallelStream().map( ( callable ) -> {
-            ThreadContext old = ThreadContext.setContext( ctx );
-            setContext( extractedContext );
-            Logger logger = LoggerFactory.getLogger( getClass() );
-            logger.debug( "Using ThreadContext: {} (saving: {}) in {}", ctx, old, Thread.currentThread().getName() );
-            return (Callable<T>) () -> {
+        return submitter.submit( (Callable<T>) task );
+    }
+
+    /**
+     * Like {@link AbstractExecutorService#invokeAny(Collection)}, but each task is wrapped only as it is submitted,
+     * and the futures stay {@link QueuedFuture}s, so tasks that are never submitted are never counted, and those
+     * cancelled once one succeeds are abandoned.
+     */
+    private <T> T doInvokeAny( Collection<? extends Callable<T>> collection, boolean timed, long nanos )
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        int remaining = collection.size();
+        if ( remaining == 0 )
+        {
+            throw new IllegalArgumentException( "No tasks to invoke" );
+        }
+
+        List<Future<T>> futures = new ArrayList<>( remaining );
+        BlockingQueue<Future<T>> completed = new LinkedBlockingQueue<>();
+        Iterator<? extends Callable<T>> it = collection.iterator();
+        long deadline = timed ? System.nanoTime() + nanos : 0L;
+        ExecutionException failure = null;
+        try
+        {
+            futures.add( submitQueued( it.next(), completed ) );
+            remaining--;
+            int active = 1;
+            while ( true )
+            {
+                Future<T> f = completed.poll();
+                if ( f == null )
+                {
+                    if ( remaining > 0 )
+                    {
+                        futures.add( submitQueued( it.next(), completed ) );
+                        remaining--;
+                        active++;
+                        continue;
+                    }
+                    else if ( active == 0 )
+                    {
+                        break;
+                    }
+                    else if ( timed )
+                    {
+                        f = completed.poll( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+                        if ( f == null )
+                        {
+                            throw new TimeoutException();
+                        }
+                    }
+                    else
+                    {
+                        f = completed.take();
+                    }
+                }
+
+                active--;
                 try
                 {
-                    return callable.call();
+                    return f.get();
                 }
-                finally
+                catch ( ExecutionException e )
                 {
-                    logger.debug( "Restoring ThreadContext: {} in: {}", old, Thread.currentThread().getName() );
-                    ThreadContext.setContext( old );
-                    clearBridgedContext();
-                    load.decrementAndGet();
+                    failure = e;
                 }
-            };
-        } ).collect( Collectors.toList() );
+                catch ( RuntimeException e )
+                {
+                    failure = new ExecutionException( e );
+                }
+            }
+
+            throw failure;
+        }
+        finally
+        {
+            futures.forEach( f -> f.cancel( true ) );
+        }
     }
 
-    private Runnable wrapRunnable( Runnable runnable )
+    private <T> Future<T> submitQueued( Callable<T> callable, BlockingQueue<Future<T>> completed )
     {
-        ThreadContext ctx = ThreadContext.getContext( false );
-        Map<String, Object> extractedContext = extractContext();
-        load.incrementAndGet();
-        return ()->{
-            ThreadContext old = ThreadContext.setContext( ctx );
-            setContext( extractedContext );
-            Logger logger = LoggerFactory.getLogger( getClass() );
-            logger.debug( "Using ThreadContext: {} (saving: {}) in {}", ctx, old, Thread.currentThread().getName() );
+        QueuedFuture<T> future = new QueuedFuture<>( wrapCallable( callable ), completed );
+        submitter.execute( future );
+        return future;
+    }
 
-            try
-            {
-                runnable.run();
-            }
-            finally
-            {
-                logger.debug( "Restoring ThreadContext: {} in: {}", old, Thread.currentThread().getName() );
-                ThreadContext.setContext( old );
-                clearBridgedContext();
-                load.decrementAndGet();
-            }
-        };
+    private void executeTask( ContextualTask<?> task )
+    {
+        try
+        {
+            delegate.execute( task );
+        }
+        catch ( RuntimeException e )
+        {
+            task.abandon();
+            throw e;
+        }
+    }
+
+    private <T> ContextualTask<T> wrapCallable( Callable<T> callable )
+    {
+        return new ContextualTask<>( callable, callable, null, true );
+    }
+
+    // scheduled tasks are meant to start later, so they do not inherit the submitter's deadline.
+    private Runnable wrapScheduled( Runnable runnable )
+    {
+        return new ContextualTask<>( Executors.callable( runnable, null ), runnable, null, false );
     }
 
-    private <T> Callable<T> wrapCallable( Callable<T> callable )
+    private ThreadContext inheritContext()
     {
         ThreadContext ctx = ThreadContext.getContext( false );
-        Map<String, Object> extractedContext = extractContext();
-        load.incrementAndGet();
-        return (Callable<T>) ()->{
-            ThreadContext old = ThreadContext.setContext( ctx );
-            setContext( extractedContext );
-            Logger logger = LoggerFactory.getLogger( getClass() );
-            logger.debug( "Using ThreadContext: {} (saving: {}) in {}", ctx, old, Thread.currentThread().getName() );
-            try
-            {
-                return callable.call();
-            }
-            finally
-            {
-                logger.debug( "Restoring ThreadContext: {} in: {}", old, Thread.currentThread().getName() );
-                ThreadContext.setContext( old );
-                clearBridgedContext();
-                load.decrementAndGet();
-            }
-        };
+        return ctx == null ? null : ctx.inheritForChild();
     }
 
     private void clearBridgedContext()
@@ -390,4 +1023,393 @@ public class PoolWeftExecutorService
         return context;
     }
 
+    private static long toMillis( long nanos )
+    {
+        return TimeUnit.NANOSECONDS.toMillis( Math.max( 0, nanos ) );
+    }
+
+    /**
+     * Swapped as a whole by {@link #reconfigure(int, float, boolean, boolean)}, so each submission sees a consistent
+     * set of values.
+     */
+    private static final class Settings
+    {
+        private final int threadCount;
+
+        private final float maxLoadFactor;
+
+        private final boolean loadSensitive;
+
+        private final boolean enabled;
+
+        private Settings( final Integer threadCount, final Float maxLoadFactor, final boolean loadSensitive,
+                          final boolean enabled )
+        {
+            this.threadCount = threadCount == null ? DEFAULT_THREAD_COUNT : threadCount;
+            this.maxLoadFactor = maxLoadFactor == null ? DEFAULT_LOAD_FACTOR : maxLoadFactor;
+            this.loadSensitive = loadSensitive;
+            this.enabled = enabled;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "{threads=" + threadCount + ", maxLoadFactor=" + maxLoadFactor + ", loadSensitive=" + loadSensitive
+                    + ", enabled=" + enabled + "}";
+        }
+    }
+
+    /**
+     * Future for a {@link ContextualTask}. If it completes without the task having started, which happens when it is
+     * cancelled while queued, the task is {@link ContextualTask#abandon() abandoned}.
+     */
+    private static final class QueuedFuture<T>
+            extends FutureTask<T>
+            implements DeadlineOrderedThreadPoolExecutor.Deadlined
+    {
+        private final ContextualTask<T> task;
+
+        private final BlockingQueue<Future<T>> completed;
+
+        /**
+         * @param completed where to put this future once it is done, or null
+         */
+        private QueuedFuture( ContextualTask<T> task, BlockingQueue<Future<T>> completed )
+        {
+            super( task );
+            this.task = task;
+            this.completed = completed;
+        }
+
+        @Override
+        public Deadline getDeadline()
+        {
+            return task.getDeadline();
+        }
+
+        @Override
+        protected void done()
+        {
+            task.abandon();
+            if ( completed != null )
+            {
+                completed.add( this );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return task.toString();
+        }
+    }
+
+    /**
+     * Reuses the submit and invoke logic of {@link AbstractExecutorService} on the delegate, with {@link QueuedFuture}s.
+     */
+    private final class Submitter
+            extends AbstractExecutorService
+    {
+        /**
+         * Plain callables, as passed to invokeAll, are wrapped here rather than up front, so that each is counted only
+         * as it is submitted.
+         */
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor( Callable<T> callable )
+        {
+            return new QueuedFuture<>( callable instanceof ContextualTask ?
+                                               (ContextualTask<T>) callable :
+                                               wrapCallable( callable ), null );
+        }
+
+        @Override
+        public void execute( Runnable command )
+        {
+            try
+            {
+                delegate.execute( command );
+            }
+            catch ( RuntimeException e )
+            {
+                if ( command instanceof QueuedFuture )
+                {
+                    ( (QueuedFuture<?>) command ).task.abandon();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown()
+        {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination( long timeout, TimeUnit unit )
+                throws InterruptedException
+        {
+            return delegate.awaitTermination( timeout, unit );
+        }
+    }
+
+    /**
+     * Carries the submitter's {@link ThreadContext} and bridged contexts to the worker thread, binding them only for
+     * the duration of the task. If the context's {@link CancellationToken} is cancelled, the task is rejected at
+     * submission, or skipped with a {@link CancellationException} if it was already queued. Likewise, a task whose
+     * {@link Deadline} passes while it is queued is dropped with a {@link DeadlineExceededException}.
+     */
+    private final class ContextualTask<T>
+            implements Callable<T>, Runnable, DeadlineOrderedThreadPoolExecutor.Deadlined
+    {
+        private final Callable<T> callable;
+
+        private final Object task;
+
+        private final ThreadContext ctx;
+
+        private final Map<String, Object> extractedContext;
+
+        private final Deadline deadline;
+
+        private final boolean immediate;
+
+        private final long enqueued;
+
+        private final long submittedMillis;
+
+        private volatile Thread worker;
+
+        // held while clearing worker at the end of a run, and by the watchdog while it acts on that run.
+        private final Object runLock = new Object();
+
+        private volatile long startedNanos;
+
+        private volatile long startedMillis;
+
+        // start time of the last run reported as an overrun; only touched by the watchdog's timer thread.
+        private long overrunStart;
+
+        // set by whichever comes first: the task starting, or being abandoned before it could (see abandon()).
+        private final AtomicBoolean claimed = new AtomicBoolean( false );
+
+        /**
+         * @param immediate false for scheduled tasks, which are meant to start later; they neither inherit the
+         * submitter's deadline nor report their delay as queue sojourn time.
+         */
+        private ContextualTask( Callable<T> callable, Object task, Deadline deadline, boolean immediate )
+        {
+            this.callable = callable;
+            this.task = task;
+            this.ctx = inheritContext();
+            if ( ctx != null && ctx.isCancelled() )
+            {
+                cancelled.incrementAndGet();
+                throw new RejectedExecutionException(
+                        "Request cancelled (" + ctx.getCancellationToken().getReason() + "); not running: " + task
+                                + " in: " + name );
+            }
+
+            this.immediate = immediate;
+            this.deadline = immediate && ctx != null ? Deadline.earliest( deadline, ctx.getDeadline() ) : deadline;
+            if ( this.deadline != null && this.deadline.isExpired() )
+            {
+                expired.incrementAndGet();
+                throw new RejectedExecutionException( "Deadline already passed; not running: " + task + " in: " + name );
+            }
+
+            if ( delegate.isShutdown() )
+            {
+                throw new RejectedExecutionException( "Pool is shut down: " + name );
+            }
+
+            long current = reserveLoad();
+            this.extractedContext = extractContext();
+            this.enqueued = System.nanoTime();
+            this.submittedMillis = System.currentTimeMillis();
+            if ( immediate )
+            {
+                queuedTasks.add( this );
+            }
+
+            ThreadBudget.Member member = budget;
+            if ( member != null )
+            {
+                member.onDemand( current );
+            }
+            else if ( minWarmThreads >= 0 )
+            {
+                growCore( current );
+            }
+        }
+
+        @Override
+        public T call()
+                throws Exception
+        {
+            claimed.set( true );
+            if ( immediate )
+            {
+                queuedTasks.remove( this );
+                sheddingPolicy.recordSojourn( System.nanoTime() - enqueued );
+            }
+
+            boolean dropped = false;
+            ResourceAccounting acct = accounting;
+            ResourceAccounting.Sample sample = acct == null ? null : acct.start();
+            setContext( extractedContext );
+            Logger logger = LoggerFactory.getLogger( getClass() );
+            logger.debug( "Using ThreadContext: {} in {}", ctx, Thread.currentThread().getName() );
+
+            startedMillis = System.currentTimeMillis();
+            startedNanos = System.nanoTime();
+            worker = Thread.currentThread();
+            runningTasks.add( this );
+            try
+            {
+                if ( ctx != null && ctx.isCancelled() )
+                {
+                    cancelled.incrementAndGet();
+                    throw new CancellationException(
+                            "Request cancelled (" + ctx.getCancellationToken().getReason() + ") before start: "
+                                    + task );
+                }
+
+                if ( deadline != null && deadline.isExpired() )
+                {
+                    expired.incrementAndGet();
+                    dropped = true;
+                    throw new DeadlineExceededException( name, -deadline.remaining( TimeUnit.MILLISECONDS ), task );
+                }
+
+                try
+                {
+                    return ThreadContext.callWith( ctx, callable );
+                }
+                catch ( Throwable t )
+                {
+                    // a failed call is a bad sample for the concurrency limit, like one that ran out of time.
+                    dropped = true;
+                    throw t;
+                }
+            }
+            finally
+            {
+                logger.debug( "Done with ThreadContext: {} in: {}", ctx, Thread.currentThread().getName() );
+                runningTasks.remove( this );
+                synchronized ( runLock )
+                {
+                    worker = null;
+                }
+                clearBridgedContext();
+                long inFlight = load.getAndDecrement();
+                if ( minWarmThreads >= 0 )
+                {
+                    shrinkCore( inFlight - 1 );
+                }
+                if ( sample != null )
+                {
+                    acct.stop( sample, ctx );
+                }
+
+                ConcurrencyLimit limit = concurrencyLimit;
+                if ( limit != null && immediate )
+                {
+                    limit.onSample( System.nanoTime() - enqueued, inFlight, dropped );
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                call();
+            }
+            catch ( CancellationException e )
+            {
+                LoggerFactory.getLogger( getClass() ).debug( e.getMessage() );
+            }
+            catch ( RuntimeException e )
+            {
+                throw e;
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( "Task failed: " + task, e );
+            }
+        }
+
+        @Override
+        public Deadline getDeadline()
+        {
+            return deadline;
+        }
+
+        /**
+         * Undo the bookkeeping done at submission for a task that will never run, because its future was cancelled
+         * while queued or the delegate refused it. Does nothing once the task has started.
+         */
+        private void abandon()
+        {
+            if ( !claimed.compareAndSet( false, true ) )
+            {
+                return;
+            }
+
+            queuedTasks.remove( this );
+            long inFlight = load.decrementAndGet();
+            if ( minWarmThreads >= 0 )
+            {
+                shrinkCore( inFlight );
+            }
+        }
+
+        /**
+         * @return a description as of the given time, or null if the task finished while being described.
+         */
+        private TaskInfo describe( long now, boolean withStack )
+        {
+            Set<String> keys = ctx == null ? null : new HashSet<>( ctx.keySet() );
+            Thread thread = worker;
+            if ( thread == null )
+            {
+                return queuedTasks.contains( this ) ?
+                        new TaskInfo( name, task, null, submittedMillis, 0, toMillis( now - enqueued ), 0, keys, false,
+                                      null ) :
+                        null;
+            }
+
+            long elapsed = now - startedNanos;
+            boolean stuck = stuckTaskNanos > 0 && elapsed > stuckTaskNanos;
+            return new TaskInfo( name, task, thread.getName(), submittedMillis, startedMillis,
+                                 toMillis( now - enqueued ), toMillis( elapsed ), keys, stuck,
+                                 stuck || withStack ? thread.getStackTrace() : null );
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf( task );
+        }
+    }
 }
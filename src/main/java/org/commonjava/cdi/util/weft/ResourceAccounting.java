@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds up the CPU time and heap bytes allocated by the tasks of one pool, measured as {@link ThreadMXBean} deltas
+ * around each task on its worker thread. Optionally, usage is also broken down by the value a task's
+ * {@link ThreadContext} holds under a tag key, for up to {@link #MAX_TAGS} distinct values; the rest are counted
+ * under {@link #OTHER_TAG}.
+ *
+ * Allocation is only measured on JVMs whose thread bean is a {@code com.sun.management.ThreadMXBean}; elsewhere it
+ * reads 0. Each measurement costs a few hundred nanoseconds, so accounting is off unless configured.
+ * @since 2.3
+ */
+public class ResourceAccounting
+{
+    public static final int MAX_TAGS = 256;
+
+    public static final String OTHER_TAG = "other";
+
+    private static final Logger logger = LoggerFactory.getLogger( ResourceAccounting.class );
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final com.sun.management.ThreadMXBean HOTSPOT_THREADS = initHotspot();
+
+    private final String tagKey;
+
+    private final Counters total = new Counters();
+
+    private final Map<String, Counters> tags = new ConcurrentHashMap<>();
+
+    private final long startNanos = System.nanoTime();
+
+    public ResourceAccounting()
+    {
+        this( null );
+    }
+
+    /**
+     * @param tagKey {@link ThreadContext} key whose value breaks usage down per tag, or null for pool totals only
+     */
+    public ResourceAccounting( final String tagKey )
+    {
+        this.tagKey = tagKey;
+        if ( THREADS.isThreadCpuTimeSupported() && !THREADS.isThreadCpuTimeEnabled() )
+        {
+            THREADS.setThreadCpuTimeEnabled( true );
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean initHotspot()
+    {
+        try
+        {
+            if ( THREADS instanceof com.sun.management.ThreadMXBean )
+            {
+                com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREADS;
+                if ( bean.isThreadAllocatedMemorySupported() )
+                {
+                    bean.setThreadAllocatedMemoryEnabled( true );
+                    return bean;
+                }
+            }
+        }
+        catch ( LinkageError | UnsupportedOperationException e )
+        {
+            logger.debug( "Per-thread allocation accounting is not available: {}", e.toString() );
+        }
+
+        return null;
+    }
+
+    public String getTagKey()
+    {
+        return tagKey;
+    }
+
+    /**
+     * Called on the worker thread just before a task runs.
+     */
+    public Sample start()
+    {
+        return new Sample( cpuTime(), allocatedBytes() );
+    }
+
+    /**
+     * Called on the same worker thread once the task is done.
+     *
+     * @param ctx the task's context, for the tag lookup; may be null
+     */
+    public void stop( final Sample sample, final ThreadContext ctx )
+    {
+        long cpu = Math.max( 0, cpuTime() - sample.cpuNanos );
+        long allocated = Math.max( 0, allocatedBytes() - sample.allocatedBytes );
+
+        total.add( cpu, allocated );
+        if ( tagKey != null && ctx != null )
+        {
+            Object tag = ctx.get( tagKey );
+            if ( tag != null )
+            {
+                counters( String.valueOf( tag ) ).add( cpu, allocated );
+            }
+        }
+    }
+
+    public ResourceUsage getUsage()
+    {
+        return total.snapshot( startNanos );
+    }
+
+    /**
+     * @return usage per tag value; empty if no tag key is set.
+     */
+    public Map<String, ResourceUsage> getUsageByTag()
+    {
+        Map<String, ResourceUsage> result = new HashMap<>();
+        tags.forEach( ( tag, c ) -> result.put( tag, c.snapshot( startNanos ) ) );
+        return Collections.unmodifiableMap( result );
+    }
+
+    private Counters counters( final String tag )
+    {
+        Counters c = tags.get( tag );
+        if ( c == null )
+        {
+            c = tags.size() < MAX_TAGS ? tags.computeIfAbsent( tag, t -> new Counters() ) :
+                    tags.computeIfAbsent( OTHER_TAG, t -> new Counters() );
+        }
+
+        return c;
+    }
+
+    private static long cpuTime()
+    {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes()
+    {
+        return HOTSPOT_THREADS == null ? 0 : HOTSPOT_THREADS.getThreadAllocatedBytes( Thread.currentThread().getId() );
+    }
+
+    /**
+     * Thread resource readings taken as a task starts.
+     */
+    public static final class Sample
+    {
+        private final long cpuNanos;
+
+        private final long allocatedBytes;
+
+        private Sample( final long cpuNanos, final long allocatedBytes )
+        {
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private static final class Counters
+    {
+        private final AtomicLong tasks = new AtomicLong( 0 );
+
+        private final AtomicLong cpuNanos = new AtomicLong( 0 );
+
+        private final AtomicLong allocatedBytes = new AtomicLong( 0 );
+
+        private void add( final long cpu, final long allocated )
+        {
+            tasks.incrementAndGet();
+            cpuNanos.addAndGet( cpu );
+            allocatedBytes.addAndGet( allocated );
+        }
+
+        private ResourceUsage snapshot( final long startNanos )
+        {
+            return new ResourceUsage( tasks.get(), cpuNanos.get(), allocatedBytes.get(), startNanos,
+                                      System.nanoTime() );
+        }
+    }
+}
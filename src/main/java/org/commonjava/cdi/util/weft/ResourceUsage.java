@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the CPU time and heap allocation of the tasks counted by a {@link ResourceAccounting}. Rates come from
+ * comparing two snapshots, or a snapshot against the start of accounting.
+ * @since 2.3
+ */
+public final class ResourceUsage
+{
+    private final long tasks;
+
+    private final long cpuNanos;
+
+    private final long allocatedBytes;
+
+    private final long startNanos;
+
+    private final long timestampNanos;
+
+    ResourceUsage( final long tasks, final long cpuNanos, final long allocatedBytes, final long startNanos,
+                   final long timestampNanos )
+    {
+        this.tasks = tasks;
+        this.cpuNanos = cpuNanos;
+        this.allocatedBytes = allocatedBytes;
+        this.startNanos = startNanos;
+        this.timestampNanos = timestampNanos;
+    }
+
+    public long getTasks()
+    {
+        return tasks;
+    }
+
+    public long getCpuTime( final TimeUnit unit )
+    {
+        return unit.convert( cpuNanos, TimeUnit.NANOSECONDS );
+    }
+
+    /**
+     * @return heap bytes allocated by the tasks, or 0 if the JVM cannot measure allocation per thread.
+     */
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return the average number of cores kept busy since the earlier snapshot, or since accounting started if it is
+     * null.
+     */
+    public double getCpuRate( final ResourceUsage earlier )
+    {
+        long elapsed = elapsedSince( earlier );
+        return elapsed <= 0 ? 0 : (double) ( cpuNanos - ( earlier == null ? 0 : earlier.cpuNanos ) ) / elapsed;
+    }
+
+    /**
+     * @return bytes allocated per second since the earlier snapshot, or since accounting started if it is null.
+     */
+    public double getAllocationRate( final ResourceUsage earlier )
+    {
+        long elapsed = elapsedSince( earlier );
+        long bytes = allocatedBytes - ( earlier == null ? 0 : earlier.allocatedBytes );
+        return elapsed <= 0 ? 0 : bytes * (double) TimeUnit.SECONDS.toNanos( 1 ) / elapsed;
+    }
+
+    private long elapsedSince( final ResourceUsage earlier )
+    {
+        return timestampNanos - ( earlier == null ? startNanos : earlier.timestampNanos );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ResourceUsage{tasks=" + tasks + ", cpuMillis=" + getCpuTime( TimeUnit.MILLISECONDS )
+                + ", allocatedBytes=" + allocatedBytes + "}";
+    }
+}
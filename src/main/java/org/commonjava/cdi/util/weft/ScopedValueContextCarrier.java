@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * {@link ThreadContextCarrier} backed by {@code java.lang.ScopedValue}, accessed through method handles so Weft still
+ * builds and runs on older JDKs.
+ *
+ * Tasks bound through {@link #runWith(ThreadContext, Runnable)} see their context via the scoped value, so running a
+ * task costs no thread-local writes, and nothing is left behind on pooled or virtual carrier threads when it ends.
+ * Imperative {@link #set(ThreadContext)} calls, as made by {@link ThreadContext#getContext(boolean)} on a top-level
+ * thread, still need a {@link ThreadLocal}; a value set that way takes precedence over the scoped binding. Clearing
+ * the context inside a scoped binding leaves a marker in that ThreadLocal, so the scoped value is hidden until the
+ * binding ends.
+ * @since 2.3
+ */
+final class ScopedValueContextCarrier
+        implements ThreadContextCarrier
+{
+    // marks a scoped binding that was cleared with set( null ); a ScopedValue cannot be unbound inside its scope.
+    private static final Object CLEARED = new Object();
+
+    private final ThreadLocal<Object> imperative = new ThreadLocal<>();
+
+    private final Object scopedValue;
+
+    private final MethodHandle where;
+
+    private final MethodHandle run;
+
+    private final MethodHandle isBound;
+
+    private final MethodHandle get;
+
+    ScopedValueContextCarrier()
+            throws ReflectiveOperationException
+    {
+        Class<?> svClass = Class.forName( "java.lang.ScopedValue" );
+        Class<?> carrierClass = Class.forName( "java.lang.ScopedValue$Carrier" );
+
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        MethodHandle newInstance = lookup.findStatic( svClass, "newInstance", MethodType.methodType( svClass ) );
+        this.where = lookup.findStatic( svClass, "where", MethodType.methodType( carrierClass, svClass, Object.class ) );
+        this.run = lookup.findVirtual( carrierClass, "run", MethodType.methodType( void.class, Runnable.class ) );
+        this.isBound = lookup.findVirtual( svClass, "isBound", MethodType.methodType( boolean.class ) );
+        this.get = lookup.findVirtual( svClass, "get", MethodType.methodType( Object.class ) );
+
+        this.scopedValue = invoke( () -> newInstance.invoke() );
+
+        // make sure binding really works here (eg. preview restrictions) before committing to it.
+        boolean[] probed = { false };
+        runWith( null, () -> probed[0] = invoke( () -> isBound.invoke( scopedValue ) ) == Boolean.TRUE );
+        if ( !probed[0] )
+        {
+            throw new IllegalStateException( "ScopedValue binding probe failed" );
+        }
+    }
+
+    @Override
+    public String getName()
+    {
+        return "scoped";
+    }
+
+    @Override
+    public ThreadContext get()
+    {
+        Object ctx = imperative.get();
+        if ( ctx != null )
+        {
+            return ctx == CLEARED ? null : (ThreadContext) ctx;
+        }
+
+        return scoped();
+    }
+
+    @Override
+    public void set( ThreadContext ctx )
+    {
+        if ( ctx != null )
+        {
+            imperative.set( ctx );
+        }
+        else if ( scoped() != null )
+        {
+            imperative.set( CLEARED );
+        }
+        else
+        {
+            imperative.remove();
+        }
+    }
+
+    private ThreadContext scoped()
+    {
+        return invoke( () -> (boolean) isBound.invoke( scopedValue ) ? (ThreadContext) get.invoke( scopedValue ) : null );
+    }
+
+    @Override
+    public void runWith( ThreadContext ctx, Runnable runnable )
+    {
+        // the scoped binding must not be shadowed by an imperative one while the task runs.
+        Object saved = imperative.get();
+        if ( saved != null )
+        {
+            imperative.remove();
+        }
+
+        try
+        {
+            Object carrier = invoke( () -> where.invoke( scopedValue, ctx ) );
+            invoke( () -> {
+                run.invoke( carrier, runnable );
+                return null;
+            } );
+        }
+        finally
+        {
+            if ( saved == null )
+            {
+                imperative.remove();
+            }
+            else
+            {
+                imperative.set( saved );
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface HandleCall<T>
+    {
+        T call()
+                throws Throwable;
+    }
+
+    private static <T> T invoke( HandleCall<T> call )
+    {
+        try
+        {
+            return call.call();
+        }
+        catch ( RuntimeException | Error e )
+        {
+            throw e;
+        }
+        catch ( Throwable t )
+        {
+            throw new IllegalStateException( "ScopedValue invocation failed", t );
+        }
+    }
+}
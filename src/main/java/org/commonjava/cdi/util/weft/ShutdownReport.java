@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Outcome of {@link WeftPoolBoy#shutdown(long, java.util.concurrent.TimeUnit)}: which pools drained in time, and for
+ * the ones that had to be forced, the tasks that were dropped from their queues or interrupted while running.
+ * @since 2.3
+ */
+public final class ShutdownReport
+{
+    private final long elapsedMillis;
+
+    private final List<String> drained;
+
+    private final Map<String, Integer> droppedCounts = new TreeMap<>();
+
+    private final Map<String, List<TaskInfo>> dropped = new TreeMap<>();
+
+    private final Map<String, List<TaskInfo>> interrupted = new TreeMap<>();
+
+    ShutdownReport( final long elapsedMillis, final List<String> drained )
+    {
+        this.elapsedMillis = elapsedMillis;
+        this.drained = Collections.unmodifiableList( drained );
+    }
+
+    void forced( final String pool, final int droppedCount, final List<TaskInfo> queued, final List<TaskInfo> running )
+    {
+        droppedCounts.put( pool, droppedCount );
+        if ( !queued.isEmpty() )
+        {
+            dropped.put( pool, queued );
+        }
+        if ( !running.isEmpty() )
+        {
+            interrupted.put( pool, running );
+        }
+    }
+
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return true if every pool finished its queued and running tasks before the deadline.
+     */
+    public boolean isClean()
+    {
+        return droppedCounts.isEmpty();
+    }
+
+    /**
+     * @return pools that terminated before the deadline, in the order they did.
+     */
+    public List<String> getDrainedPools()
+    {
+        return drained;
+    }
+
+    /**
+     * @return number of queued tasks dropped per forced pool, including tasks that cannot be described.
+     */
+    public Map<String, Integer> getDroppedCounts()
+    {
+        return Collections.unmodifiableMap( droppedCounts );
+    }
+
+    /**
+     * @return queued tasks that never ran, by pool; only pools that track their tasks can describe them.
+     */
+    public Map<String, List<TaskInfo>> getDroppedTasks()
+    {
+        return Collections.unmodifiableMap( dropped );
+    }
+
+    /**
+     * @return tasks that were still running and got interrupted, by pool.
+     */
+    public Map<String, List<TaskInfo>> getInterruptedTasks()
+    {
+        return Collections.unmodifiableMap( interrupted );
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( "Shutdown took " ).append( elapsedMillis ).append( "ms; " ).append( drained.size() )
+          .append( " pools drained" );
+        droppedCounts.forEach( ( pool, count ) -> {
+            sb.append( "\n  " ).append( pool ).append( ": " ).append( count ).append( " queued tasks dropped" );
+            dropped.getOrDefault( pool, Collections.emptyList() )
+                   .forEach( t -> sb.append( "\n    dropped: " ).append( t.getDescription() ) );
+            interrupted.getOrDefault( pool, Collections.emptyList() )
+                       .forEach( t -> sb.append( "\n    interrupted: " ).append( t.getDescription() ) );
+        } );
+
+        return sb.toString();
+    }
+}
@@ -24,6 +24,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiFunction;
@@ -47,29 +48,48 @@ public class SignallingLocker<K>
 
     private final Map<K, SignallingLock> locks;
 
+    private final LockContentionTracker<K> tracker;
+
     public SignallingLocker()
     {
-        this( new ContextSensitiveWeakHashMap(), DEFAULT_SWEEP_MS );
+        this( new ConcurrentContextSensitiveWeakHashMap<>(), DEFAULT_SWEEP_MS );
     }
 
     public SignallingLocker( long staleSweepMillis )
     {
-        this( new ContextSensitiveWeakHashMap(), staleSweepMillis );
+        this( new ConcurrentContextSensitiveWeakHashMap<>(), staleSweepMillis );
     }
 
     public SignallingLocker( Map<K, SignallingLock> locks, long staleSweepMillis )
     {
-        this.locks = Collections.synchronizedMap( locks );
+        this( locks, staleSweepMillis, null );
+    }
+
+    /**
+     * @param tracker optional contention tracker, used to report hot keys and their holders. May be null.
+     */
+    public SignallingLocker( Map<K, SignallingLock> locks, long staleSweepMillis, LockContentionTracker<K> tracker )
+    {
+        this.locks = locks instanceof ConcurrentMap ? locks : Collections.synchronizedMap( locks );
+        this.tracker = tracker;
 
         this.timer.scheduleAtFixedRate( new SweepStaleTask(), staleSweepMillis, staleSweepMillis );
     }
 
+    /**
+     * @return the contention tracker for this locker, or null if contention tracking is disabled.
+     */
+    public LockContentionTracker<K> getContentionTracker()
+    {
+        return tracker;
+    }
+
     /**
      * Remove lock proactively
      */
     public void removeLock( K key )
     {
-        locks.computeIfPresent( key, ( k, lock ) -> locks.remove( k ) );
+        locks.remove( key );
     }
 
     public <T> T ifUnlocked( K key, Function<K, T> function, BiFunction<K, SignallingLock, T> lockedFunction )
@@ -81,10 +101,12 @@ public class SignallingLocker<K>
             locked = lock.tryLock();
             if ( locked )
             {
+                recordAcquired( key, 0 );
                 return function.apply( key );
             }
             else
             {
+                recordContended( key );
                 return lockedFunction.apply( key, lock );
             }
         }
@@ -92,6 +114,7 @@ public class SignallingLocker<K>
         {
             if ( lock.isHeldByCurrentThread() )
             {
+                recordReleased( key );
                 lock.unlock();
             }
         }
@@ -121,22 +144,26 @@ public class SignallingLocker<K>
 
         final SignallingLock lock = locks.computeIfAbsent( key, k -> new SignallingLock() );
         Boolean locked = false;
+        long start = System.nanoTime();
         try
         {
             locked = lock.lock();
 
             if ( locked )
             {
+                recordAcquired( key, System.nanoTime() - start );
                 logger.debug( "Applying function locked with: {}", key );
                 return function.apply( key, lock );
             }
             else
             {
+                recordTimeout( key, System.nanoTime() - start );
                 logger.debug( "Lock failed for key: {}", key );
             }
         }
         catch ( InterruptedException e )
         {
+            recordTimeout( key, System.nanoTime() - start );
             logger.warn( "Interrupted waiting for lock on key: {}", key );
         }
         finally
@@ -145,6 +172,7 @@ public class SignallingLocker<K>
             if ( locked )
             {
                 logger.debug( "Unlocking key: {}", key );
+                recordReleased( key );
                 lock.unlock();
             }
         }
@@ -168,6 +196,7 @@ public class SignallingLocker<K>
         do
         {
             Boolean locked = false;
+            long start = System.nanoTime();
             try
             {
                 logger.debug( "Locking on: {} with timeout seconds: {}", key, timeoutSeconds );
@@ -182,11 +211,13 @@ public class SignallingLocker<K>
 
                 if ( locked )
                 {
+                    recordAcquired( key, System.nanoTime() - start );
                     logger.debug( "Applying function locked with: {}", key );
                     return function.apply( key, lock );
                 }
                 else
                 {
+                    recordTimeout( key, System.nanoTime() - start );
                     logger.debug( "Lock failed for key: {}", key );
                     retry = lockFailedFunction.apply( key, lock );
                     logger.debug( "Retry lock on: {}? {}", key, retry );
@@ -194,6 +225,7 @@ public class SignallingLocker<K>
             }
             catch ( InterruptedException e )
             {
+                recordTimeout( key, System.nanoTime() - start );
                 logger.warn( "Interrupted waiting for lock on key: {}", key );
             }
             finally
@@ -202,6 +234,7 @@ public class SignallingLocker<K>
                 if ( locked )
                 {
                     logger.debug( "Unlocking key: {}", key );
+                    recordReleased( key );
                     lock.unlock();
                 }
             }
@@ -212,6 +245,38 @@ public class SignallingLocker<K>
         return null;
     }
 
+    private void recordAcquired( K key, long waitNanos )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordAcquired( key, waitNanos );
+        }
+    }
+
+    private void recordTimeout( K key, long waitNanos )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordTimeout( key, waitNanos );
+        }
+    }
+
+    private void recordContended( K key )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordContended( key );
+        }
+    }
+
+    private void recordReleased( K key )
+    {
+        if ( tracker != null )
+        {
+            tracker.recordReleased( key );
+        }
+    }
+
     private final class SweepStaleTask
             extends TimerTask
     {
@@ -233,7 +298,7 @@ public class SignallingLocker<K>
             toScan.forEach( ( key, lock)->{
                 if ( lock.isStale() )
                 {
-                    locks.remove( key );
+                    locks.remove( key, lock );
                 }
             } );
         }
@@ -15,55 +15,110 @@
  */
 package org.commonjava.cdi.util.weft;
 
+import org.commonjava.cdi.util.weft.exception.DeadlineExceededException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Delayed;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Dummy {@link ExecutorService} that forces everything to be read in the current thread. Used for when weft is disabled.
+ * Direct {@link ExecutorService} that runs everything in the submitting thread. Used for when weft is disabled.
+ *
+ * Tasks run inline as they are submitted, up to {@link #getMaxDepth()} levels of nested submission. Deeper submissions
+ * are queued on a per-thread trampoline and run once the outermost task on that thread returns, so recursive fan-out
+ * cannot overflow the stack. Calling {@link Future#get()} on a queued task from its own thread runs it immediately.
+ * Each task runs with the {@link ThreadContext} that was current when it was submitted. As in a pool, a task whose
+ * {@link Deadline}, or its context's, has already passed is rejected, and a queued task whose deadline passes before
+ * it can run is dropped with a {@link DeadlineExceededException}.
  * Created by jdcasey on 8/25/16.
  */
 public class SingleThreadedExecutorService
     implements WeftExecutorService
 {
-    private boolean shutdown;
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
+    private final String name;
+
+    private final int maxDepth;
+
+    private final ThreadLocal<Trampoline> trampoline = ThreadLocal.withInitial( Trampoline::new );
+
+    // tasks queued on some thread's trampoline; a task only runs if it can be removed from here first.
+    private final Set<DirectTask<?>> pending = ConcurrentHashMap.newKeySet();
 
-    private Random random = new Random();
+    private final AtomicInteger active = new AtomicInteger( 0 );
 
-    private String name;
+    private final AtomicLong submitted = new AtomicLong( 0 );
 
-    private AtomicBoolean isRunning = new AtomicBoolean( false );
+    private final AtomicLong completed = new AtomicLong( 0 );
+
+    private final AtomicLong deferred = new AtomicLong( 0 );
+
+    private final AtomicLong expired = new AtomicLong( 0 );
+
+    private volatile boolean shutdown;
 
     public SingleThreadedExecutorService( final String name )
     {
+        this( name, DEFAULT_MAX_DEPTH );
+    }
+
+    public SingleThreadedExecutorService( final String name, final int maxDepth )
+    {
+        if ( maxDepth < 1 )
+        {
+            throw new IllegalArgumentException( "maxDepth must be at least 1" );
+        }
+
         this.name = name;
+        this.maxDepth = maxDepth;
     }
 
     @Override
-    public synchronized void shutdown()
+    public void shutdown()
     {
         this.shutdown = true;
-        notifyAll();
+        signalIfTerminated();
     }
 
+    /**
+     * Queued tasks are cancelled and returned; they will not run, and their futures report cancellation. Tasks that are
+     * already running inline finish normally.
+     */
     @Override
-    public synchronized List<Runnable> shutdownNow()
+    public List<Runnable> shutdownNow()
     {
-        shutdown();
-        return Collections.emptyList();
+        this.shutdown = true;
+
+        List<Runnable> dropped = new ArrayList<>();
+        for ( DirectTask<?> task : new ArrayList<>( pending ) )
+        {
+            if ( pending.remove( task ) )
+            {
+                task.cancel( false );
+                dropped.add( task );
+            }
+        }
+
+        signalIfTerminated();
+        return dropped;
     }
 
     @Override
@@ -75,47 +130,78 @@ public class SingleThreadedExecutorService
     @Override
     public boolean isTerminated()
     {
-        return shutdown;
+        return shutdown && active.get() == 0 && pending.isEmpty();
     }
 
     @Override
     public synchronized boolean awaitTermination( long l, TimeUnit timeUnit )
             throws InterruptedException
     {
-        if ( !shutdown )
+        long remaining = timeUnit.toNanos( l );
+        long deadline = System.nanoTime() + remaining;
+        while ( !isTerminated() )
         {
-            wait( TimeUnit.MILLISECONDS.convert( l, timeUnit ) );
+            if ( remaining <= 0 )
+            {
+                return false;
+            }
+
+            TimeUnit.NANOSECONDS.timedWait( this, remaining );
+            remaining = deadline - System.nanoTime();
         }
 
-        return shutdown;
+        return true;
     }
 
     @Override
     public <T> Future<T> submit( Callable<T> callable )
     {
-        return new FuturePast(callable);
+        return submit( callable, (Deadline) null );
     }
 
     @Override
     public <T> Future<T> submit( Runnable runnable, T t )
     {
-        return new FuturePast(new RunAndReturn(t, runnable));
+        DirectTask<T> task = newTask( Executors.callable( runnable, t ), runnable, null, false );
+        dispatch( task );
+        return task;
     }
 
     @Override
     public Future<?> submit( Runnable runnable )
     {
-        return new FuturePast(new RunAndReturn(runnable, null));
+        return submit( runnable, (Deadline) null );
+    }
+
+    @Override
+    public <T> Future<T> submit( Callable<T> callable, Deadline deadline )
+    {
+        DirectTask<T> task = newTask( callable, callable, deadline, false );
+        dispatch( task );
+        return task;
+    }
+
+    @Override
+    public Future<?> submit( Runnable runnable, Deadline deadline )
+    {
+        DirectTask<Object> task = newTask( Executors.callable( runnable ), runnable, deadline, false );
+        dispatch( task );
+        return task;
     }
 
     @Override
     public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> collection )
             throws InterruptedException
     {
-        ArrayList<Future<T>> futures = new ArrayList<>( collection.size() );
-        for ( Callable callable : collection )
+        List<Future<T>> futures = new ArrayList<>( collection.size() );
+        for ( Callable<T> callable : collection )
+        {
+            futures.add( submit( callable ) );
+        }
+
+        for ( Future<T> future : futures )
         {
-            futures.add( new FuturePast( callable ) );
+            awaitQuietly( future );
         }
 
         return futures;
@@ -125,26 +211,61 @@ public class SingleThreadedExecutorService
     public <T> List<Future<T>> invokeAll( Collection<? extends Callable<T>> collection, long l, TimeUnit timeUnit )
             throws InterruptedException
     {
-        return invokeAll( collection );
+        long deadline = System.nanoTime() + timeUnit.toNanos( l );
+
+        List<Future<T>> futures = new ArrayList<>( collection.size() );
+        for ( Callable<T> callable : collection )
+        {
+            if ( System.nanoTime() - deadline >= 0 )
+            {
+                // out of time; report the rest as cancelled without running them.
+                DirectTask<T> task = newTask( callable, callable, null, false );
+                task.cancel( false );
+                futures.add( task );
+            }
+            else
+            {
+                futures.add( submit( callable ) );
+            }
+        }
+
+        for ( Future<T> future : futures )
+        {
+            long remaining = deadline - System.nanoTime();
+            if ( remaining <= 0 )
+            {
+                future.cancel( false );
+                continue;
+            }
+
+            try
+            {
+                future.get( remaining, TimeUnit.NANOSECONDS );
+            }
+            catch ( ExecutionException | CancellationException e )
+            {
+                // reported through the future
+            }
+            catch ( TimeoutException e )
+            {
+                future.cancel( false );
+            }
+        }
+
+        return futures;
     }
 
     @Override
     public <T> T invokeAny( Collection<? extends Callable<T>> collection )
             throws InterruptedException, ExecutionException
     {
-        ArrayList<Callable<T>> items = new ArrayList<>( collection );
-        Callable<T> callable = null;
-        while( callable == null )
-        {
-            callable = items.get( Math.abs( random.nextInt( items.size() ) ) );
-        }
         try
         {
-            return callable.call();
+            return doInvokeAny( collection, -1 );
         }
-        catch ( Exception e )
+        catch ( TimeoutException e )
         {
-            throw new ExecutionException( "Failed to call: " + callable, e );
+            throw new IllegalStateException( "Untimed invokeAny timed out", e );
         }
     }
 
@@ -152,13 +273,90 @@ public class SingleThreadedExecutorService
     public <T> T invokeAny( Collection<? extends Callable<T>> collection, long l, TimeUnit timeUnit )
             throws InterruptedException, ExecutionException, TimeoutException
     {
-        return invokeAny( collection );
+        return doInvokeAny( collection, System.nanoTime() + timeUnit.toNanos( l ) );
+    }
+
+    /**
+     * Tasks run one at a time in the calling thread, so the first one to complete successfully wins and the rest are
+     * never started.
+     */
+    private <T> T doInvokeAny( Collection<? extends Callable<T>> collection, long deadline )
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        if ( collection.isEmpty() )
+        {
+            throw new IllegalArgumentException( "No tasks to invoke" );
+        }
+
+        ExecutionException last = null;
+        for ( Callable<T> callable : collection )
+        {
+            if ( deadline != -1 && System.nanoTime() - deadline >= 0 )
+            {
+                throw new TimeoutException( "invokeAny timed out in: " + name );
+            }
+
+            Future<T> future = submit( callable );
+            try
+            {
+                return future.get();
+            }
+            catch ( ExecutionException e )
+            {
+                last = e;
+            }
+            catch ( CancellationException e )
+            {
+                last = new ExecutionException( "Cancelled: " + callable, e );
+            }
+        }
+
+        throw last;
     }
 
+    /**
+     * Runs the task inline when possible. Failures of tasks that ran inline are rethrown to the caller, as if it had
+     * called {@link Runnable#run()} itself; failures of queued tasks are logged.
+     */
     @Override
     public void execute( Runnable runnable )
     {
-        runnable.run();
+        execute( runnable, null );
+    }
+
+    /**
+     * @see #execute(Runnable)
+     */
+    @Override
+    public void execute( Runnable runnable, Deadline deadline )
+    {
+        DirectTask<Object> task = newTask( Executors.callable( runnable ), runnable, deadline, true );
+        dispatch( task );
+
+        if ( task.isDone() && !task.isCancelled() )
+        {
+            try
+            {
+                task.get();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            catch ( ExecutionException e )
+            {
+                Throwable cause = e.getCause();
+                if ( cause instanceof RuntimeException )
+                {
+                    throw (RuntimeException) cause;
+                }
+                if ( cause instanceof Error )
+                {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException( "Task failed: " + runnable, cause );
+            }
+        }
     }
 
     @Override
@@ -173,16 +371,20 @@ public class SingleThreadedExecutorService
         return true;
     }
 
+    /**
+     * Relative to a nominal single thread, so this exceeds 1 when several callers are running tasks at once or tasks
+     * are queued on a trampoline.
+     */
     @Override
     public double getLoadFactor()
     {
-        return isRunning.get() ? 1 : 0;
+        return getCurrentLoad();
     }
 
     @Override
     public long getCurrentLoad()
     {
-        return isRunning.get() ? 1L : 0L;
+        return active.get() + pending.size();
     }
 
     @Override
@@ -206,95 +408,243 @@ public class SingleThreadedExecutorService
     @Override
     public int getActiveCount()
     {
-        return isRunning.get() ? 1 : 0;
+        return active.get();
     }
 
     @Override
     public long getTaskCount()
     {
-        return isRunning.get() ? 1 : 0;
+        return submitted.get();
+    }
+
+    public long getCompletedTaskCount()
+    {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of tasks currently queued on trampolines, waiting for an outer task to return.
+     */
+    public int getQueuedTaskCount()
+    {
+        return pending.size();
     }
 
-    private final class RunAndReturn<T> implements Callable<T>
+    /**
+     * @return the total number of tasks that could not run inline because the nesting depth was exhausted.
+     */
+    public long getDeferredTaskCount()
     {
-        private final T result;
+        return deferred.get();
+    }
 
-        private final Runnable runnable;
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    @Override
+    public long getExpiredTaskCount()
+    {
+        return expired.get();
+    }
 
-        public RunAndReturn( T result, Runnable runnable )
+    private <T> DirectTask<T> newTask( Callable<T> callable, Object task, Deadline deadline, boolean logFailure )
+    {
+        if ( shutdown )
         {
-            this.result = result;
-            this.runnable = runnable;
+            throw new RejectedExecutionException( "Executor is shut down: " + name );
         }
 
-        @Override
-        public T call()
-                throws Exception
+        DirectTask<T> direct = new DirectTask<>( callable, task, deadline, logFailure );
+        if ( direct.deadline != null && direct.deadline.isExpired() )
         {
-            runnable.run();
-            return result;
+            expired.incrementAndGet();
+            throw new RejectedExecutionException( "Deadline already passed; not running: " + task + " in: " + name );
         }
+
+        submitted.incrementAndGet();
+        return direct;
     }
 
-    private final class FuturePast<T>
-            implements Future<T>
+    private void dispatch( DirectTask<?> task )
     {
-        private ExecutionException error;
-
-        private T result;
+        Trampoline t = trampoline.get();
+        if ( t.depth >= maxDepth )
+        {
+            deferred.incrementAndGet();
+            task.queued = true;
+            pending.add( task );
+            t.queue.addLast( task );
+            return;
+        }
 
-        public FuturePast( T result )
+        t.depth++;
+        try
+        {
+            runTask( task );
+            if ( t.depth == 1 )
+            {
+                DirectTask<?> next;
+                while ( ( next = t.queue.pollFirst() ) != null )
+                {
+                    if ( pending.remove( next ) )
+                    {
+                        runTask( next );
+                    }
+                }
+            }
+        }
+        finally
         {
-            this.result = result;
+            t.depth--;
+            if ( t.depth == 0 && t.queue.isEmpty() )
+            {
+                trampoline.remove();
+            }
         }
+    }
 
-        public FuturePast( Callable<? extends T> callable )
+    private void runTask( DirectTask<?> task )
+    {
+        active.incrementAndGet();
+        try
         {
-            try
+            if ( task.deadline != null && task.deadline.isExpired() )
             {
-                result = callable.call();
+                expired.incrementAndGet();
+                task.expire();
             }
-            catch ( Exception e )
+            else
             {
-                error = new ExecutionException( "Failed to call: " + callable, e );
+                ThreadContext.runWith( task.ctx, task );
             }
         }
+        finally
+        {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+            signalIfTerminated();
+        }
+    }
 
-        @Override
-        public boolean cancel( boolean b )
+    private void signalIfTerminated()
+    {
+        if ( isTerminated() )
         {
-            return false;
+            synchronized ( this )
+            {
+                notifyAll();
+            }
         }
+    }
 
-        @Override
-        public boolean isCancelled()
+    private static void awaitQuietly( Future<?> future )
+            throws InterruptedException
+    {
+        try
+        {
+            future.get();
+        }
+        catch ( ExecutionException | CancellationException e )
+        {
+            // reported through the future
+        }
+    }
+
+    private static final class Trampoline
+    {
+        private final ArrayDeque<DirectTask<?>> queue = new ArrayDeque<>();
+
+        private int depth;
+    }
+
+    private final class DirectTask<T>
+            extends FutureTask<T>
+    {
+        private final Object task;
+
+        private final ThreadContext ctx;
+
+        private final Deadline deadline;
+
+        private final Thread owner;
+
+        private final boolean logFailure;
+
+        private volatile boolean queued;
+
+        private DirectTask( Callable<T> callable, Object task, Deadline deadline, boolean logFailure )
         {
-            return false;
+            super( callable );
+            this.task = task;
+            this.ctx = ThreadContext.getContext( false );
+            this.deadline = Deadline.earliest( deadline, ctx == null ? null : ctx.getDeadline() );
+            this.owner = Thread.currentThread();
+            this.logFailure = logFailure;
         }
 
         @Override
-        public boolean isDone()
+        public boolean cancel( boolean mayInterruptIfRunning )
         {
-            return true;
+            boolean cancelled = super.cancel( mayInterruptIfRunning );
+            if ( cancelled && pending.remove( this ) )
+            {
+                signalIfTerminated();
+            }
+
+            return cancelled;
         }
 
         @Override
         public T get()
                 throws InterruptedException, ExecutionException
         {
-            if ( error != null )
+            runIfQueuedHere();
+            return super.get();
+        }
+
+        @Override
+        public T get( long timeout, TimeUnit unit )
+                throws InterruptedException, ExecutionException, TimeoutException
+        {
+            runIfQueuedHere();
+            return super.get( timeout, unit );
+        }
+
+        /**
+         * Nobody else will run a task queued on this thread's trampoline while we block, so run it now.
+         */
+        private void runIfQueuedHere()
+        {
+            if ( !isDone() && owner == Thread.currentThread() && pending.remove( this ) )
             {
-                throw error;
+                trampoline.get().queue.remove( this );
+                runTask( this );
             }
+        }
 
-            return result;
+        private void expire()
+        {
+            setException( new DeadlineExceededException( name, -deadline.remaining( TimeUnit.MILLISECONDS ), task ) );
         }
 
         @Override
-        public T get( long l, TimeUnit timeUnit )
-                throws InterruptedException, ExecutionException, TimeoutException
+        protected void setException( Throwable t )
+        {
+            super.setException( t );
+            // nobody is left to rethrow to once an executed task has been queued.
+            if ( logFailure && queued )
+            {
+                Logger logger = LoggerFactory.getLogger( getClass() );
+                logger.error( "Task failed in: " + name + ": " + task, t );
+            }
+        }
+
+        @Override
+        public String toString()
         {
-            return get();
+            return String.valueOf( task );
         }
     }
 }
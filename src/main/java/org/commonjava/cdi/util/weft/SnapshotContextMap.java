@@ -0,0 +1,269 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link ConcurrentMap} view over a {@link PersistentContextMap}, updated by compare-and-set of the root. Used as the
+ * backing store of a {@link ThreadContext} in snapshot inheritance mode.
+ *
+ * A child context starts from its parent's current root, so capture is O(1), and its writes path-copy into its own
+ * root without ever touching the parent. The keys written locally are tracked so they can be published back to the
+ * parent on request.
+ */
+final class SnapshotContextMap
+        extends AbstractMap<String, Object>
+        implements ConcurrentMap<String, Object>
+{
+    private final AtomicReference<PersistentContextMap> state;
+
+    private final Set<String> written = ConcurrentHashMap.newKeySet();
+
+    private Set<Entry<String, Object>> entrySet;
+
+    SnapshotContextMap( PersistentContextMap base )
+    {
+        this.state = new AtomicReference<>( base );
+    }
+
+    /**
+     * @return the current immutable state, which can be handed to a child context as-is.
+     */
+    PersistentContextMap snapshot()
+    {
+        return state.get();
+    }
+
+    /**
+     * @return the keys written (put or removed) through this map since it was created or last drained, clearing them.
+     */
+    Set<String> drainWrittenKeys()
+    {
+        Set<String> result = new HashSet<>();
+        for ( Iterator<String> it = written.iterator(); it.hasNext(); )
+        {
+            result.add( it.next() );
+            it.remove();
+        }
+
+        return result;
+    }
+
+    @Override
+    public int size()
+    {
+        return state.get().size();
+    }
+
+    @Override
+    public Object get( Object key )
+    {
+        return state.get().get( key );
+    }
+
+    @Override
+    public boolean containsKey( Object key )
+    {
+        return state.get().get( key ) != null;
+    }
+
+    @Override
+    public Object put( String key, Object value )
+    {
+        while ( true )
+        {
+            PersistentContextMap cur = state.get();
+            if ( state.compareAndSet( cur, cur.put( key, value ) ) )
+            {
+                written.add( key );
+                return cur.get( key );
+            }
+        }
+    }
+
+    @Override
+    public Object putIfAbsent( String key, Object value )
+    {
+        while ( true )
+        {
+            PersistentContextMap cur = state.get();
+            Object old = cur.get( key );
+            if ( old != null )
+            {
+                return old;
+            }
+
+            if ( state.compareAndSet( cur, cur.put( key, value ) ) )
+            {
+                written.add( key );
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public Object remove( Object key )
+    {
+        while ( true )
+        {
+            PersistentContextMap cur = state.get();
+            Object old = cur.get( key );
+            if ( old == null )
+            {
+                return null;
+            }
+
+            if ( state.compareAndSet( cur, cur.remove( key ) ) )
+            {
+                written.add( (String) key );
+                return old;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove( Object key, Object value )
+    {
+        while ( true )
+        {
+            PersistentContextMap cur = state.get();
+            Object old = cur.get( key );
+            if ( old == null || !old.equals( value ) )
+            {
+                return false;
+            }
+
+            if ( state.compareAndSet( cur, cur.remove( key ) ) )
+            {
+                written.add( (String) key );
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean replace( String key, Object oldValue, Object newValue )
+    {
+        while ( true )
+        {
+            PersistentContextMap cur = state.get();
+            Object old = cur.get( key );
+            if ( old == null || !old.equals( oldValue ) )
+            {
+                return false;
+            }
+
+            if ( state.compareAndSet( cur, cur.put( key, newValue ) ) )
+            {
+                written.add( key );
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public Object replace( String key, Object value )
+    {
+        while ( true )
+        {
+            PersistentContextMap cur = state.get();
+            Object old = cur.get( key );
+            if ( old == null )
+            {
+                return null;
+            }
+
+            if ( state.compareAndSet( cur, cur.put( key, value ) ) )
+            {
+                written.add( key );
+                return old;
+            }
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        PersistentContextMap cur = state.getAndSet( PersistentContextMap.EMPTY );
+        cur.forEach( ( k, v ) -> written.add( k ) );
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet()
+    {
+        Set<Entry<String, Object>> es = entrySet;
+        return es == null ? ( entrySet = new EntrySet() ) : es;
+    }
+
+    private final class EntrySet
+            extends AbstractSet<Entry<String, Object>>
+    {
+        @Override
+        public Iterator<Entry<String, Object>> iterator()
+        {
+            PersistentContextMap cur = state.get();
+            List<Entry<String, Object>> entries = new ArrayList<>( cur.size() );
+            cur.forEach( ( k, v ) -> entries.add( new SimpleImmutableEntry<>( k, v ) ) );
+
+            Iterator<Entry<String, Object>> delegate = Collections.unmodifiableList( entries ).iterator();
+            return new Iterator<Entry<String, Object>>()
+            {
+                private Entry<String, Object> last;
+
+                @Override
+                public boolean hasNext()
+                {
+                    return delegate.hasNext();
+                }
+
+                @Override
+                public Entry<String, Object> next()
+                {
+                    return last = delegate.next();
+                }
+
+                @Override
+                public void remove()
+                {
+                    if ( last == null )
+                    {
+                        throw new IllegalStateException();
+                    }
+
+                    SnapshotContextMap.this.remove( last.getKey(), last.getValue() );
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size()
+        {
+            return SnapshotContextMap.this.size();
+        }
+    }
+}
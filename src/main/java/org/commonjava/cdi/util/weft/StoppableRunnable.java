@@ -18,22 +18,27 @@ package org.commonjava.cdi.util.weft;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Runnable that can be stopped cooperatively: {@link #stop()} sets a flag and interrupts the running thread, and the
+ * task is also considered stopped once the {@link CancellationToken} of its {@link ThreadContext} is cancelled.
+ * Long-running {@link #doExecute()} implementations should poll {@link #isStopped()}.
+ */
 public abstract class StoppableRunnable
     implements Runnable
 {
     protected final Logger logger = LoggerFactory.getLogger( getClass() );
 
-    private boolean stop = false;
+    private volatile boolean stop = false;
 
     private Thread myThread;
 
     public final synchronized void stop()
     {
-        logger.debug( "setting stop flag on %s", this );
+        logger.debug( "setting stop flag on {}", this );
         stop = true;
         if ( myThread != null )
         {
-            logger.debug( "interrupting current thread: %s for task: %s", myThread, this );
+            logger.debug( "interrupting current thread: {} for task: {}", myThread, this );
             myThread.interrupt();
         }
     }
@@ -41,9 +46,9 @@ public abstract class StoppableRunnable
     @Override
     public final void run()
     {
-        if ( stop )
+        if ( isStopped() )
         {
-            logger.debug( "stopping task: %s", this );
+            logger.debug( "stopping task: {}", this );
             return;
         }
 
@@ -70,6 +75,15 @@ public abstract class StoppableRunnable
         }
     }
 
+    /**
+     * @since 2.3
+     * @return true if {@link #stop()} was called or the current context's {@link CancellationToken} is cancelled.
+     */
+    protected final boolean isStopped()
+    {
+        return stop || CancellationToken.isCurrentCancelled();
+    }
+
     protected abstract void doExecute();
 
 }
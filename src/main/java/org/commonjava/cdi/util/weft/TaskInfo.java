@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+
+/**
+ * Point-in-time description of a task that is queued or running on a pool, for finding out what is occupying it
+ * without a thread dump. Stack traces are only captured for running tasks flagged as stuck.
+ * @since 2.3
+ */
+public final class TaskInfo
+{
+    private final String pool;
+
+    private final String description;
+
+    private final String taskClass;
+
+    private final String thread;
+
+    private final long submittedMillis;
+
+    private final long startedMillis;
+
+    private final long ageMillis;
+
+    private final long elapsedMillis;
+
+    private final Set<String> contextKeys;
+
+    private final boolean stuck;
+
+    private final StackTraceElement[] stackTrace;
+
+    TaskInfo( final String pool, final Object task, final String thread, final long submittedMillis,
+              final long startedMillis, final long ageMillis, final long elapsedMillis, final Set<String> contextKeys,
+              final boolean stuck, final StackTraceElement[] stackTrace )
+    {
+        this.pool = pool;
+        this.description = String.valueOf( task );
+        this.taskClass = task == null ? null : task.getClass().getName();
+        this.thread = thread;
+        this.submittedMillis = submittedMillis;
+        this.startedMillis = startedMillis;
+        this.ageMillis = ageMillis;
+        this.elapsedMillis = elapsedMillis;
+        this.contextKeys = contextKeys == null ? Collections.emptySet() : Collections.unmodifiableSet( contextKeys );
+        this.stuck = stuck;
+        this.stackTrace = stackTrace;
+    }
+
+    public String getPool()
+    {
+        return pool;
+    }
+
+    public String getDescription()
+    {
+        return description;
+    }
+
+    public String getTaskClass()
+    {
+        return taskClass;
+    }
+
+    public boolean isRunning()
+    {
+        return thread != null;
+    }
+
+    /**
+     * @return the name of the worker thread running the task, or null if it is queued.
+     */
+    public String getThread()
+    {
+        return thread;
+    }
+
+    public long getSubmittedMillis()
+    {
+        return submittedMillis;
+    }
+
+    /**
+     * @return wall-clock start time in epoch millis, or 0 if the task is queued.
+     */
+    public long getStartedMillis()
+    {
+        return startedMillis;
+    }
+
+    /**
+     * @return time since submission.
+     */
+    public long getAgeMillis()
+    {
+        return ageMillis;
+    }
+
+    /**
+     * @return time since the task started running, or 0 if it is queued.
+     */
+    public long getElapsedMillis()
+    {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return the keys of the submitter's {@link ThreadContext}, as inherited by the task.
+     */
+    public Set<String> getContextKeys()
+    {
+        return contextKeys;
+    }
+
+    /**
+     * @return true if the task has been running longer than its pool's stuck-task threshold.
+     */
+    public boolean isStuck()
+    {
+        return stuck;
+    }
+
+    /**
+     * @return the worker's stack when the task was flagged as stuck, or null.
+     */
+    public StackTraceElement[] getStackTrace()
+    {
+        return stackTrace == null ? null : stackTrace.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append( '"' ).append( description ).append( "\" pool=" ).append( pool );
+        if ( isRunning() )
+        {
+            sb.append( " thread=" ).append( thread ).append( " started=" ).append( new Date( startedMillis ) );
+            sb.append( " elapsed=" ).append( elapsedMillis ).append( "ms" );
+        }
+        else
+        {
+            sb.append( " queued age=" ).append( ageMillis ).append( "ms" );
+        }
+
+        if ( stuck )
+        {
+            sb.append( " STUCK" );
+        }
+
+        sb.append( " context=" ).append( contextKeys );
+        if ( stackTrace != null )
+        {
+            Arrays.stream( stackTrace ).forEach( e -> sb.append( "\n\tat " ).append( e ) );
+        }
+
+        return sb.toString();
+    }
+}
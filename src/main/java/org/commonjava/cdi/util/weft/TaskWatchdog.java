@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Catches tasks that run longer than their pool allows. One shared timer checks the running tasks of every watched
+ * pool; there is no per-task timer or thread. A task found past its pool's maximum run time is logged once per run,
+ * with its context keys and stack, and then, depending on the pool's {@link Action}, left alone, interrupted, or
+ * stopped if it is a {@link StoppableRunnable}. Interruption only helps tasks that block interruptibly or poll their
+ * interrupt flag.
+ * @since 2.3
+ */
+public class TaskWatchdog
+{
+    public static final long DEFAULT_CHECK_MILLIS = 1000;
+
+    /**
+     * What to do with a task past its maximum run time.
+     */
+    public enum Action
+    {
+        LOG, INTERRUPT, STOP;
+
+        /**
+         * @return the action with the given name, ignoring case; LOG if the name is null or empty.
+         */
+        public static Action forName( final String name )
+        {
+            return name == null || name.trim().isEmpty() ? LOG : valueOf( name.trim().toUpperCase( Locale.ROOT ) );
+        }
+    }
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final Timer timer = new Timer( "weft-task-watchdog", true );
+
+    private final Map<PoolWeftExecutorService, Watch> watches = new ConcurrentHashMap<>();
+
+    private final AtomicLong overruns = new AtomicLong( 0 );
+
+    private final AtomicLong interrupted = new AtomicLong( 0 );
+
+    private final AtomicLong stopped = new AtomicLong( 0 );
+
+    public TaskWatchdog()
+    {
+        this( DEFAULT_CHECK_MILLIS );
+    }
+
+    /**
+     * @param checkMillis how often to check; overruns are noticed up to this long after the fact
+     */
+    public TaskWatchdog( final long checkMillis )
+    {
+        timer.schedule( new Checker(), checkMillis, checkMillis );
+    }
+
+    /**
+     * Watch the pool, replacing any earlier settings for it. A max run time of zero or less stops watching it.
+     */
+    public void watch( final PoolWeftExecutorService pool, final long maxRunTime, final TimeUnit unit,
+                       final Action action )
+    {
+        if ( maxRunTime <= 0 )
+        {
+            unwatch( pool );
+            return;
+        }
+
+        watches.put( pool, new Watch( unit.toNanos( maxRunTime ), action == null ? Action.LOG : action ) );
+    }
+
+    public void unwatch( final PoolWeftExecutorService pool )
+    {
+        watches.remove( pool );
+    }
+
+    public boolean isWatching( final PoolWeftExecutorService pool )
+    {
+        return watches.containsKey( pool );
+    }
+
+    /**
+     * @return the number of task runs found past their pool's maximum run time.
+     */
+    public long getOverrunCount()
+    {
+        return overruns.get();
+    }
+
+    public long getInterruptedCount()
+    {
+        return interrupted.get();
+    }
+
+    public long getStoppedCount()
+    {
+        return stopped.get();
+    }
+
+    public void close()
+    {
+        timer.cancel();
+        watches.clear();
+    }
+
+    void onOverrun( final PoolWeftExecutorService pool, final TaskInfo info, final long maxNanos )
+    {
+        overruns.incrementAndGet();
+        logger.warn( "Task in pool: {} exceeded max run time of {}ms: {}", pool.getName(),
+                     TimeUnit.NANOSECONDS.toMillis( maxNanos ), info );
+    }
+
+    void onInterrupted()
+    {
+        interrupted.incrementAndGet();
+    }
+
+    void onStopped()
+    {
+        stopped.incrementAndGet();
+    }
+
+    private void check()
+    {
+        watches.forEach( ( pool, watch ) -> {
+            if ( pool.isTerminated() )
+            {
+                watches.remove( pool );
+            }
+            else
+            {
+                pool.checkOverruns( watch.maxNanos, watch.action, this );
+            }
+        } );
+    }
+
+    private static final class Watch
+    {
+        private final long maxNanos;
+
+        private final Action action;
+
+        private Watch( final long maxNanos, final Action action )
+        {
+            this.maxNanos = maxNanos;
+            this.action = action;
+        }
+    }
+
+    private final class Checker
+            extends TimerTask
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                check();
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Task watchdog check failed", e );
+            }
+        }
+    }
+}
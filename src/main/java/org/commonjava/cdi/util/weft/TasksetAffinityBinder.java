@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binds threads with {@code taskset -p -c <cpus> <tid>} on Linux. The native thread id is read from
+ * {@code /proc/thread-self}. Binding forks a process, so it is meant to happen once per thread, as it starts.
+ * @since 2.3
+ */
+public class TasksetAffinityBinder
+        implements CpuAffinityBinder
+{
+    private static final Path THREAD_SELF = Paths.get( "/proc/thread-self" );
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private final String taskset;
+
+    public TasksetAffinityBinder()
+    {
+        this( "taskset" );
+    }
+
+    /**
+     * @param taskset the taskset command, or a path to it
+     */
+    public TasksetAffinityBinder( final String taskset )
+    {
+        this.taskset = taskset;
+    }
+
+    @Override
+    public boolean isSupported()
+    {
+        return System.getProperty( "os.name", "" ).toLowerCase( Locale.ROOT ).contains( "linux" )
+                && Files.exists( THREAD_SELF ) && onPath();
+    }
+
+    @Override
+    public void bindCurrentThread( final CpuSet cpus )
+            throws IOException
+    {
+        if ( cpus.isEmpty() )
+        {
+            throw new IllegalArgumentException( "Cannot bind a thread to no CPUs" );
+        }
+
+        Process process = new ProcessBuilder( taskset, "-p", "-c", cpus.toString(),
+                                              String.valueOf( nativeThreadId() ) ).redirectErrorStream( true )
+                                                                                 .start();
+        try
+        {
+            String output;
+            try (InputStream in = process.getInputStream())
+            {
+                output = new String( in.readAllBytes(), StandardCharsets.UTF_8 ).trim();
+            }
+
+            if ( !process.waitFor( TIMEOUT_SECONDS, TimeUnit.SECONDS ) )
+            {
+                process.destroyForcibly();
+                throw new IOException( taskset + " timed out binding to CPUs: " + cpus );
+            }
+
+            if ( process.exitValue() != 0 )
+            {
+                throw new IOException( taskset + " failed binding to CPUs: " + cpus + ": " + output );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted binding to CPUs: " + cpus, e );
+        }
+    }
+
+    /**
+     * @return the kernel id of the calling thread, from the {@code <pid>/task/<tid>} link at /proc/thread-self.
+     */
+    static long nativeThreadId()
+            throws IOException
+    {
+        Path link = Files.readSymbolicLink( THREAD_SELF );
+        return Long.parseLong( link.getFileName().toString() );
+    }
+
+    private boolean onPath()
+    {
+        if ( taskset.contains( File.separator ) )
+        {
+            return Files.isExecutable( Paths.get( taskset ) );
+        }
+
+        String path = System.getenv( "PATH" );
+        return path != null && Arrays.stream( path.split( File.pathSeparator ) )
+                                     .anyMatch( dir -> Files.isExecutable( Paths.get( dir, taskset ) ) );
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Global thread budget shared by several pools. Each member pool is guaranteed a minimum number of threads, reserved
+ * for it whether it uses them or not, and may borrow from the unreserved remainder up to its own maximum when it has
+ * more work than threads. Pools start with a single thread and grow one thread at a time as submissions find all
+ * threads busy; a shared timer periodically shrinks idle pools back down and returns borrowed threads to the budget.
+ * This keeps one pool's burst from starving another's guaranteed capacity, without every pool holding its maximum
+ * thread count while idle.
+ * @since 2.3
+ */
+public class ThreadBudget
+{
+    public static final long DEFAULT_SWEEP_MILLIS = 5000;
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final int totalThreads;
+
+    private final Timer timer = new Timer( "weft-thread-budget", true );
+
+    // guarded by this
+    private final List<Member> members = new ArrayList<>();
+
+    // guarded by this; sum over members of max( threads, guaranteed )
+    private int committed;
+
+    // guarded by this
+    private int reserved;
+
+    public ThreadBudget( final int totalThreads )
+    {
+        this( totalThreads, DEFAULT_SWEEP_MILLIS );
+    }
+
+    public ThreadBudget( final int totalThreads, final long sweepMillis )
+    {
+        this.totalThreads = totalThreads;
+        timer.schedule( new Sweeper(), sweepMillis, sweepMillis );
+    }
+
+    /**
+     * Put the executor under this budget. Its core size is dropped to one thread, and its maximum pool size becomes the
+     * most it may ever grow to. If the guarantee cannot be reserved in full, it is reduced to what is left.
+     */
+    public synchronized Member join( final String name, final ThreadPoolExecutor executor, final int guaranteed )
+    {
+        int max = executor.getMaximumPoolSize();
+        int reservable = Math.max( 0, totalThreads - reserved );
+        int granted = Math.min( Math.max( 1, Math.min( guaranteed, max ) ), reservable );
+        if ( granted < guaranteed )
+        {
+            logger.warn( "Thread budget of {} can only guarantee {} of the {} threads requested by pool: {}",
+                         totalThreads, granted, guaranteed, name );
+        }
+
+        Member member = new Member( name, executor, granted, max );
+        members.add( member );
+        reserved += granted;
+        committed += commitment( member, member.threads );
+
+        executor.setCorePoolSize( member.threads );
+        return member;
+    }
+
+    public int getTotalThreads()
+    {
+        return totalThreads;
+    }
+
+    /**
+     * @return threads neither guaranteed to any pool nor currently borrowed.
+     */
+    public synchronized int getAvailable()
+    {
+        return totalThreads - committed;
+    }
+
+    public void close()
+    {
+        timer.cancel();
+    }
+
+    private static int commitment( final Member member, final int threads )
+    {
+        return Math.max( threads, member.guaranteed );
+    }
+
+    private synchronized void grow( final Member member )
+    {
+        if ( member.left || member.threads >= member.max )
+        {
+            return;
+        }
+
+        int extra = commitment( member, member.threads + 1 ) - commitment( member, member.threads );
+        if ( extra > totalThreads - committed )
+        {
+            return;
+        }
+
+        committed += extra;
+        member.threads++;
+        member.executor.setCorePoolSize( member.threads );
+        logger.trace( "Pool: {} grew to {} threads; {} left in budget", member.name, member.threads,
+                      totalThreads - committed );
+    }
+
+    private synchronized void resize( final Member member, final int max )
+    {
+        member.max = max;
+        if ( !member.left && member.threads > max )
+        {
+            committed -= commitment( member, member.threads ) - commitment( member, max );
+            member.threads = max;
+            member.executor.setCorePoolSize( max );
+        }
+    }
+
+    private synchronized void sweep()
+    {
+        for ( Member member : new ArrayList<>( members ) )
+        {
+            ThreadPoolExecutor executor = member.executor;
+            if ( executor.isShutdown() )
+            {
+                members.remove( member );
+                committed -= commitment( member, member.threads );
+                reserved -= member.guaranteed;
+                member.left = true;
+                continue;
+            }
+
+            int target = Math.max( 1, executor.getActiveCount() );
+            if ( member.threads > target && executor.getQueue().isEmpty() )
+            {
+                committed -= commitment( member, member.threads ) - commitment( member, target );
+                member.threads = target;
+                executor.setCorePoolSize( target );
+                logger.trace( "Pool: {} shrank to {} threads; {} left in budget", member.name, target,
+                              totalThreads - committed );
+            }
+        }
+    }
+
+    /**
+     * A pool's share of the budget.
+     */
+    public final class Member
+    {
+        private final String name;
+
+        private final ThreadPoolExecutor executor;
+
+        private final int guaranteed;
+
+        // guarded by the budget
+        private int max;
+
+        // guarded by the budget
+        private int threads = 1;
+
+        private boolean left;
+
+        private Member( final String name, final ThreadPoolExecutor executor, final int guaranteed, final int max )
+        {
+            this.name = name;
+            this.executor = executor;
+            this.guaranteed = guaranteed;
+            this.max = max;
+        }
+
+        /**
+         * Called as a task is submitted; grows the pool by a thread if the current load exceeds its threads.
+         */
+        public void onDemand( final long load )
+        {
+            if ( load > executor.getCorePoolSize() )
+            {
+                grow( this );
+            }
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public int getGuaranteed()
+        {
+            return guaranteed;
+        }
+
+        public int getMax()
+        {
+            synchronized ( ThreadBudget.this )
+            {
+                return max;
+            }
+        }
+
+        /**
+         * Change the most this pool may grow to. If it currently holds more threads, it gives the surplus back to the
+         * budget right away.
+         */
+        public void setMax( final int max )
+        {
+            resize( this, Math.max( 1, max ) );
+        }
+
+        public int getThreads()
+        {
+            synchronized ( ThreadBudget.this )
+            {
+                return threads;
+            }
+        }
+    }
+
+    private final class Sweeper
+            extends TimerTask
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                sweep();
+            }
+            catch ( RuntimeException e )
+            {
+                logger.warn( "Thread budget sweep failed", e );
+            }
+        }
+    }
+}
@@ -21,12 +21,16 @@ import org.slf4j.MDC;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
@@ -40,27 +44,69 @@ import java.util.function.Function;
  * This {@link ThreadContext} keeps a count of the number of threads referencing it, and can run finalization logic
  * when that number hits 0.
  *
+ * By default ({@link Inheritance#SHARED}) parent and child threads all share this one mutable context. In
+ * {@link Inheritance#SNAPSHOT} mode, each child task instead receives its own context, starting from an immutable
+ * snapshot of the parent taken at submission time. The child's writes stay local until it calls {@link #publish()}.
+ *
+ * The current context is stored by a {@link ThreadContextCarrier}: a ScopedValue where available, otherwise a
+ * ThreadLocal.
+ *
  * Created by jdcasey on 1/3/17.
  */
 public class ThreadContext implements Map<String, Object>
 {
-    private static ThreadLocal<ThreadContext> THREAD_LOCAL = new ThreadLocal<>();
+    /**
+     * How a context is handed on to tasks submitted through a {@link PoolWeftExecutorService}.
+     * @since 2.3
+     */
+    public enum Inheritance
+    {
+        /** Children see, and write into, the same context as their parent. */
+        SHARED,
+        /** Children get an O(1) immutable snapshot of the parent, with their writes kept in a local overlay. */
+        SNAPSHOT
+    }
+
+    private static final ThreadContextCarrier CARRIER = ThreadContextCarrier.select();
 
-    private final Map<String, Object> contextMap = new ConcurrentHashMap<>();
+    private static volatile Executor finalizerExecutor;
+
+    private final Map<String, Object> contextMap;
+
+    private final Inheritance inheritance;
+
+    private final ThreadContext parent;
 
     private Map<String, String> mdcMap; // mapped diagnostic context
 
-    private int refs = 1;
+    private final AtomicInteger refs;
 
     private List<Consumer<ThreadContext>> finalizers = new ArrayList<>();
 
+    private final Map<Consumer<ThreadContext>, Boolean> registeredFinalizers = new IdentityHashMap<>();
+
+    private final Map<String, Set<Object>> pins = new ConcurrentHashMap<>();
+
+    private volatile CancellationToken cancellationToken;
+
+    private volatile Deadline deadline;
+
     public static ThreadContext getContext( boolean create )
     {
-        ThreadContext threadContext = THREAD_LOCAL.get();
+        return getContext( create, Inheritance.SHARED );
+    }
+
+    /**
+     * @since 2.3
+     * @param inheritance How a newly-created context is handed on to child tasks. Ignored if a context already exists.
+     */
+    public static ThreadContext getContext( boolean create, Inheritance inheritance )
+    {
+        ThreadContext threadContext = CARRIER.get();
         if ( threadContext == null && create )
         {
-            threadContext = new ThreadContext();
-            THREAD_LOCAL.set( threadContext );
+            threadContext = new ThreadContext( inheritance );
+            CARRIER.set( threadContext );
         }
 
         if ( threadContext != null )
@@ -71,6 +117,15 @@ public class ThreadContext implements Map<String, Object>
         return threadContext;
     }
 
+    /**
+     * @return the context bound to the current thread, or null, without capturing the MDC into it as
+     * {@link #getContext(boolean)} does; for cheap, read-only lookups that may be made on every task or poll.
+     */
+    static ThreadContext current()
+    {
+        return CARRIER.get();
+    }
+
     public static ThreadContext setContext( ThreadContext ctx )
     {
         ThreadContext oldCtx = swapContext( ctx );
@@ -83,28 +138,139 @@ public class ThreadContext implements Map<String, Object>
 
     private static ThreadContext swapContext( final ThreadContext ctx )
     {
-        ThreadContext oldCtx = THREAD_LOCAL.get();
-        if ( oldCtx != null )
+        ThreadContext oldCtx = CARRIER.get();
+        if ( oldCtx == ctx )
         {
-            Logger logger = LoggerFactory.getLogger( ThreadContext.class );
-            oldCtx.refs--;
-            logger.trace( "context refs: {}", oldCtx.refs );
-            oldCtx.runFinalizersIfDone();
+            return oldCtx;
         }
 
+        CARRIER.set( ctx );
         if ( ctx != null )
         {
-            THREAD_LOCAL.set( ctx );
-            ctx.refs++;
+            ctx.retain();
         }
-        else
+
+        if ( oldCtx != null )
         {
-            THREAD_LOCAL.remove();
+            oldCtx.release();
         }
 
         return oldCtx;
     }
 
+    /**
+     * Bind the given context to the current thread only while the runnable executes, as {@link PoolWeftExecutorService}
+     * does for each task. The context counts as referenced for the duration, and its MDC is applied. Unlike
+     * {@link #setContext(ThreadContext)}, the context previously bound to the thread is not released, and with the
+     * ScopedValue carrier no thread-local state is written at all. If the runnable clears or replaces the context
+     * itself, the reference is released then, and not again when the runnable returns.
+     * @since 2.3
+     * @param ctx The context to bind, which may be null
+     */
+    public static void runWith( ThreadContext ctx, Runnable runnable )
+    {
+        if ( ctx == null )
+        {
+            CARRIER.runWith( null, runnable );
+            return;
+        }
+
+        ThreadContext previous = CARRIER.get();
+        ctx.retain();
+        if ( ctx.mdcMap != null )
+        {
+            MDC.setContextMap( ctx.mdcMap );
+        }
+
+        // the task may clear or replace the binding itself, which releases ctx; whatever is bound when it ends is what
+        // this binding still holds a reference to.
+        ThreadContext[] bound = { ctx };
+        try
+        {
+            CARRIER.runWith( ctx, () -> {
+                try
+                {
+                    runnable.run();
+                }
+                finally
+                {
+                    bound[0] = CARRIER.get();
+                }
+            } );
+        }
+        finally
+        {
+            if ( previous != null && previous.mdcMap != null )
+            {
+                MDC.setContextMap( previous.mdcMap );
+            }
+
+            if ( bound[0] != null )
+            {
+                bound[0].release();
+            }
+        }
+    }
+
+    /**
+     * Callable variant of {@link #runWith(ThreadContext, Runnable)}.
+     * @since 2.3
+     */
+    public static <T> T callWith( ThreadContext ctx, Callable<T> callable )
+            throws Exception
+    {
+        AtomicReference<T> result = new AtomicReference<>();
+        Exception[] error = new Exception[1];
+        runWith( ctx, () -> {
+            try
+            {
+                result.set( callable.call() );
+            }
+            catch ( Exception e )
+            {
+                error[0] = e;
+            }
+        } );
+
+        if ( error[0] != null )
+        {
+            throw error[0];
+        }
+
+        return result.get();
+    }
+
+    /**
+     * @since 2.3
+     * @return the name of the {@link ThreadContextCarrier} in use, eg. "threadlocal" or "scoped".
+     */
+    public static String getCarrierName()
+    {
+        return CARRIER.getName();
+    }
+
+    /**
+     * Run context finalizers on the given executor instead of inline, on whichever thread happens to drop the last
+     * reference to a context. {@link WeftPoolBoy} sets this up when {@link
+     * org.commonjava.cdi.util.weft.config.WeftConfig#isAsyncContextFinalizers()} is enabled. If the executor rejects
+     * the work, finalizers fall back to running inline.
+     * @since 2.3
+     * @param executor The executor to use, or null to run finalizers inline
+     */
+    public static void setFinalizerExecutor( Executor executor )
+    {
+        finalizerExecutor = executor;
+    }
+
+    /**
+     * @since 2.3
+     * @return the executor used to run context finalizers, or null if they run inline.
+     */
+    public static Executor getFinalizerExecutor()
+    {
+        return finalizerExecutor;
+    }
+
     /**
      * Provide some finalizer logic to handle the scenario where the number of "live" threads referencing this context
      * drops to 0. Before this happens, any contextual information in this ThreadContext may be needed by running threads,
@@ -115,7 +281,7 @@ public class ThreadContext implements Map<String, Object>
      */
     public synchronized void registerFinalizer( Consumer<ThreadContext> finalizer )
     {
-        if ( !this.finalizers.contains( finalizer ) )
+        if ( registeredFinalizers.put( finalizer, Boolean.TRUE ) == null )
         {
             Logger logger = LoggerFactory.getLogger( getClass() );
             logger.debug( "Registering finalizer: {} on ThreadContext: {}", finalizer, this );
@@ -124,31 +290,282 @@ public class ThreadContext implements Map<String, Object>
     }
 
     /**
-     * If the thread reference count on this context drops to zero, run any finalization logic that might be registered.
+     * @since 2.3
+     * @return the number of threads currently referencing this context.
      */
-    private synchronized void runFinalizersIfDone()
+    public int getReferenceCount()
     {
+        return refs.get();
+    }
+
+    /**
+     * Add one thread reference. A snapshot child that becomes referenced holds a reference on its parent until it is
+     * finalized, so the parent's finalizers and pins outlive every running child.
+     */
+    private void retain()
+    {
+        if ( refs.getAndIncrement() == 0 && parent != null )
+        {
+            parent.retain();
+        }
+    }
+
+    /**
+     * Drop one thread reference. If that was the last one, run any finalization logic that might be registered, then
+     * release the parent of a snapshot child.
+     */
+    private void release()
+    {
+        int remaining = refs.decrementAndGet();
         Logger logger = LoggerFactory.getLogger( getClass() );
-        if ( refs < 1 && finalizers != null )
+        logger.trace( "context refs: {}", remaining );
+        if ( remaining != 0 )
+        {
+            return;
+        }
+
+        Executor executor = finalizerExecutor;
+        if ( executor != null )
         {
-            logger.debug( "Running finalizers for ThreadContext: {}", this );
-            finalizers.forEach( c->{
-                if ( c != null )
+            // don't let the finalizer task inherit (and re-reference) the context being finalized.
+            boolean[] submitted = { false };
+            CARRIER.runWith( null, () -> {
+                try
+                {
+                    executor.execute( this::runFinalizers );
+                    submitted[0] = true;
+                }
+                catch ( RuntimeException e )
                 {
-                    logger.debug( "Running finalizer: {} for ThreadContext: {}", c, this );
-
-                    try
-                    {
-                        c.accept( this );
-                    }
-                    catch ( Throwable t )
-                    {
-                        logger.error( "Caught error while running finalizer: " + c + " on ThreadContext: " + this, t );
-                    }
-
-                    logger.trace( "Finalizer: {} done for ThreadContext: {}", c, this );
+                    logger.warn( "Cannot run finalizers asynchronously for ThreadContext: {}. Running them inline. Reason: {}",
+                                 this, e.getMessage() );
                 }
             } );
+
+            if ( submitted[0] )
+            {
+                return;
+            }
+        }
+
+        runFinalizers();
+    }
+
+    private void runFinalizers()
+    {
+        Logger logger = LoggerFactory.getLogger( getClass() );
+
+        List<Consumer<ThreadContext>> toRun;
+        synchronized ( this )
+        {
+            toRun = new ArrayList<>( finalizers );
+        }
+
+        logger.debug( "Running finalizers for ThreadContext: {}", this );
+        toRun.forEach( c->{
+            if ( c != null )
+            {
+                logger.debug( "Running finalizer: {} for ThreadContext: {}", c, this );
+
+                try
+                {
+                    c.accept( this );
+                }
+                catch ( Throwable t )
+                {
+                    logger.error( "Caught error while running finalizer: " + c + " on ThreadContext: " + this, t );
+                }
+
+                logger.trace( "Finalizer: {} done for ThreadContext: {}", c, this );
+            }
+        } );
+
+        pins.clear();
+
+        if ( parent != null )
+        {
+            parent.release();
+        }
+    }
+
+    /**
+     * Keep a strong reference to the given value until this context is finalized (see
+     * {@link #registerFinalizer(Consumer)}). This is how {@link ContextSensitiveWeakHashMap} keeps its keys from being
+     * GC-ed while any thread using this context may still need them.
+     *
+     * Pinning is O(1): each scope gets its own concurrent set the first time it pins something, and no finalizer
+     * registration is involved.
+     * @since 2.3
+     * @param scope Identifies the owner of the pinned values, so they can be listed or released as a group. Typically
+     * a UUID unique to the owner.
+     * @param value The value to keep reachable
+     */
+    public void pin( String scope, Object value )
+    {
+        if ( parent != null )
+        {
+            parent.pin( scope, value );
+            return;
+        }
+
+        Set<Object> scoped = pins.get( scope );
+        if ( scoped == null )
+        {
+            scoped = pins.computeIfAbsent( scope, s -> ConcurrentHashMap.newKeySet() );
+        }
+
+        scoped.add( value );
+    }
+
+    /**
+     * @since 2.3
+     * @return read-only view of the values pinned under the given scope, which may be empty.
+     */
+    public Set<Object> getPinned( String scope )
+    {
+        if ( parent != null )
+        {
+            return parent.getPinned( scope );
+        }
+
+        Set<Object> scoped = pins.get( scope );
+        return scoped == null ? Collections.emptySet() : Collections.unmodifiableSet( scoped );
+    }
+
+    /**
+     * Release all values pinned under the given scope ahead of context finalization.
+     * @since 2.3
+     */
+    public void unpin( String scope )
+    {
+        if ( parent != null )
+        {
+            parent.unpin( scope );
+            return;
+        }
+
+        pins.remove( scope );
+    }
+
+    /**
+     * @since 2.3
+     * @return the cancellation token for the work running in this context, or null.
+     */
+    public CancellationToken getCancellationToken()
+    {
+        return cancellationToken;
+    }
+
+    /**
+     * Attach a cancellation token. It is kept separately from the context entries, so it is neither copied back to the
+     * parent by {@link #publish()} nor visible through the {@link Map} view; snapshot children start with their
+     * parent's token.
+     * @since 2.3
+     */
+    public void setCancellationToken( CancellationToken cancellationToken )
+    {
+        this.cancellationToken = cancellationToken;
+    }
+
+    /**
+     * @since 2.3
+     * @return true if this context carries a token that has been cancelled.
+     */
+    public boolean isCancelled()
+    {
+        CancellationToken token = cancellationToken;
+        return token != null && token.isCancelled();
+    }
+
+    /**
+     * @since 2.3
+     * @return the deadline for the work running in this context, or null.
+     */
+    public Deadline getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Set a deadline that tasks submitted from this context inherit. Like the cancellation token, it is kept outside the
+     * context entries, and snapshot children start with their parent's deadline.
+     * @since 2.3
+     */
+    public void setDeadline( Deadline deadline )
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @since 2.3
+     */
+    public Inheritance getInheritance()
+    {
+        return inheritance;
+    }
+
+    /**
+     * @since 2.3
+     * @return the context this one was snapshotted from, or null if this is not a snapshot child.
+     */
+    public ThreadContext getParent()
+    {
+        return parent;
+    }
+
+    /**
+     * Return the context a child task should run with: this same context in {@link Inheritance#SHARED} mode, or a new
+     * {@link #snapshot()} in {@link Inheritance#SNAPSHOT} mode.
+     * @since 2.3
+     */
+    public ThreadContext inheritForChild()
+    {
+        return inheritance == Inheritance.SNAPSHOT ? snapshot() : this;
+    }
+
+    /**
+     * Create a child context that starts from the current state of this one. Reads fall through to the captured
+     * state, while writes stay local to the child until {@link #publish()} is called. Values pinned via
+     * {@link #pin(String, Object)} are held by the parent. While a task runs with the child, the child holds a
+     * reference on the parent, so the parent is not finalized before the task is done.
+     *
+     * Capture is O(1) for contexts created in {@link Inheritance#SNAPSHOT} mode; otherwise the current entries have to
+     * be copied.
+     * @since 2.3
+     */
+    public ThreadContext snapshot()
+    {
+        PersistentContextMap base = contextMap instanceof SnapshotContextMap ?
+                ( (SnapshotContextMap) contextMap ).snapshot() :
+                PersistentContextMap.copyOf( contextMap );
+
+        return new ThreadContext( this, base );
+    }
+
+    /**
+     * Copy the entries written (or removed) in this snapshot child back to the parent context. Only the keys changed
+     * locally since the last publish are copied, so unrelated writes made by the parent in the meantime are kept. This
+     * does nothing for contexts that are not snapshot children.
+     * @since 2.3
+     */
+    public void publish()
+    {
+        if ( parent == null )
+        {
+            return;
+        }
+
+        for ( String key : ( (SnapshotContextMap) contextMap ).drainWrittenKeys() )
+        {
+            Object value = contextMap.get( key );
+            if ( value == null )
+            {
+                parent.remove( key );
+            }
+            else
+            {
+                parent.put( key, value );
+            }
         }
     }
 
@@ -158,7 +575,29 @@ public class ThreadContext implements Map<String, Object>
         MDC.clear();
     }
 
-    private ThreadContext(){}
+    private ThreadContext( Inheritance inheritance )
+    {
+        this.inheritance = inheritance == null ? Inheritance.SHARED : inheritance;
+        this.contextMap = this.inheritance == Inheritance.SNAPSHOT ?
+                new SnapshotContextMap( PersistentContextMap.EMPTY ) :
+                new ConcurrentHashMap<>();
+        this.parent = null;
+        this.refs = new AtomicInteger( 1 );
+    }
+
+    private ThreadContext( ThreadContext parent, PersistentContextMap base )
+    {
+        this.inheritance = Inheritance.SNAPSHOT;
+        this.contextMap = new SnapshotContextMap( base );
+        this.parent = parent;
+        this.mdcMap = parent.mdcMap;
+        this.cancellationToken = parent.cancellationToken;
+        this.deadline = parent.deadline;
+
+        // nobody holds a snapshot child until a task binds it, so its finalizers run, and it lets go of the parent,
+        // when that task is done.
+        this.refs = new AtomicInteger( 0 );
+    }
 
     public int size()
     {
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the {@link ThreadContext} of the current thread. {@link ThreadContext} selects an implementation once, at
+ * class initialization, using the system property {@link #CARRIER_PROPERTY}:
+ * <ul>
+ *     <li><b>auto</b> (default): {@link ScopedValueContextCarrier} when running on a JDK where
+ *     {@code java.lang.ScopedValue} is final (25+), otherwise {@link ThreadLocalContextCarrier}</li>
+ *     <li><b>scoped</b>: {@link ScopedValueContextCarrier} whenever {@code java.lang.ScopedValue} is usable, including
+ *     JDKs where it is still a preview API</li>
+ *     <li><b>threadlocal</b>: always {@link ThreadLocalContextCarrier}</li>
+ * </ul>
+ *
+ * Carriers only store the context; reference counting and MDC handling stay in {@link ThreadContext}.
+ * @since 2.3
+ */
+public interface ThreadContextCarrier
+{
+    String CARRIER_PROPERTY = "weft.context.carrier";
+
+    String getName();
+
+    /**
+     * @return the context bound to the current thread, or null.
+     */
+    ThreadContext get();
+
+    /**
+     * Bind the given context to the current thread until it is replaced. Null clears the binding.
+     */
+    void set( ThreadContext ctx );
+
+    /**
+     * Bind the given context (which may be null) to the current thread only while the runnable executes, restoring the
+     * previous binding afterward.
+     */
+    void runWith( ThreadContext ctx, Runnable runnable );
+
+    static ThreadContextCarrier select()
+    {
+        Logger logger = LoggerFactory.getLogger( ThreadContextCarrier.class );
+
+        String mode = System.getProperty( CARRIER_PROPERTY, "auto" ).trim().toLowerCase();
+        if ( "threadlocal".equals( mode ) )
+        {
+            return new ThreadLocalContextCarrier();
+        }
+
+        boolean wanted = "scoped".equals( mode ) || Runtime.version().feature() >= 25;
+        if ( wanted )
+        {
+            try
+            {
+                return new ScopedValueContextCarrier();
+            }
+            catch ( ReflectiveOperationException | RuntimeException | LinkageError e )
+            {
+                logger.debug( "ScopedValue is not usable ({}). Falling back to ThreadLocal context carrier.",
+                              e.toString() );
+            }
+        }
+
+        return new ThreadLocalContextCarrier();
+    }
+}
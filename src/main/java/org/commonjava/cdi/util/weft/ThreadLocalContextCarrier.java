@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+/**
+ * Classic {@link ThreadLocal} storage for {@link ThreadContext}, usable on any JDK.
+ * @since 2.3
+ */
+final class ThreadLocalContextCarrier
+        implements ThreadContextCarrier
+{
+    private final ThreadLocal<ThreadContext> threadLocal = new ThreadLocal<>();
+
+    @Override
+    public String getName()
+    {
+        return "threadlocal";
+    }
+
+    @Override
+    public ThreadContext get()
+    {
+        return threadLocal.get();
+    }
+
+    @Override
+    public void set( ThreadContext ctx )
+    {
+        if ( ctx == null )
+        {
+            threadLocal.remove();
+        }
+        else
+        {
+            threadLocal.set( ctx );
+        }
+    }
+
+    @Override
+    public void runWith( ThreadContext ctx, Runnable runnable )
+    {
+        ThreadContext old = threadLocal.get();
+        set( ctx );
+        try
+        {
+            runnable.run();
+        }
+        finally
+        {
+            set( old );
+        }
+    }
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+/**
+ * CDI hook run once on each new worker thread of a pool with warm-up enabled (see
+ * {@link org.commonjava.cdi.util.weft.config.WeftConfig#isWarmUp(String)}), before the thread takes its first task.
+ * Use it to initialize thread-local caches, or to load and exercise classes the pool's tasks will need.
+ * @since 2.3
+ */
+public interface ThreadWarmUp
+{
+    void warmUp( String poolName );
+}
@@ -15,8 +15,12 @@
  */
 package org.commonjava.cdi.util.weft;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 public interface WeftExecutorService
         extends ExecutorService
@@ -38,4 +42,69 @@ public interface WeftExecutorService
     int getActiveCount();
 
     long getTaskCount();
+
+    /**
+     * Submit a task that should be dropped, rather than run, if it is still queued when the deadline passes. The
+     * deadline is combined with any deadline on the submitter's {@link ThreadContext}; the earlier one applies.
+     * Executors that never queue work run the task as a plain {@link #submit(Callable)}.
+     * @since 2.3
+     */
+    default <T> Future<T> submit( Callable<T> callable, Deadline deadline )
+    {
+        return submit( callable );
+    }
+
+    /**
+     * @see #submit(Callable, Deadline)
+     * @since 2.3
+     */
+    default Future<?> submit( Runnable runnable, Deadline deadline )
+    {
+        return submit( runnable );
+    }
+
+    /**
+     * @see #submit(Callable, Deadline)
+     * @since 2.3
+     */
+    default void execute( Runnable runnable, Deadline deadline )
+    {
+        execute( runnable );
+    }
+
+    /**
+     * @since 2.3
+     * @return the number of tasks dropped because their deadline passed before they could start.
+     */
+    default long getExpiredTaskCount()
+    {
+        return 0;
+    }
+
+    /**
+     * @since 2.3
+     * @return the tasks running right now, longest-running first.
+     */
+    default List<TaskInfo> getRunningTasks()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @since 2.3
+     * @return the tasks waiting for a thread, oldest first.
+     */
+    default List<TaskInfo> getQueuedTasks()
+    {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @since 2.3
+     * @return the running tasks flagged as stuck, with their stack traces.
+     */
+    default List<TaskInfo> getStuckTasks()
+    {
+        return getRunningTasks().stream().filter( TaskInfo::isStuck ).collect( Collectors.toList() );
+    }
 }
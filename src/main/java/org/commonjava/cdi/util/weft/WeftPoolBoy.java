@@ -16,22 +16,32 @@
 package org.commonjava.cdi.util.weft;
 
 import org.commonjava.cdi.util.weft.config.WeftConfig;
+import org.commonjava.cdi.util.weft.config.WeftConfigListener;
+import org.commonjava.cdi.util.weft.load.ConcurrencyLimit;
+import org.commonjava.cdi.util.weft.load.LoadSheddingPolicy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.inject.Instance;
 import jakarta.inject.Inject;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static org.commonjava.cdi.util.weft.config.DefaultWeftConfig.DEFAULT_MAX_LOAD_FACTOR;
 import static org.commonjava.cdi.util.weft.config.DefaultWeftConfig.DEFAULT_PRIORITY;
@@ -46,17 +56,55 @@ public class WeftPoolBoy
 
     private static final String DUMMY_NAME = "weft-anonymous";
 
+    /**
+     * Pool used to run {@link ThreadContext} finalizers when {@link WeftConfig#isAsyncContextFinalizers()} is enabled.
+     */
+    public static final String CONTEXT_FINALIZER_POOL = "weft-context-finalizers";
+
+    private static final int CONTEXT_FINALIZER_THREADS = 2;
+
+    private static final int WARM_UP_ROUNDS = 1000;
+
+    private static final long WARM_UP_TIMEOUT_SECONDS = 10;
+
+    private static final long SHUTDOWN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
     @Inject
     private WeftConfig config;
 
+    private ThreadBudget threadBudget;
+
+    private TaskWatchdog taskWatchdog;
+
+    private final WeftConfigListener configListener = this::configChanged;
+
     @Inject
     private Instance<ThreadContextualizer> contextualizers;
 
+    @Inject
+    private Instance<ThreadWarmUp> warmUps;
+
+    @Inject
+    private Instance<CpuAffinityBinder> affinityBinders;
+
     protected WeftPoolBoy(){}
 
     public WeftPoolBoy( WeftConfig config )
     {
         this.config = config;
+        start();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if ( config.isAsyncContextFinalizers() )
+        {
+            logger.info( "Running ThreadContext finalizers on pool: {}", CONTEXT_FINALIZER_POOL );
+            ThreadContext.setFinalizerExecutor( getPool( CONTEXT_FINALIZER_POOL, CONTEXT_FINALIZER_THREADS, false ) );
+        }
+
+        config.addChangeListener( configListener );
     }
 
     public WeftExecutorService getPool( final String key )
@@ -69,40 +117,261 @@ public class WeftPoolBoy
         return pools.put( pool.getName(), pool );
     }
 
+    /**
+     * Apply the current {@link WeftConfig} settings for thread count, max load factor, load sensitivity, enablement,
+     * stuck-task threshold, max task run time, keep-alive and resource accounting to a running pool, without dropping
+     * its queued tasks. Called automatically when the config reports a change. Pools that were created disabled run
+     * everything inline and cannot be enabled this way.
+     * @since 2.3
+     */
+    public synchronized void reconfigure( final String name )
+    {
+        WeftExecutorService service = pools.get( name );
+        if ( !( service instanceof PoolWeftExecutorService ) )
+        {
+            if ( service != null && config.isEnabled() && config.isEnabled( name ) )
+            {
+                logger.warn( "Pool: {} was created disabled, and cannot be enabled without a restart", name );
+            }
+            return;
+        }
+
+        PoolWeftExecutorService pool = (PoolWeftExecutorService) service;
+        pool.reconfigure( config.getThreads( name, pool.getThreadCount() ),
+                          config.getMaxLoadFactor( name, pool.getMaxLoadFactor() ),
+                          config.isLoadSensitive( name, pool.isLoadSensitive() ),
+                          config.isEnabled() && config.isEnabled( name ) );
+        pool.setStuckTaskThreshold( config.getStuckTaskThreshold( name ), TimeUnit.MILLISECONDS );
+        watch( pool, name );
+
+        if ( config.getKeepAlive( name ) > 0 || pool.getMinWarmThreads() >= 0 )
+        {
+            pool.setKeepAlive( config.getKeepAlive( name ), TimeUnit.MILLISECONDS, config.getMinWarmThreads( name ) );
+        }
+
+        if ( !config.isResourceAccounting( name ) )
+        {
+            pool.setResourceAccounting( null );
+        }
+        else if ( pool.getResourceAccounting() == null || !Objects.equals( config.getResourceAccountingTag( name ),
+                                                                           pool.getResourceAccounting().getTagKey() ) )
+        {
+            pool.setResourceAccounting( new ResourceAccounting( config.getResourceAccountingTag( name ) ) );
+        }
+    }
+
+    /**
+     * Bind the pool's threads to its configured CPUs, or keep them off the reserved CPUs if it has none.
+     */
+    private void bindCpus( final NamedThreadFactory fac, final String name )
+    {
+        CpuSet cpus = CpuSet.parse( config.getCpuAffinity( name ) );
+        if ( cpus.isEmpty() )
+        {
+            CpuSet reserved = CpuSet.parse( config.getReservedCpus() );
+            if ( reserved.isEmpty() )
+            {
+                return;
+            }
+
+            cpus = CpuSet.online().minus( reserved );
+            if ( cpus.isEmpty() )
+            {
+                logger.warn( "All CPUs are reserved; not restricting pool: {}", name );
+                return;
+            }
+        }
+
+        CpuAffinityBinder binder = affinityBinders == null || affinityBinders.isUnsatisfied() ?
+                new TasksetAffinityBinder() :
+                affinityBinders.get();
+        if ( !binder.isSupported() )
+        {
+            logger.warn( "CPU binding is not supported here by: {}; not binding pool: {} to CPUs: {}", binder, name,
+                         cpus );
+            return;
+        }
+
+        logger.info( "Binding threads of pool: {} to CPUs: {}", name, cpus );
+        fac.setAffinity( cpus, binder );
+    }
+
+    private void watch( final PoolWeftExecutorService pool, final String name )
+    {
+        long maxRunTime = config.getMaxTaskRunTime( name );
+        if ( maxRunTime > 0 )
+        {
+            if ( taskWatchdog == null )
+            {
+                taskWatchdog = new TaskWatchdog();
+            }
+            taskWatchdog.watch( pool, maxRunTime, TimeUnit.MILLISECONDS,
+                                TaskWatchdog.Action.forName( config.getMaxTaskRunTimeAction( name ) ) );
+        }
+        else if ( taskWatchdog != null )
+        {
+            taskWatchdog.unwatch( pool );
+        }
+    }
+
+    /**
+     * @since 2.3
+     * @return the watchdog for pools with {@link WeftConfig#getMaxTaskRunTime(String)} set, or null if there are none.
+     */
+    public TaskWatchdog getTaskWatchdog()
+    {
+        return taskWatchdog;
+    }
+
+    private void configChanged( final String poolName )
+    {
+        if ( poolName == null )
+        {
+            pools.keySet().forEach( this::reconfigure );
+        }
+        else
+        {
+            reconfigure( poolName );
+        }
+    }
+
+    /**
+     * Shut every pool down within {@link WeftConfig#getShutdownTimeout()}.
+     * @see #shutdown(long, TimeUnit)
+     */
     @PreDestroy
     public void shutdown()
     {
-        for ( final Map.Entry<String, WeftExecutorService> entry : pools.entrySet() )
+        shutdown( config.getShutdownTimeout(), TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Shut down all pools in phases, within one overall deadline. A pool keeps taking work until every pool listing it
+     * in {@link WeftConfig#getShutdownDependencies(String)} has drained; all other pools stop taking work at once and
+     * drain in parallel. Pools still busy at the deadline are forced down, and the tasks that were dropped or
+     * interrupted are logged and returned in the report.
+     * @since 2.3
+     */
+    public ShutdownReport shutdown( final long timeout, final TimeUnit unit )
+    {
+        config.removeChangeListener( configListener );
+
+        WeftExecutorService finalizerPool = pools.get( CONTEXT_FINALIZER_POOL );
+        if ( finalizerPool != null && ThreadContext.getFinalizerExecutor() == finalizerPool )
         {
-            final ExecutorService service = entry.getValue();
+            ThreadContext.setFinalizerExecutor( null );
+        }
 
-            service.shutdown();
-            try
+        if ( threadBudget != null )
+        {
+            threadBudget.close();
+        }
+
+        if ( taskWatchdog != null )
+        {
+            taskWatchdog.close();
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + unit.toNanos( timeout );
+        List<String> drained = new ArrayList<>();
+        boolean interrupted = false;
+
+        Map<String, Set<String>> dependencies = new HashMap<>();
+        pools.keySet().forEach( name -> dependencies.put( name, config.getShutdownDependencies( name ) ) );
+
+        Set<String> accepting = new HashSet<>( dependencies.keySet() );
+        Set<String> draining = new LinkedHashSet<>();
+        while ( !accepting.isEmpty() || !draining.isEmpty() )
+        {
+            // stop intake on every pool that no live pool still submits to.
+            Set<String> stoppable = new HashSet<>();
+            for ( String name : accepting )
             {
-                service.awaitTermination( 1000, TimeUnit.MILLISECONDS );
+                if ( Stream.concat( accepting.stream(), draining.stream() )
+                           .noneMatch( other -> !other.equals( name ) && dependencies.get( other )
+                                                                                     .contains( name ) ) )
+                {
+                    stoppable.add( name );
+                }
+            }
 
-                if ( !service.isTerminated() )
+            if ( stoppable.isEmpty() && draining.isEmpty() )
+            {
+                logger.warn( "Shutdown dependencies between pools: {} form a cycle; shutting them down together",
+                             accepting );
+                stoppable.addAll( accepting );
+            }
+
+            stoppable.forEach( name -> pools.get( name ).shutdown() );
+            accepting.removeAll( stoppable );
+            draining.addAll( stoppable );
+
+            draining.removeIf( name -> {
+                boolean done = pools.get( name ).isTerminated();
+                if ( done )
                 {
-                    final List<Runnable> running = service.shutdownNow();
-                    if ( !running.isEmpty() )
-                    {
-                        logger.warn( "{} tasks remain for executor: {}", running.size(), entry.getKey() );
-                    }
+                    drained.add( name );
                 }
+                return done;
+            } );
+
+            long remaining = deadline - System.nanoTime();
+            if ( draining.isEmpty() )
+            {
+                continue;
+            }
+            else if ( remaining <= 0 )
+            {
+                break;
+            }
+
+            try
+            {
+                pools.get( draining.iterator().next() )
+                     .awaitTermination( Math.min( remaining, SHUTDOWN_POLL_NANOS ), TimeUnit.NANOSECONDS );
             }
             catch ( final InterruptedException e )
             {
-                Thread.currentThread()
-                      .interrupt();
-                return;
+                // stop waiting, but still force the remaining pools down below.
+                interrupted = true;
+                break;
+            }
+        }
+
+        ShutdownReport report =
+                new ShutdownReport( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), drained );
+        pools.forEach( ( name, pool ) -> {
+            if ( !pool.isTerminated() )
+            {
+                List<TaskInfo> queued = pool.getQueuedTasks();
+                List<TaskInfo> running = pool.getRunningTasks();
+                List<Runnable> dropped = pool.shutdownNow();
+                report.forced( name, dropped.size(), queued, running );
             }
+        } );
+
+        if ( report.isClean() )
+        {
+            logger.info( "All {} pools drained in {}ms", drained.size(), report.getElapsedMillis() );
+        }
+        else
+        {
+            logger.warn( "Pools did not drain within {}ms. {}", unit.toMillis( timeout ), report );
         }
+
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        return report;
     }
 
     /**
      * Get pool programmatically. This is simplified version for {@link WeftPoolBoy#getPool(String, int, int, float, boolean, boolean, boolean)}
      */
-    public synchronized WeftExecutorService getPool( final String name, int threadCount, final boolean scheduled )
+    public WeftExecutorService getPool( final String name, int threadCount, final boolean scheduled )
     {
         if ( threadCount <= 0 )
         {
@@ -114,7 +383,7 @@ public class WeftPoolBoy
     /**
      * This method is used when using cdi @Inject.
      */
-    public synchronized WeftExecutorService getPool( final ExecutorConfig ec, final boolean scheduled )
+    public WeftExecutorService getPool( final ExecutorConfig ec, final boolean scheduled )
     {
         if ( ec != null )
         {
@@ -145,10 +414,26 @@ public class WeftPoolBoy
 
     /**
      * Get pool programmatically. The parameters can be overridden via configuration file. If no config, this will create thread pool as is.
+     * A new pool with {@link WeftConfig#isWarmUp(String)} on is warmed up by the calling thread before it is returned,
+     * without holding up other callers.
      */
-    public synchronized WeftExecutorService getPool( String name, int threadCount, int priority, float maxLoadFactor,
+    public WeftExecutorService getPool( String name, int threadCount, int priority, float maxLoadFactor,
                                         boolean loadSensitive, boolean daemon, final boolean scheduled )
     {
+        List<PoolWeftExecutorService> toWarm = new ArrayList<>( 1 );
+        WeftExecutorService service =
+                getOrCreatePool( name, threadCount, priority, maxLoadFactor, loadSensitive, daemon, scheduled, toWarm );
+
+        toWarm.forEach( pool -> pool.warmUp( WARM_UP_ROUNDS, WARM_UP_TIMEOUT_SECONDS, TimeUnit.SECONDS ) );
+
+        return service;
+    }
+
+    private synchronized WeftExecutorService getOrCreatePool( String name, int threadCount, int priority,
+                                                              float maxLoadFactor, boolean loadSensitive,
+                                                              boolean daemon, final boolean scheduled,
+                                                              final List<PoolWeftExecutorService> toWarm )
+    {
 
         final String key = name + ( scheduled ? ":scheduled" : "" );
         WeftExecutorService service = getPool( key );
@@ -176,6 +461,14 @@ public class WeftPoolBoy
 
             ThreadGroup threadGroup = new ThreadGroup( name );
             final NamedThreadFactory fac = new NamedThreadFactory( name, threadGroup, daemon, priority );
+            bindCpus( fac, name );
+
+            final boolean warmUp = config.isWarmUp( name );
+            if ( warmUp && warmUps != null && !warmUps.isUnsatisfied() )
+            {
+                final String poolName = name;
+                fac.setWarmUp( () -> warmUps.forEach( w -> w.warmUp( poolName ) ) );
+            }
 
             if ( scheduled )
             {
@@ -186,6 +479,10 @@ public class WeftPoolBoy
                 }
                 svc = (ThreadPoolExecutor) Executors.newScheduledThreadPool( threadCount, fac );
             }
+            else if ( threadCount > 0 && config.isDeadlineOrdered( name ) )
+            {
+                svc = new DeadlineOrderedThreadPoolExecutor( threadCount, fac );
+            }
             else if ( threadCount > 0 )
             {
                 svc = (ThreadPoolExecutor) Executors.newFixedThreadPool( threadCount, fac );
@@ -195,8 +492,54 @@ public class WeftPoolBoy
                 svc = (ThreadPoolExecutor) Executors.newCachedThreadPool( fac );
             }
 
-            service = new PoolWeftExecutorService( name, svc, threadCount, maxLoadFactor, loadSensitive,
-                                                   contextualizers );
+            PoolWeftExecutorService pool = new PoolWeftExecutorService( name, svc, threadCount, maxLoadFactor,
+                                                                        loadSensitive, contextualizers );
+
+            String policy = config.getLoadSheddingPolicy( name );
+            if ( policy != null )
+            {
+                pool.setLoadSheddingPolicy( LoadSheddingPolicy.forName( policy ) );
+            }
+
+            String limit = config.getConcurrencyLimit( name );
+            if ( limit != null )
+            {
+                // start at one task per thread, and never allow more than the static load factor would.
+                int threads = Math.max( 1, threadCount );
+                int maxLimit = (int) Math.max( threads, threads * maxLoadFactor );
+                pool.setConcurrencyLimit( ConcurrencyLimit.forName( limit, threads, maxLimit ) );
+            }
+
+            pool.setStuckTaskThreshold( config.getStuckTaskThreshold( name ), TimeUnit.MILLISECONDS );
+            watch( pool, name );
+
+            if ( config.isResourceAccounting( name ) )
+            {
+                pool.setResourceAccounting( new ResourceAccounting( config.getResourceAccountingTag( name ) ) );
+            }
+
+            if ( !scheduled && threadCount > 0 && config.getThreadBudget() > 0 )
+            {
+                if ( threadBudget == null )
+                {
+                    threadBudget = new ThreadBudget( config.getThreadBudget() );
+                }
+                pool.joinThreadBudget( threadBudget, config.getGuaranteedThreads( name ) );
+            }
+
+            if ( !scheduled && threadCount > 0 && pool.getThreadBudget() == null && config.getKeepAlive( name ) > 0 )
+            {
+                pool.setKeepAlive( config.getKeepAlive( name ), TimeUnit.MILLISECONDS,
+                                   config.getMinWarmThreads( name ) );
+            }
+
+            if ( warmUp )
+            {
+                // warming up can take a while; the caller does it once we let go of the monitor.
+                toWarm.add( pool );
+            }
+
+            service = pool;
 
             // TODO: Wrapper ThreadPoolExecutor that wraps Runnables to store/copy MDC when it gets created/started.
 
@@ -207,6 +550,68 @@ public class WeftPoolBoy
     }
 
 
+    /**
+     * @since 2.3
+     * @return resource usage of every pool with {@link WeftConfig#isResourceAccounting(String)} on, by pool name.
+     */
+    public Map<String, ResourceUsage> getResourceUsage()
+    {
+        Map<String, ResourceUsage> result = new HashMap<>();
+        pools.forEach( ( name, pool ) -> {
+            if ( pool instanceof PoolWeftExecutorService )
+            {
+                ResourceAccounting accounting = ( (PoolWeftExecutorService) pool ).getResourceAccounting();
+                if ( accounting != null )
+                {
+                    result.put( name, accounting.getUsage() );
+                }
+            }
+        } );
+
+        return Collections.unmodifiableMap( result );
+    }
+
+    /**
+     * @since 2.3
+     * @return the tasks running right now, by pool name, for pools that have any.
+     */
+    public Map<String, List<TaskInfo>> getRunningTasks()
+    {
+        return collectTasks( WeftExecutorService::getRunningTasks );
+    }
+
+    /**
+     * @since 2.3
+     * @return the tasks waiting for a thread, by pool name, for pools that have any.
+     */
+    public Map<String, List<TaskInfo>> getQueuedTasks()
+    {
+        return collectTasks( WeftExecutorService::getQueuedTasks );
+    }
+
+    /**
+     * @since 2.3
+     * @return the running tasks past their pool's stuck-task threshold, by pool name, for pools that have any.
+     */
+    public Map<String, List<TaskInfo>> getStuckTasks()
+    {
+        return collectTasks( WeftExecutorService::getStuckTasks );
+    }
+
+    private Map<String, List<TaskInfo>> collectTasks( final Function<WeftExecutorService, List<TaskInfo>> lister )
+    {
+        Map<String, List<TaskInfo>> result = new HashMap<>();
+        pools.forEach( ( name, pool ) -> {
+            List<TaskInfo> tasks = lister.apply( pool );
+            if ( !tasks.isEmpty() )
+            {
+                result.put( name, tasks );
+            }
+        } );
+
+        return Collections.unmodifiableMap( result );
+    }
+
     public Map<String, WeftExecutorService> getPools()
     {
         Map<String, WeftExecutorService> result = new HashMap<>( pools );
@@ -0,0 +1,589 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Structured fan-out over a {@link WeftExecutorService}. Subtasks forked in the scope run on the pool and inherit the
+ * forking thread's {@link ThreadContext} as usual. When any subtask fails, or the scope's deadline passes, the scope
+ * shuts down: subtasks that have not started are dropped, running ones are interrupted, and forked
+ * {@link StoppableRunnable}s are stopped. The deadline is enforced by a shared timer, whether or not anyone is in
+ * {@link #join()}, and is also carried as the subtasks' {@link Deadline}, so pools drop those still queued when it
+ * passes and anything they submit in turn inherits it.
+ *
+ * Each scope has its own {@link CancellationToken}, a child of the forking context's token if it has one. Subtasks run
+ * in a {@link ThreadContext#snapshot()} of the forking context that carries the scope's token, so they can poll
+ * {@link CancellationToken#isCurrentCancelled()}; their context writes stay local unless they call
+ * {@link ThreadContext#publish()}. Shutting the scope down cancels its token, and cancelling the parent token
+ * cancels the scope.
+ *
+ * Use it with try-with-resources; {@link #close()} shuts the scope down if needed and waits until every subtask has
+ * actually finished running, so none of them outlives the scope:
+ * <pre>
+ * try ( WeftTaskScope&lt;Metadata&gt; scope = new WeftTaskScope&lt;&gt;( pool, 30, TimeUnit.SECONDS ) )
+ * {
+ *     repos.forEach( r -&gt; scope.fork( () -&gt; fetch( r ) ) );
+ *     return scope.join();
+ * }
+ * </pre>
+ * @since 2.3
+ */
+public class WeftTaskScope<T>
+        implements AutoCloseable
+{
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final WeftExecutorService executor;
+
+    private static final Timer DEADLINES = new Timer( "weft-task-scope-deadlines", true );
+
+    // null if the scope has no deadline
+    private final Deadline deadline;
+
+    private final TimerTask expiry;
+
+    private final Lock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    private final List<Subtask> subtasks = new ArrayList<>();
+
+    // guarded by lock
+    private int outstanding;
+
+    // guarded by lock
+    private int completed;
+
+    // guarded by lock
+    private Throwable failure;
+
+    // guarded by lock
+    private boolean closed;
+
+    private final CancellationToken token;
+
+    private final Runnable cancelListener = this::onCancelled;
+
+    private volatile boolean shutdown;
+
+    // set when the token is cancelled by anything other than this scope shutting down, eg. the parent request.
+    private volatile boolean externallyCancelled;
+
+    private volatile String cancelReason;
+
+    // set when the deadline passed before every subtask finished
+    private volatile boolean expired;
+
+    // guarded by lock
+    private int unfinishedAtDeadline;
+
+    public WeftTaskScope( final WeftExecutorService executor )
+    {
+        this.executor = executor;
+        this.deadline = null;
+        this.expiry = null;
+        this.token = newToken();
+        this.token.addCancelListener( cancelListener );
+    }
+
+    /**
+     * @param timeout how long, from now, the subtasks may take before the scope is shut down
+     */
+    public WeftTaskScope( final WeftExecutorService executor, final long timeout, final TimeUnit unit )
+    {
+        this.executor = executor;
+        this.deadline = Deadline.after( timeout, unit );
+        this.token = newToken();
+        this.token.addCancelListener( cancelListener );
+        this.expiry = new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                onExpired();
+            }
+        };
+        DEADLINES.schedule( expiry, Math.max( 0, unit.toMillis( timeout ) ) );
+    }
+
+    private static CancellationToken newToken()
+    {
+        CancellationToken parent = CancellationToken.current();
+        return parent == null ? new CancellationToken() : parent.child();
+    }
+
+    public CancellationToken getCancellationToken()
+    {
+        return token;
+    }
+
+    /**
+     * Start a subtask. If the scope has already shut down, the returned subtask is cancelled and never runs.
+     *
+     * @throws IllegalStateException if the scope is closed
+     */
+    public Subtask fork( final Callable<? extends T> callable )
+    {
+        return fork( new Subtask( callable::call, callable ) );
+    }
+
+    /**
+     * Start a subtask with no result. A {@link StoppableRunnable} is stopped when the scope shuts down.
+     */
+    public Subtask fork( final Runnable runnable )
+    {
+        return fork( new Subtask( Executors.callable( runnable, (T) null ), runnable ) );
+    }
+
+    private Subtask fork( final Subtask subtask )
+    {
+        lock.lock();
+        try
+        {
+            if ( closed )
+            {
+                throw new IllegalStateException( "Task scope is closed" );
+            }
+
+            subtasks.add( subtask );
+            outstanding++;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if ( deadline != null && deadline.isExpired() )
+        {
+            onExpired();
+        }
+
+        if ( shutdown || token.isCancelled() )
+        {
+            subtask.abandon();
+            return subtask;
+        }
+
+        // make sure there is a context for the subtasks to snapshot, but don't leave one behind on the caller.
+        boolean created = ThreadContext.getContext( false ) == null;
+        if ( created )
+        {
+            ThreadContext.getContext( true );
+        }
+
+        try
+        {
+            executor.execute( subtask, deadline );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            subtask.abandon();
+            throw e;
+        }
+        finally
+        {
+            if ( created )
+            {
+                ThreadContext.setContext( null );
+            }
+        }
+
+        return subtask;
+    }
+
+    /**
+     * Wait for all subtasks forked so far.
+     *
+     * @return their results, in fork order
+     * @throws ExecutionException with the cause of the first subtask to fail, after shutting the scope down
+     * @throws TimeoutException if the deadline passed first, after shutting the scope down
+     * @throws CancellationException if the parent cancellation token was cancelled; join wakes up as soon as it is
+     */
+    public List<T> join()
+            throws InterruptedException, ExecutionException, TimeoutException
+    {
+        List<Subtask> joined;
+        Throwable error;
+        int unfinished;
+        boolean timedOut = false;
+
+        lock.lock();
+        try
+        {
+            while ( failure == null && completed < subtasks.size() && !externallyCancelled && !expired )
+            {
+                if ( deadline != null )
+                {
+                    long remaining = deadline.remaining( TimeUnit.NANOSECONDS );
+                    if ( remaining <= 0 )
+                    {
+                        timedOut = true;
+                        break;
+                    }
+
+                    changed.awaitNanos( remaining );
+                }
+                else
+                {
+                    changed.await();
+                }
+            }
+
+            joined = new ArrayList<>( subtasks );
+            error = failure;
+            unfinished = expired ? unfinishedAtDeadline : subtasks.size() - completed;
+            timedOut |= expired;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if ( error != null )
+        {
+            shutdown();
+            throw new ExecutionException( error );
+        }
+
+        if ( externallyCancelled )
+        {
+            throw new CancellationException( "Task scope cancelled: " + cancelReason );
+        }
+
+        if ( timedOut )
+        {
+            shutdown();
+            throw new TimeoutException( "Task scope deadline passed with " + unfinished + " subtasks unfinished" );
+        }
+
+        List<T> results = new ArrayList<>( joined.size() );
+        for ( Subtask subtask : joined )
+        {
+            results.add( subtask.get() );
+        }
+
+        return results;
+    }
+
+    /**
+     * Drop subtasks that have not started, interrupt the running ones and stop any {@link StoppableRunnable}s. Further
+     * forks are cancelled immediately.
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+        token.cancel( "Task scope shut down" );
+
+        List<Subtask> all;
+        lock.lock();
+        try
+        {
+            all = new ArrayList<>( subtasks );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        all.forEach( Subtask::abandon );
+    }
+
+    public boolean isShutdown()
+    {
+        return shutdown;
+    }
+
+    /**
+     * Shut down the scope if any subtask is unfinished, then wait until every subtask has stopped running. If the
+     * waiting thread is interrupted, it keeps waiting and the interrupt flag is restored afterward.
+     */
+    @Override
+    public void close()
+    {
+        boolean unfinished;
+        lock.lock();
+        try
+        {
+            closed = true;
+            unfinished = completed < subtasks.size();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if ( unfinished )
+        {
+            shutdown();
+        }
+
+        boolean interrupted = false;
+        lock.lock();
+        try
+        {
+            while ( outstanding > 0 )
+            {
+                try
+                {
+                    changed.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        token.removeCancelListener( cancelListener );
+        if ( expiry != null )
+        {
+            expiry.cancel();
+        }
+
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void onCancelled()
+    {
+        if ( shutdown )
+        {
+            return;
+        }
+
+        cancelReason = token.getReason();
+        externallyCancelled = true;
+        shutdown();
+
+        lock.lock();
+        try
+        {
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Shut the scope down when its deadline passes with subtasks unfinished, waking {@link #join()}.
+     */
+    private void onExpired()
+    {
+        lock.lock();
+        try
+        {
+            if ( shutdown || failure != null || completed == subtasks.size() )
+            {
+                return;
+            }
+
+            unfinishedAtDeadline = subtasks.size() - completed;
+            expired = true;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        logger.debug( "Task scope deadline passed; shutting down" );
+        shutdown();
+
+        lock.lock();
+        try
+        {
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private void onDone( final Subtask subtask )
+    {
+        Throwable error = null;
+        if ( !subtask.isCancelled() )
+        {
+            try
+            {
+                subtask.get();
+            }
+            catch ( ExecutionException e )
+            {
+                error = e.getCause();
+            }
+            catch ( InterruptedException e )
+            {
+                // cannot happen, the subtask is done
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        boolean first = false;
+        lock.lock();
+        try
+        {
+            completed++;
+            if ( error != null && failure == null )
+            {
+                failure = error;
+                first = true;
+            }
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+
+        if ( first )
+        {
+            logger.debug( "Subtask: {} failed; shutting down task scope", subtask );
+            shutdown();
+        }
+    }
+
+    private void onFinished()
+    {
+        lock.lock();
+        try
+        {
+            outstanding--;
+            changed.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A forked subtask. It is a {@link java.util.concurrent.Future} for its result, and runs at most once.
+     */
+    public final class Subtask
+            extends FutureTask<T>
+    {
+        private final Object task;
+
+        // whoever claims the subtask first, the pool thread or the scope shutting down, is responsible for finishing it.
+        private final AtomicBoolean claimed = new AtomicBoolean( false );
+
+        private Subtask( final Callable<T> callable, final Object task )
+        {
+            super( callable );
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            if ( !claimed.compareAndSet( false, true ) )
+            {
+                return;
+            }
+
+            try
+            {
+                if ( token.isCancelled() )
+                {
+                    cancel( false );
+                    return;
+                }
+
+                ThreadContext current = ThreadContext.getContext( false );
+                if ( current == null || ( current.getCancellationToken() == token && !tightens( current.getDeadline() ) ) )
+                {
+                    super.run();
+                }
+                else
+                {
+                    ThreadContext child = current.snapshot();
+                    child.setCancellationToken( token );
+                    if ( tightens( child.getDeadline() ) )
+                    {
+                        child.setDeadline( deadline );
+                    }
+                    ThreadContext.runWith( child, super::run );
+                }
+            }
+            finally
+            {
+                onFinished();
+            }
+        }
+
+        @Override
+        protected void done()
+        {
+            onDone( this );
+        }
+
+        private boolean tightens( final Deadline existing )
+        {
+            return deadline != null && ( existing == null || deadline.compareTo( existing ) < 0 );
+        }
+
+        private void abandon()
+        {
+            if ( claimed.compareAndSet( false, true ) )
+            {
+                cancel( false );
+                onFinished();
+            }
+            else if ( !isDone() )
+            {
+                if ( task instanceof StoppableRunnable )
+                {
+                    ( (StoppableRunnable) task ).stop();
+                }
+                cancel( true );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.valueOf( task );
+        }
+    }
+}
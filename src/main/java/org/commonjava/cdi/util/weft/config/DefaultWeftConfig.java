@@ -15,11 +15,17 @@
  */
 package org.commonjava.cdi.util.weft.config;
 
+import org.commonjava.cdi.util.weft.CpuSet;
+
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class DefaultWeftConfig
     implements WeftConfig
@@ -35,27 +41,78 @@ public class DefaultWeftConfig
 
     public static final float DEFAULT_MAX_LOAD_FACTOR = 10.0f;
 
-    private boolean enabled = true;
+    public static final long DEFAULT_SHUTDOWN_TIMEOUT = 5000;
+
+    private volatile boolean enabled = true;
+
+    private final Map<String, Boolean> enabledPools = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> config = new ConcurrentHashMap<>();
+
+    private final Map<String, Float> maxLoadFactors = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> loadSensitivePools = new ConcurrentHashMap<>();
+
+    private volatile boolean defaultLoadSensitive;
+
+    private volatile int defaultThreads = DEFAULT_THREADS;
+
+    private volatile int defaultPriority = DEFAULT_PRIORITY;
+
+    private volatile float defaultMaxLoadFactor = DEFAULT_MAX_LOAD_FACTOR;
+
+    private volatile String nodePrefix;
+
+    private final Set<String> knownPools = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean asyncContextFinalizers;
+
+    private final Map<String, Boolean> deadlineOrderedPools = new ConcurrentHashMap<>();
+
+    private final Map<String, String> loadSheddingPolicies = new ConcurrentHashMap<>();
+
+    private volatile String defaultLoadSheddingPolicy;
 
-    private final Map<String, Boolean> enabledPools = new HashMap<>();
+    private final Map<String, String> concurrencyLimits = new ConcurrentHashMap<>();
 
-    private final Map<String, Integer> config = new HashMap<String, Integer>();
+    private volatile int threadBudget;
 
-    private final Map<String, Float> maxLoadFactors = new HashMap<>();
+    private final Map<String, Integer> guaranteedThreads = new ConcurrentHashMap<>();
 
-    private final Map<String, Boolean> loadSensitivePools = new HashMap<>();
+    private final Map<String, Boolean> resourceAccountingPools = new ConcurrentHashMap<>();
 
-    private boolean defaultLoadSensitive;
+    private final Map<String, String> resourceAccountingTags = new ConcurrentHashMap<>();
 
-    private int defaultThreads = DEFAULT_THREADS;
+    private final Map<String, Long> stuckTaskThresholds = new ConcurrentHashMap<>();
 
-    private int defaultPriority = DEFAULT_PRIORITY;
+    private volatile long defaultStuckTaskThreshold;
 
-    private float defaultMaxLoadFactor = DEFAULT_MAX_LOAD_FACTOR;
+    private final Map<String, Long> maxTaskRunTimes = new ConcurrentHashMap<>();
 
-    private String nodePrefix;
+    private final Map<String, String> maxTaskRunTimeActions = new ConcurrentHashMap<>();
 
-    private Set<String> knownPools = new HashSet<>();
+    private volatile long shutdownTimeout = DEFAULT_SHUTDOWN_TIMEOUT;
+
+    private final Map<String, Set<String>> shutdownDependencies = new ConcurrentHashMap<>();
+
+    private final Map<String, Boolean> warmUpPools = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> keepAlives = new ConcurrentHashMap<>();
+
+    private final Map<String, Integer> minWarmThreads = new ConcurrentHashMap<>();
+
+    private volatile long defaultKeepAlive;
+
+    private volatile int defaultMinWarmThreads = 1;
+
+    private final Map<String, String> cpuAffinities = new ConcurrentHashMap<>();
+
+    private volatile String reservedCpus;
+
+    private final List<WeftConfigListener> listeners = new CopyOnWriteArrayList<>();
+
+    // pools changed so far by the current thread's batch(), if it is running one.
+    private final ThreadLocal<Set<String>> batched = new ThreadLocal<>();
 
     public DefaultWeftConfig()
     {
@@ -76,24 +133,28 @@ public class DefaultWeftConfig
     public DefaultWeftConfig configureDefaultThreads( final int defaultThreads )
     {
         this.defaultThreads = defaultThreads;
+        fireChanged( null );
         return this;
     }
 
     public DefaultWeftConfig configureDefaultPriority( final int defaultPriority )
     {
         this.defaultPriority = defaultPriority;
+        fireChanged( null );
         return this;
     }
 
     public DefaultWeftConfig configureDefaultMaxLoadFactor( final float maxLoadFactor )
     {
         this.defaultMaxLoadFactor = maxLoadFactor;
+        fireChanged( null );
         return this;
     }
 
     public DefaultWeftConfig configureDefaultLoadSensitive( final boolean defaultLoadSensitive )
     {
         this.defaultLoadSensitive = defaultLoadSensitive;
+        fireChanged( null );
         return this;
     }
 
@@ -113,6 +174,7 @@ public class DefaultWeftConfig
             maxLoadFactors.put( name, maxLoadFactor );
         }
 
+        fireChanged( name );
         return this;
     }
 
@@ -122,6 +184,7 @@ public class DefaultWeftConfig
 
         config.put( name + THREADS_SUFFIX, threads );
 
+        fireChanged( name );
         return this;
     }
 
@@ -131,6 +194,7 @@ public class DefaultWeftConfig
 
         config.put( name + PRIORITY_SUFFIX, priority );
 
+        fireChanged( name );
         return this;
     }
 
@@ -139,6 +203,7 @@ public class DefaultWeftConfig
         knownPools.add( name );
 
         maxLoadFactors.put( name, maxLoadFactor );
+        fireChanged( name );
         return this;
     }
 
@@ -147,6 +212,7 @@ public class DefaultWeftConfig
         knownPools.add( name );
 
         loadSensitivePools.put( name, sensitive );
+        fireChanged( name );
         return this;
     }
 
@@ -155,15 +221,346 @@ public class DefaultWeftConfig
         knownPools.add( name );
 
         enabledPools.put( name, enabled );
+        fireChanged( name );
         return this;
     }
 
     public DefaultWeftConfig configureEnabled( boolean enabled )
     {
         this.enabled = enabled;
+        fireChanged( null );
+        return this;
+    }
+
+    public DefaultWeftConfig configureAsyncContextFinalizers( boolean asyncContextFinalizers )
+    {
+        this.asyncContextFinalizers = asyncContextFinalizers;
+        fireChanged( null );
+        return this;
+    }
+
+    @Override
+    public boolean isAsyncContextFinalizers()
+    {
+        return asyncContextFinalizers;
+    }
+
+    public DefaultWeftConfig configureDeadlineOrdered( final String name, final boolean deadlineOrdered )
+    {
+        knownPools.add( name );
+
+        deadlineOrderedPools.put( name, deadlineOrdered );
+        fireChanged( name );
+        return this;
+    }
+
+    @Override
+    public boolean isDeadlineOrdered( final String poolName )
+    {
+        return deadlineOrderedPools.getOrDefault( poolName, false );
+    }
+
+    public DefaultWeftConfig configureLoadSheddingPolicy( final String name, final String policy )
+    {
+        knownPools.add( name );
+
+        if ( policy == null )
+        {
+            loadSheddingPolicies.remove( name );
+        }
+        else
+        {
+            loadSheddingPolicies.put( name, policy );
+        }
+        fireChanged( name );
+        return this;
+    }
+
+    public DefaultWeftConfig configureDefaultLoadSheddingPolicy( final String policy )
+    {
+        this.defaultLoadSheddingPolicy = policy;
+        fireChanged( null );
+        return this;
+    }
+
+    @Override
+    public String getLoadSheddingPolicy( final String poolName )
+    {
+        return loadSheddingPolicies.getOrDefault( poolName, defaultLoadSheddingPolicy );
+    }
+
+    public DefaultWeftConfig configureConcurrencyLimit( final String name, final String limit )
+    {
+        knownPools.add( name );
+
+        if ( limit == null )
+        {
+            concurrencyLimits.remove( name );
+        }
+        else
+        {
+            concurrencyLimits.put( name, limit );
+        }
+        fireChanged( name );
+        return this;
+    }
+
+    @Override
+    public String getConcurrencyLimit( final String poolName )
+    {
+        return concurrencyLimits.get( poolName );
+    }
+
+    public DefaultWeftConfig configureThreadBudget( final int threadBudget )
+    {
+        this.threadBudget = threadBudget;
+        fireChanged( null );
+        return this;
+    }
+
+    @Override
+    public int getThreadBudget()
+    {
+        return threadBudget;
+    }
+
+    public DefaultWeftConfig configureGuaranteedThreads( final String name, final int guaranteed )
+    {
+        knownPools.add( name );
+
+        guaranteedThreads.put( name, guaranteed );
+        fireChanged( name );
         return this;
     }
 
+    @Override
+    public int getGuaranteedThreads( final String poolName )
+    {
+        return guaranteedThreads.getOrDefault( poolName, 1 );
+    }
+
+    /**
+     * @param tagKey ThreadContext key to break usage down by, or null for pool totals only
+     */
+    public DefaultWeftConfig configureResourceAccounting( final String name, final boolean accounting,
+                                                          final String tagKey )
+    {
+        knownPools.add( name );
+
+        resourceAccountingPools.put( name, accounting );
+        if ( tagKey == null )
+        {
+            resourceAccountingTags.remove( name );
+        }
+        else
+        {
+            resourceAccountingTags.put( name, tagKey );
+        }
+        fireChanged( name );
+        return this;
+    }
+
+    @Override
+    public boolean isResourceAccounting( final String poolName )
+    {
+        return resourceAccountingPools.getOrDefault( poolName, false );
+    }
+
+    @Override
+    public String getResourceAccountingTag( final String poolName )
+    {
+        return resourceAccountingTags.get( poolName );
+    }
+
+    public DefaultWeftConfig configureStuckTaskThreshold( final String name, final long millis )
+    {
+        knownPools.add( name );
+
+        stuckTaskThresholds.put( name, millis );
+        fireChanged( name );
+        return this;
+    }
+
+    public DefaultWeftConfig configureDefaultStuckTaskThreshold( final long millis )
+    {
+        this.defaultStuckTaskThreshold = millis;
+        fireChanged( null );
+        return this;
+    }
+
+    @Override
+    public long getStuckTaskThreshold( final String poolName )
+    {
+        return stuckTaskThresholds.getOrDefault( poolName, defaultStuckTaskThreshold );
+    }
+
+    /**
+     * @param action "log", "interrupt" or "stop"; null means log
+     */
+    public DefaultWeftConfig configureMaxTaskRunTime( final String name, final long millis, final String action )
+    {
+        knownPools.add( name );
+
+        maxTaskRunTimes.put( name, millis );
+        if ( action == null )
+        {
+            maxTaskRunTimeActions.remove( name );
+        }
+        else
+        {
+            maxTaskRunTimeActions.put( name, action );
+        }
+        fireChanged( name );
+        return this;
+    }
+
+    @Override
+    public long getMaxTaskRunTime( final String poolName )
+    {
+        return maxTaskRunTimes.getOrDefault( poolName, 0L );
+    }
+
+    @Override
+    public String getMaxTaskRunTimeAction( final String poolName )
+    {
+        return maxTaskRunTimeActions.get( poolName );
+    }
+
+    public DefaultWeftConfig configureShutdownTimeout( final long millis )
+    {
+        this.shutdownTimeout = millis;
+        fireChanged( null );
+        return this;
+    }
+
+    @Override
+    public long getShutdownTimeout()
+    {
+        return shutdownTimeout;
+    }
+
+    /**
+     * @param dependencies pools that the named pool's tasks submit work to
+     */
+    public DefaultWeftConfig configureShutdownDependencies( final String name, final String... dependencies )
+    {
+        knownPools.add( name );
+
+        shutdownDependencies.put( name, Collections.unmodifiableSet( new HashSet<>( Arrays.asList( dependencies ) ) ) );
+        fireChanged( name );
+        return this;
+    }
+
+    @Override
+    public Set<String> getShutdownDependencies( final String poolName )
+    {
+        return shutdownDependencies.getOrDefault( poolName, Collections.emptySet() );
+    }
+
+    public DefaultWeftConfig configureWarmUp( final String name, final boolean warmUp )
+    {
+        knownPools.add( name );
+
+        warmUpPools.put( name, warmUp );
+        fireChanged( name );
+        return this;
+    }
+
+    @Override
+    public boolean isWarmUp( final String poolName )
+    {
+        return warmUpPools.getOrDefault( poolName, false );
+    }
+
+    public DefaultWeftConfig configureKeepAlive( final String name, final long millis, final int minWarm )
+    {
+        knownPools.add( name );
+
+        keepAlives.put( name, millis );
+        minWarmThreads.put( name, minWarm );
+        fireChanged( name );
+        return this;
+    }
+
+    public DefaultWeftConfig configureDefaultKeepAlive( final long millis, final int minWarm )
+    {
+        this.defaultKeepAlive = millis;
+        this.defaultMinWarmThreads = minWarm;
+        fireChanged( null );
+        return this;
+    }
+
+    public long getDefaultKeepAlive()
+    {
+        return defaultKeepAlive;
+    }
+
+    public int getDefaultMinWarmThreads()
+    {
+        return defaultMinWarmThreads;
+    }
+
+    @Override
+    public long getKeepAlive( final String poolName )
+    {
+        return keepAlives.getOrDefault( poolName, defaultKeepAlive );
+    }
+
+    @Override
+    public int getMinWarmThreads( final String poolName )
+    {
+        return minWarmThreads.getOrDefault( poolName, defaultMinWarmThreads );
+    }
+
+    public DefaultWeftConfig configureCpuAffinity( final String name, final String cpus )
+    {
+        knownPools.add( name );
+
+        if ( cpus == null )
+        {
+            cpuAffinities.remove( name );
+        }
+        else
+        {
+            cpuAffinities.put( name, cpus );
+        }
+        fireChanged( name );
+        return this;
+    }
+
+    /**
+     * Set the CPUs other pools are kept off. When never set, or set to null, this is every CPU some pool is bound to
+     * by {@link #configureCpuAffinity(String, String)}; set an empty list to let other pools share them.
+     */
+    public DefaultWeftConfig configureReservedCpus( final String cpus )
+    {
+        this.reservedCpus = cpus;
+        fireChanged( null );
+        return this;
+    }
+
+    @Override
+    public String getCpuAffinity( final String poolName )
+    {
+        return cpuAffinities.get( poolName );
+    }
+
+    @Override
+    public String getReservedCpus()
+    {
+        if ( reservedCpus != null )
+        {
+            return reservedCpus;
+        }
+
+        CpuSet pinned = CpuSet.EMPTY;
+        for ( String cpus : cpuAffinities.values() )
+        {
+            pinned = pinned.union( CpuSet.parse( cpus ) );
+        }
+        return pinned.isEmpty() ? null : pinned.toString();
+    }
+
     public boolean isEnabled()
     {
         return enabled;
@@ -297,4 +694,68 @@ public class DefaultWeftConfig
         return v;
     }
 
+    @Override
+    public void addChangeListener( final WeftConfigListener listener )
+    {
+        listeners.add( listener );
+    }
+
+    @Override
+    public void removeChangeListener( final WeftConfigListener listener )
+    {
+        listeners.remove( listener );
+    }
+
+    /**
+     * Apply several changes as one: listeners are not notified while the changes run, and afterward hear once about
+     * each changed pool, or only once with a null pool name if any global setting changed. This keeps listeners from
+     * reconfiguring pools from a mix of old and new values.
+     * @since 2.3
+     */
+    public void batch( final Runnable changes )
+    {
+        if ( batched.get() != null )
+        {
+            changes.run();
+            return;
+        }
+
+        Set<String> changed = new LinkedHashSet<>();
+        batched.set( changed );
+        try
+        {
+            changes.run();
+        }
+        finally
+        {
+            batched.remove();
+            if ( changed.contains( null ) )
+            {
+                notifyListeners( null );
+            }
+            else
+            {
+                changed.forEach( this::notifyListeners );
+            }
+        }
+    }
+
+    private void fireChanged( final String poolName )
+    {
+        Set<String> changed = batched.get();
+        if ( changed != null )
+        {
+            changed.add( poolName );
+        }
+        else
+        {
+            notifyListeners( poolName );
+        }
+    }
+
+    private void notifyListeners( final String poolName )
+    {
+        listeners.forEach( l -> l.configChanged( poolName ) );
+    }
+
 }
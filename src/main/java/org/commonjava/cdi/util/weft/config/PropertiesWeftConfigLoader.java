@@ -0,0 +1,397 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.config;
+
+import org.commonjava.cdi.util.weft.CpuSet;
+import org.commonjava.cdi.util.weft.TaskWatchdog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * Fills a {@link DefaultWeftConfig} from a properties file, with system properties of the same names taking
+ * precedence. Global settings use the keys:
+ * <pre>
+ * weft.enabled, weft.threads, weft.priority, weft.maxLoadFactor, weft.loadSensitive, weft.loadSheddingPolicy,
+ * weft.nodePrefix, weft.asyncContextFinalizers, weft.threadBudget, weft.stuckTaskThreshold, weft.shutdownTimeout,
+ * weft.keepAlive, weft.minWarmThreads, weft.reservedCpus
+ * </pre>
+ * and each pool uses <code>weft.pool.&lt;name&gt;.&lt;setting&gt;</code>, where the setting is one of
+ * <code>threads, priority, maxLoadFactor, loadSensitive, enabled, deadlineOrdered, loadSheddingPolicy,
+ * concurrencyLimit, guaranteedThreads, resourceAccounting, resourceAccountingTag, stuckTaskThreshold, maxTaskRunTime,
+ * maxTaskRunTimeAction, shutdownDependencies, warmUp, keepAlive, minWarmThreads, cpuAffinity</code>. CPU sets use
+ * the cpu-list format of {@link CpuSet}; weft.reservedCpus defaults to every pool's cpuAffinity, and an empty value
+ * lets other pools share those CPUs. Thresholds, run times and timeouts are in milliseconds, and
+ * shutdown dependencies are comma-separated pool names.
+ *
+ * {@link #watch()} reloads the file whenever it changes, applying only the values that differ from the last load.
+ * Each load is applied as one {@link DefaultWeftConfig#batch(Runnable) batch}, so the config's change listeners hear
+ * once per changed pool, and a {@link org.commonjava.cdi.util.weft.WeftPoolBoy} using the config resizes its running
+ * pools with all the new values at once. Removing a key leaves its last value in place. The file may be a symlink
+ * whose target is swapped, as with Kubernetes ConfigMap volumes.
+ * @since 2.3
+ */
+public class PropertiesWeftConfigLoader
+        implements Closeable
+{
+    public static final String PREFIX = "weft.";
+
+    public static final String POOL_PREFIX = PREFIX + "pool.";
+
+    private final Logger logger = LoggerFactory.getLogger( getClass() );
+
+    private final DefaultWeftConfig config;
+
+    private final Path file;
+
+    // guarded by this
+    private final Map<String, String> applied = new HashMap<>();
+
+    // where the file resolved to, and when that was modified, as of the last load; guarded by this
+    private String loadedVersion;
+
+    private volatile WatchService watchService;
+
+    public PropertiesWeftConfigLoader( final Path file )
+    {
+        this( new DefaultWeftConfig(), file );
+    }
+
+    public PropertiesWeftConfigLoader( final DefaultWeftConfig config, final Path file )
+    {
+        this.config = config;
+        this.file = file;
+    }
+
+    public DefaultWeftConfig getConfig()
+    {
+        return config;
+    }
+
+    public Path getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Read the file and system properties, and apply whatever changed since the last load. A missing file is treated
+     * as empty.
+     */
+    public synchronized DefaultWeftConfig load()
+            throws IOException
+    {
+        // taken before reading, so a change made while reading is seen as stale
+        loadedVersion = version();
+
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream( file ))
+        {
+            props.load( in );
+        }
+        catch ( NoSuchFileException e )
+        {
+            logger.debug( "Weft config file: {} does not exist", file );
+        }
+
+        System.getProperties().stringPropertyNames().stream().filter( k -> k.startsWith( PREFIX ) ).forEach(
+                k -> props.setProperty( k, System.getProperty( k ) ) );
+
+        config.batch( () -> {
+            for ( String key : props.stringPropertyNames() )
+            {
+                String value = props.getProperty( key ).trim();
+                if ( key.startsWith( PREFIX ) && !Objects.equals( value, applied.get( key ) ) )
+                {
+                    try
+                    {
+                        apply( key, value );
+                        applied.put( key, value );
+                    }
+                    catch ( IllegalArgumentException e )
+                    {
+                        logger.warn( "Ignoring invalid weft config: {}={} ({})", key, value, e.getMessage() );
+                    }
+                }
+            }
+        } );
+
+        return config;
+    }
+
+    /**
+     * @return the real path the file resolves to, with its modification time, or null if it does not exist.
+     */
+    private String version()
+    {
+        try
+        {
+            Path real = file.toRealPath();
+            return real + "@" + Files.getLastModifiedTime( real ).toMillis();
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+    }
+
+    private synchronized boolean isStale()
+    {
+        return !Objects.equals( loadedVersion, version() );
+    }
+
+    /**
+     * Start a daemon thread that reloads the file when it is created or modified, until {@link #close()}.
+     */
+    public synchronized void watch()
+            throws IOException
+    {
+        if ( watchService != null )
+        {
+            return;
+        }
+
+        Path dir = file.toAbsolutePath().getParent();
+        watchService = dir.getFileSystem().newWatchService();
+        dir.register( watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY );
+
+        Thread watcher = new Thread( () -> watchLoop( watchService ), "weft-config-watcher" );
+        watcher.setDaemon( true );
+        watcher.start();
+        logger.info( "Watching weft config: {}", file );
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        WatchService ws = watchService;
+        watchService = null;
+        if ( ws != null )
+        {
+            ws.close();
+        }
+    }
+
+    private void watchLoop( final WatchService ws )
+    {
+        Path name = file.getFileName();
+        try
+        {
+            while ( true )
+            {
+                WatchKey key = ws.take();
+                boolean changed = false;
+                for ( WatchEvent<?> event : key.pollEvents() )
+                {
+                    changed |= name.equals( event.context() );
+                }
+                key.reset();
+
+                // a symlink swap (eg. a ConfigMap's ..data link) reports the link's name, not the file's.
+                changed = changed || isStale();
+
+                if ( changed )
+                {
+                    try
+                    {
+                        load();
+                    }
+                    catch ( IOException | RuntimeException e )
+                    {
+                        logger.warn( "Failed to reload weft config: " + file, e );
+                    }
+                }
+            }
+        }
+        catch ( InterruptedException | ClosedWatchServiceException e )
+        {
+            logger.debug( "Stopped watching weft config: {}", file );
+        }
+    }
+
+    private void apply( final String key, final String value )
+    {
+        if ( key.startsWith( POOL_PREFIX ) )
+        {
+            int dot = key.lastIndexOf( '.' );
+            if ( dot <= POOL_PREFIX.length() )
+            {
+                throw new IllegalArgumentException( "expected " + POOL_PREFIX + "<name>.<setting>" );
+            }
+
+            applyPool( key.substring( POOL_PREFIX.length(), dot ), key.substring( dot + 1 ), value );
+            return;
+        }
+
+        switch ( key.substring( PREFIX.length() ) )
+        {
+            case "enabled":
+                config.configureEnabled( toBoolean( value ) );
+                break;
+            case "threads":
+                config.configureDefaultThreads( Integer.parseInt( value ) );
+                break;
+            case "priority":
+                config.configureDefaultPriority( Integer.parseInt( value ) );
+                break;
+            case "maxLoadFactor":
+                config.configureDefaultMaxLoadFactor( Float.parseFloat( value ) );
+                break;
+            case "loadSensitive":
+                config.configureDefaultLoadSensitive( toBoolean( value ) );
+                break;
+            case "loadSheddingPolicy":
+                config.configureDefaultLoadSheddingPolicy( value.isEmpty() ? null : value );
+                break;
+            case "nodePrefix":
+                config.configureNodePrefix( value );
+                break;
+            case "asyncContextFinalizers":
+                config.configureAsyncContextFinalizers( toBoolean( value ) );
+                break;
+            case "threadBudget":
+                config.configureThreadBudget( Integer.parseInt( value ) );
+                break;
+            case "stuckTaskThreshold":
+                config.configureDefaultStuckTaskThreshold( Long.parseLong( value ) );
+                break;
+            case "keepAlive":
+                config.configureDefaultKeepAlive( Long.parseLong( value ), config.getDefaultMinWarmThreads() );
+                break;
+            case "minWarmThreads":
+                config.configureDefaultKeepAlive( config.getDefaultKeepAlive(), Integer.parseInt( value ) );
+                break;
+            case "reservedCpus":
+                // fail on invalid values here, rather than when the pool is (re)configured.
+                CpuSet.parse( value );
+                // an empty list is kept, to share pinned pools' CPUs rather than reserve them.
+                config.configureReservedCpus( value );
+                break;
+            case "shutdownTimeout":
+                config.configureShutdownTimeout( Long.parseLong( value ) );
+                break;
+            default:
+                logger.debug( "Ignoring unknown weft config: {}", key );
+        }
+    }
+
+    private void applyPool( final String name, final String setting, final String value )
+    {
+        switch ( setting )
+        {
+            case "threads":
+                config.configureThreads( name, Integer.parseInt( value ) );
+                break;
+            case "priority":
+                config.configurePriority( name, Integer.parseInt( value ) );
+                break;
+            case "maxLoadFactor":
+                config.configureMaxLoadFactor( name, Float.parseFloat( value ) );
+                break;
+            case "loadSensitive":
+                config.configureLoadSensitive( name, toBoolean( value ) );
+                break;
+            case "enabled":
+                config.configureEnabled( name, toBoolean( value ) );
+                break;
+            case "deadlineOrdered":
+                config.configureDeadlineOrdered( name, toBoolean( value ) );
+                break;
+            case "loadSheddingPolicy":
+                config.configureLoadSheddingPolicy( name, value.isEmpty() ? null : value );
+                break;
+            case "concurrencyLimit":
+                config.configureConcurrencyLimit( name, value.isEmpty() ? null : value );
+                break;
+            case "guaranteedThreads":
+                config.configureGuaranteedThreads( name, Integer.parseInt( value ) );
+                break;
+            case "stuckTaskThreshold":
+                config.configureStuckTaskThreshold( name, Long.parseLong( value ) );
+                break;
+            case "maxTaskRunTime":
+                config.configureMaxTaskRunTime( name, Long.parseLong( value ),
+                                                config.getMaxTaskRunTimeAction( name ) );
+                break;
+            case "maxTaskRunTimeAction":
+                // fail on invalid values here, rather than when the pool is (re)configured.
+                TaskWatchdog.Action.forName( value );
+                config.configureMaxTaskRunTime( name, config.getMaxTaskRunTime( name ),
+                                                value.isEmpty() ? null : value );
+                break;
+            case "shutdownDependencies":
+                config.configureShutdownDependencies( name, Arrays.stream( value.split( "," ) )
+                                                                  .map( String::trim )
+                                                                  .filter( d -> !d.isEmpty() )
+                                                                  .toArray( String[]::new ) );
+                break;
+            case "keepAlive":
+                config.configureKeepAlive( name, Long.parseLong( value ), config.getMinWarmThreads( name ) );
+                break;
+            case "minWarmThreads":
+                config.configureKeepAlive( name, config.getKeepAlive( name ), Integer.parseInt( value ) );
+                break;
+            case "cpuAffinity":
+                // fail on invalid values here, rather than when the pool is (re)configured.
+                CpuSet.parse( value );
+                config.configureCpuAffinity( name, value.isEmpty() ? null : value );
+                break;
+            case "warmUp":
+                config.configureWarmUp( name, toBoolean( value ) );
+                break;
+            case "resourceAccounting":
+                config.configureResourceAccounting( name, toBoolean( value ),
+                                                    config.getResourceAccountingTag( name ) );
+                break;
+            case "resourceAccountingTag":
+                config.configureResourceAccounting( name, config.isResourceAccounting( name ),
+                                                    value.isEmpty() ? null : value );
+                break;
+            default:
+                logger.debug( "Ignoring unknown weft config for pool: {}: {}", name, setting );
+        }
+    }
+
+    private static boolean toBoolean( final String value )
+    {
+        if ( "true".equalsIgnoreCase( value ) )
+        {
+            return true;
+        }
+        else if ( "false".equalsIgnoreCase( value ) )
+        {
+            return false;
+        }
+
+        throw new IllegalArgumentException( "not a boolean" );
+    }
+}
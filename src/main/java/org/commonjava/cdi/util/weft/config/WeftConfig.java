@@ -15,6 +15,7 @@
  */
 package org.commonjava.cdi.util.weft.config;
 
+import java.util.Collections;
 import java.util.Set;
 
 public interface WeftConfig
@@ -49,4 +50,204 @@ public interface WeftConfig
     String getNodePrefix(); // for cluster env
 
     Set<String> getKnownPools();
+
+    /**
+     * Whether {@link org.commonjava.cdi.util.weft.ThreadContext} finalizers should run on a dedicated pool, rather
+     * than inline on whichever thread drops the last reference to the context.
+     * @since 2.3
+     */
+    default boolean isAsyncContextFinalizers()
+    {
+        return false;
+    }
+
+    /**
+     * Whether the named pool should run queued tasks earliest-deadline-first (see
+     * {@link org.commonjava.cdi.util.weft.DeadlineOrderedThreadPoolExecutor}) instead of in submission order.
+     * @since 2.3
+     */
+    default boolean isDeadlineOrdered( String poolName )
+    {
+        return false;
+    }
+
+    /**
+     * Name of the {@link org.commonjava.cdi.util.weft.load.LoadSheddingPolicy} used when the named pool is load
+     * sensitive (see {@link org.commonjava.cdi.util.weft.load.LoadSheddingPolicy#forName(String)}), or null for the
+     * default threshold policy.
+     * @since 2.3
+     */
+    default String getLoadSheddingPolicy( String poolName )
+    {
+        return null;
+    }
+
+    /**
+     * Name of the adaptive {@link org.commonjava.cdi.util.weft.load.ConcurrencyLimit} for the named pool (see
+     * {@link org.commonjava.cdi.util.weft.load.ConcurrencyLimit#forName(String, int, int)}), or null for none.
+     * @since 2.3
+     */
+    default String getConcurrencyLimit( String poolName )
+    {
+        return null;
+    }
+
+    /**
+     * Total number of threads shared by all fixed-size, non-scheduled pools (see
+     * {@link org.commonjava.cdi.util.weft.ThreadBudget}), or 0 to give each pool its own fixed threads.
+     * @since 2.3
+     */
+    default int getThreadBudget()
+    {
+        return 0;
+    }
+
+    /**
+     * Number of threads reserved for the named pool when a thread budget is in use. Its configured thread count is the
+     * most it may grow to by borrowing.
+     * @since 2.3
+     */
+    default int getGuaranteedThreads( String poolName )
+    {
+        return 1;
+    }
+
+    /**
+     * Whether to measure the CPU time and heap allocation of the named pool's tasks (see
+     * {@link org.commonjava.cdi.util.weft.ResourceAccounting}).
+     * @since 2.3
+     */
+    default boolean isResourceAccounting( String poolName )
+    {
+        return false;
+    }
+
+    /**
+     * {@link org.commonjava.cdi.util.weft.ThreadContext} key whose value breaks the named pool's resource usage down
+     * per tag, or null for pool totals only.
+     * @since 2.3
+     */
+    default String getResourceAccountingTag( String poolName )
+    {
+        return null;
+    }
+
+    /**
+     * Running time in milliseconds after which a task on the named pool is reported as stuck (see
+     * {@link org.commonjava.cdi.util.weft.WeftExecutorService#getStuckTasks()}), or 0 to never flag tasks.
+     * @since 2.3
+     */
+    default long getStuckTaskThreshold( String poolName )
+    {
+        return 0;
+    }
+
+    /**
+     * Running time in milliseconds after which the task watchdog acts on a task in the named pool (see
+     * {@link org.commonjava.cdi.util.weft.TaskWatchdog}), or 0 to not watch the pool.
+     * @since 2.3
+     */
+    default long getMaxTaskRunTime( String poolName )
+    {
+        return 0;
+    }
+
+    /**
+     * What the task watchdog does with tasks of the named pool past their max run time: "log", "interrupt" or "stop"
+     * (see {@link org.commonjava.cdi.util.weft.TaskWatchdog.Action}). Null means log.
+     * @since 2.3
+     */
+    default String getMaxTaskRunTimeAction( String poolName )
+    {
+        return null;
+    }
+
+    /**
+     * Overall time in milliseconds that {@link org.commonjava.cdi.util.weft.WeftPoolBoy#shutdown()} gives all pools to
+     * drain before forcing the rest down.
+     * @since 2.3
+     */
+    default long getShutdownTimeout()
+    {
+        return DefaultWeftConfig.DEFAULT_SHUTDOWN_TIMEOUT;
+    }
+
+    /**
+     * Pools the named pool's tasks submit work to. On shutdown, they keep taking work until the named pool has
+     * drained.
+     * @since 2.3
+     */
+    default Set<String> getShutdownDependencies( String poolName )
+    {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Whether the named pool should start its core threads as soon as it is created, running any
+     * {@link org.commonjava.cdi.util.weft.ThreadWarmUp} hooks on each new thread, instead of starting threads on
+     * demand.
+     * @since 2.3
+     */
+    default boolean isWarmUp( String poolName )
+    {
+        return false;
+    }
+
+    /**
+     * Time in milliseconds after which idle threads of the named pool exit, down to
+     * {@link #getMinWarmThreads(String)}, or 0 to keep all threads forever.
+     * @since 2.3
+     */
+    default long getKeepAlive( String poolName )
+    {
+        return 0;
+    }
+
+    /**
+     * Number of threads the named pool keeps when idle if {@link #getKeepAlive(String)} is set.
+     * @since 2.3
+     */
+    default int getMinWarmThreads( String poolName )
+    {
+        return 1;
+    }
+
+    /**
+     * CPUs, in cpu-list format such as "2-3,6", that the named pool's threads are bound to, or null to not bind them
+     * except to keep them off {@link #getReservedCpus()}.
+     * @since 2.3
+     */
+    default String getCpuAffinity( String poolName )
+    {
+        return null;
+    }
+
+    /**
+     * CPUs, in cpu-list format, that threads of pools without their own {@link #getCpuAffinity(String)} are kept off;
+     * usually the CPUs given to latency-critical pools. Null or empty to not restrict other pools. Affinities are
+     * applied as each pool is created, so a pool created before this changes keeps its old binding.
+     * <p>
+     * This default returns null, so pinning a pool does not keep others off its CPUs unless the implementation says
+     * so; {@link DefaultWeftConfig} reserves every pool's affinity unless told otherwise.
+     * @since 2.3
+     */
+    default String getReservedCpus()
+    {
+        return null;
+    }
+
+    /**
+     * Register a listener for changes made while the application runs. Configs that never change can ignore this.
+     * @since 2.3
+     */
+    default void addChangeListener( WeftConfigListener listener )
+    {
+    }
+
+    /**
+     * @since 2.3
+     */
+    default void removeChangeListener( WeftConfigListener listener )
+    {
+    }
 }
@@ -0,0 +1,30 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.config;
+
+/**
+ * Notified when a {@link WeftConfig} changes at runtime, so running pools can pick up the new settings.
+ * @since 2.3
+ */
+@FunctionalInterface
+public interface WeftConfigListener
+{
+    /**
+     * @param poolName the pool whose settings changed, or null if a global setting or default changed, which may
+     * affect every pool.
+     */
+    void configChanged( String poolName );
+}
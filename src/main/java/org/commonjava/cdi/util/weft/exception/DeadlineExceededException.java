@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.exception;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Thrown in place of running a task whose {@link org.commonjava.cdi.util.weft.Deadline} passed while it was queued.
+ * @since 2.3
+ */
+public class DeadlineExceededException
+                extends CancellationException
+{
+    private static final long serialVersionUID = 1L;
+
+    private final String poolName;
+
+    private final long overdueMillis;
+
+    public DeadlineExceededException( String poolName, long overdueMillis, Object task )
+    {
+        super( "Deadline passed " + overdueMillis + "ms before task could start in pool: " + poolName + ": " + task );
+        this.poolName = poolName;
+        this.overdueMillis = overdueMillis;
+    }
+
+    public String getPoolName()
+    {
+        return poolName;
+    }
+
+    public long getOverdueMillis()
+    {
+        return overdueMillis;
+    }
+}
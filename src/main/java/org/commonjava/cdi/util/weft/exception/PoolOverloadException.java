@@ -28,13 +28,26 @@ public class PoolOverloadException
 
     private final int threadCount;
 
+    private final Integer concurrencyLimit;
+
     public PoolOverloadException( String poolName, double loadFactor, double currentLoad, final Float maxLoadFactor, int threadCount )
+    {
+        this( poolName, loadFactor, currentLoad, maxLoadFactor, threadCount, null );
+    }
+
+    /**
+     * @param concurrencyLimit the pool's concurrency limit, if that is what the load reached; otherwise null
+     * @since 2.3
+     */
+    public PoolOverloadException( String poolName, double loadFactor, double currentLoad, final Float maxLoadFactor,
+                                  int threadCount, Integer concurrencyLimit )
     {
         this.poolName = poolName;
         this.loadFactor = loadFactor;
         this.currentLoad = currentLoad;
         this.maxLoadFactor = maxLoadFactor;
         this.threadCount = threadCount;
+        this.concurrencyLimit = concurrencyLimit;
     }
 
     public String getPoolName()
@@ -62,10 +75,20 @@ public class PoolOverloadException
         return threadCount;
     }
 
+    /**
+     * @return the concurrency limit the pool's load reached, or null if the submission was shed for another reason.
+     * @since 2.3
+     */
+    public Integer getConcurrencyLimit()
+    {
+        return concurrencyLimit;
+    }
+
     @Override
     public String getMessage()
     {
         return "PoolOverloadException{" + "poolName='" + poolName + '\'' + ", loadFactor=" + loadFactor
-                        + ", currentLoad=" + currentLoad + ", threadCount=" + threadCount + '}';
+                        + ", currentLoad=" + currentLoad + ", threadCount=" + threadCount
+                        + ( concurrencyLimit == null ? "" : ", concurrencyLimit=" + concurrencyLimit ) + '}';
     }
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Additive-increase / multiplicative-decrease: the limit grows by one for each successful sample taken while the pool
+ * is using at least half of it, and is cut by the backoff ratio whenever a task is dropped or exceeds the latency
+ * timeout.
+ * @since 2.3
+ */
+public class AimdConcurrencyLimit
+        implements ConcurrencyLimit
+{
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double backoffRatio;
+
+    private final long timeoutNanos;
+
+    private volatile int limit;
+
+    public AimdConcurrencyLimit( int initialLimit, int minLimit, int maxLimit )
+    {
+        this( initialLimit, minLimit, maxLimit, DEFAULT_BACKOFF_RATIO, DEFAULT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS );
+    }
+
+    public AimdConcurrencyLimit( int initialLimit, int minLimit, int maxLimit, double backoffRatio, long timeout,
+                                 TimeUnit unit )
+    {
+        if ( backoffRatio <= 0 || backoffRatio >= 1 )
+        {
+            throw new IllegalArgumentException( "backoffRatio must be in (0, 1)" );
+        }
+
+        this.minLimit = Math.max( 1, minLimit );
+        this.maxLimit = Math.max( this.minLimit, maxLimit );
+        this.backoffRatio = backoffRatio;
+        this.timeoutNanos = unit.toNanos( timeout );
+        this.limit = Math.max( this.minLimit, Math.min( this.maxLimit, initialLimit ) );
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample( long latencyNanos, long inFlight, boolean dropped )
+    {
+        if ( dropped || latencyNanos > timeoutNanos )
+        {
+            limit = Math.max( minLimit, (int) ( limit * backoffRatio ) );
+        }
+        else if ( inFlight * 2 >= limit )
+        {
+            limit = Math.min( maxLimit, limit + 1 );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return AIMD + "(limit=" + limit + ")";
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controlled-delay (CoDel) shedding driven by how long tasks wait in the queue rather than by how many there are. If
+ * every task starting during one interval waited longer than the target, the queue is standing rather than absorbing
+ * a burst, and the policy enters a dropping state: it rejects one submission, then further ones at intervals shrinking
+ * with {@code interval / sqrt(drops)}, until a task starts with a sojourn below the target or the queue empties (the
+ * load is no more than the thread count). The load factor is still a hard ceiling.
+ * @since 2.3
+ */
+public class CoDelLoadSheddingPolicy
+        implements LoadSheddingPolicy
+{
+    public static final long DEFAULT_TARGET_MILLIS = 5;
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+
+    private final long targetNanos;
+
+    private final long intervalNanos;
+
+    // all guarded by this
+    private long firstAboveTime;
+
+    private boolean dropping;
+
+    private long dropNext;
+
+    private int dropCount;
+
+    public CoDelLoadSheddingPolicy()
+    {
+        this( DEFAULT_TARGET_MILLIS, DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS );
+    }
+
+    public CoDelLoadSheddingPolicy( long target, long interval, TimeUnit unit )
+    {
+        this.targetNanos = unit.toNanos( target );
+        this.intervalNanos = unit.toNanos( interval );
+    }
+
+    @Override
+    public synchronized void recordSojourn( long sojournNanos )
+    {
+        long now = System.nanoTime();
+        if ( sojournNanos < targetNanos )
+        {
+            firstAboveTime = 0;
+            dropping = false;
+            return;
+        }
+
+        if ( firstAboveTime == 0 )
+        {
+            firstAboveTime = now + intervalNanos;
+        }
+        else if ( !dropping && now - firstAboveTime >= 0 )
+        {
+            dropping = true;
+            dropNext = now;
+
+            // resume near the previous drop rate if we only just left the dropping state.
+            dropCount = dropCount > 2 ? dropCount - 2 : 1;
+        }
+    }
+
+    @Override
+    public boolean shouldShed( double loadFactor, float maxLoadFactor, int priority )
+    {
+        if ( loadFactor >= maxLoadFactor )
+        {
+            return true;
+        }
+
+        synchronized ( this )
+        {
+            if ( loadFactor <= 1 )
+            {
+                // nothing is queued, so the queue is not standing, however long the last task waited.
+                firstAboveTime = 0;
+                dropping = false;
+            }
+
+            if ( !dropping )
+            {
+                return false;
+            }
+
+            long now = System.nanoTime();
+            if ( now - dropNext < 0 )
+            {
+                return false;
+            }
+
+            dropCount++;
+            dropNext = now + (long) ( intervalNanos / Math.sqrt( dropCount ) );
+            return true;
+        }
+    }
+
+    public synchronized boolean isDropping()
+    {
+        return dropping;
+    }
+
+    @Override
+    public String toString()
+    {
+        return CODEL + "(target=" + TimeUnit.NANOSECONDS.toMillis( targetNanos ) + "ms, interval="
+                + TimeUnit.NANOSECONDS.toMillis( intervalNanos ) + "ms)";
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+/**
+ * Adaptive limit on the number of tasks a {@link org.commonjava.cdi.util.weft.PoolWeftExecutorService} accepts at once
+ * (queued plus running). The pool rejects submissions with
+ * {@link org.commonjava.cdi.util.weft.exception.PoolOverloadException} while its load is at the limit, and reports the
+ * latency of every finished task, from submission to completion, so the limit can follow what the pool's downstream
+ * can actually sustain.
+ * @since 2.3
+ */
+public interface ConcurrencyLimit
+{
+    String AIMD = "aimd";
+
+    String VEGAS = "vegas";
+
+    String GRADIENT = "gradient";
+
+    int getLimit();
+
+    /**
+     * @param latencyNanos time from submission to completion of one task
+     * @param inFlight the pool's load when the task finished
+     * @param dropped true if the task did not complete normally, because it ran out of time or threw
+     */
+    void onSample( long latencyNanos, long inFlight, boolean dropped );
+
+    /**
+     * @return a limit with default tuning for one of the names {@link #AIMD}, {@link #VEGAS} or {@link #GRADIENT},
+     * starting at initialLimit and never exceeding maxLimit.
+     */
+    static ConcurrencyLimit forName( String name, int initialLimit, int maxLimit )
+    {
+        switch ( name.trim().toLowerCase() )
+        {
+            case AIMD:
+                return new AimdConcurrencyLimit( initialLimit, 1, maxLimit );
+            case VEGAS:
+                return new VegasConcurrencyLimit( initialLimit, 1, maxLimit );
+            case GRADIENT:
+                return new GradientConcurrencyLimit( initialLimit, 1, maxLimit );
+            default:
+                throw new IllegalArgumentException( "Unknown concurrency limit: " + name );
+        }
+    }
+}
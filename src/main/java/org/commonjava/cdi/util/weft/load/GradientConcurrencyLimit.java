@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+/**
+ * Gradient limit: compares a slow moving average of latency with the latest sample. While the latest sample is no
+ * worse than the average (within a tolerance), the limit grows by a queue allowance of {@code sqrt(limit)}; as latency
+ * rises above the average, the limit is scaled down by {@code tolerance * longLatency / latency}, never by more than
+ * half. Changes are smoothed to keep the limit from jittering.
+ * @since 2.3
+ */
+public class GradientConcurrencyLimit
+        implements ConcurrencyLimit
+{
+    public static final double DEFAULT_TOLERANCE = 1.5;
+
+    public static final double DEFAULT_SMOOTHING = 0.2;
+
+    public static final int DEFAULT_LONG_WINDOW = 600;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double tolerance;
+
+    private final double smoothing;
+
+    private final int longWindow;
+
+    private volatile int limit;
+
+    // guarded by this
+    private double estimate;
+
+    private double longLatency;
+
+    public GradientConcurrencyLimit( int initialLimit, int minLimit, int maxLimit )
+    {
+        this( initialLimit, minLimit, maxLimit, DEFAULT_TOLERANCE, DEFAULT_SMOOTHING, DEFAULT_LONG_WINDOW );
+    }
+
+    public GradientConcurrencyLimit( int initialLimit, int minLimit, int maxLimit, double tolerance, double smoothing,
+                                     int longWindow )
+    {
+        this.minLimit = Math.max( 1, minLimit );
+        this.maxLimit = Math.max( this.minLimit, maxLimit );
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+        this.longWindow = longWindow;
+        this.limit = Math.max( this.minLimit, Math.min( this.maxLimit, initialLimit ) );
+        this.estimate = limit;
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample( long latencyNanos, long inFlight, boolean dropped )
+    {
+        if ( latencyNanos <= 0 )
+        {
+            return;
+        }
+
+        if ( longLatency == 0 )
+        {
+            longLatency = latencyNanos;
+        }
+        else
+        {
+            longLatency += ( latencyNanos - longLatency ) / longWindow;
+        }
+
+        // don't grow the limit while the pool is not using most of it.
+        if ( !dropped && inFlight < estimate / 2 )
+        {
+            return;
+        }
+
+        double gradient = dropped ? 0.5 : Math.max( 0.5, Math.min( 1.0, tolerance * longLatency / latencyNanos ) );
+        double target = estimate * gradient + Math.sqrt( estimate );
+
+        estimate = estimate * ( 1 - smoothing ) + target * smoothing;
+        estimate = Math.max( minLimit, Math.min( maxLimit, estimate ) );
+        limit = (int) estimate;
+    }
+
+    @Override
+    public String toString()
+    {
+        return GRADIENT + "(limit=" + limit + ")";
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+/**
+ * Decides whether a load-sensitive {@link org.commonjava.cdi.util.weft.PoolWeftExecutorService} should refuse a new
+ * task with {@link org.commonjava.cdi.util.weft.exception.PoolOverloadException}. Policies are consulted on every
+ * submission, so they must be cheap and thread-safe.
+ * @since 2.3
+ */
+public interface LoadSheddingPolicy
+{
+    /**
+     * {@link org.commonjava.cdi.util.weft.ThreadContext} key holding the submitter's priority, an Integer from
+     * {@link #MIN_PRIORITY} to {@link #MAX_PRIORITY}. Higher values are shed later.
+     */
+    String PRIORITY_KEY = "weft.task-priority";
+
+    int MIN_PRIORITY = 0;
+
+    int NORM_PRIORITY = 5;
+
+    int MAX_PRIORITY = 10;
+
+    String THRESHOLD = "threshold";
+
+    String PROBABILISTIC = "probabilistic";
+
+    String PRIORITY = "priority";
+
+    String CODEL = "codel";
+
+    /**
+     * @param loadFactor current load (queued plus running tasks) per thread
+     * @param maxLoadFactor the pool's configured maximum load factor
+     * @param priority the submitter's priority, or {@link #NORM_PRIORITY} if none was given
+     * @return true to reject the task
+     */
+    boolean shouldShed( double loadFactor, float maxLoadFactor, int priority );
+
+    /**
+     * Called as each task starts running, with the time it spent queued.
+     */
+    default void recordSojourn( long sojournNanos )
+    {
+    }
+
+    /**
+     * @return a policy with default settings for one of the names {@link #THRESHOLD}, {@link #PROBABILISTIC},
+     * {@link #PRIORITY} or {@link #CODEL}.
+     */
+    static LoadSheddingPolicy forName( String name )
+    {
+        if ( name == null )
+        {
+            return new ThresholdLoadSheddingPolicy();
+        }
+
+        switch ( name.trim().toLowerCase() )
+        {
+            case THRESHOLD:
+                return new ThresholdLoadSheddingPolicy();
+            case PROBABILISTIC:
+                return new ProbabilisticLoadSheddingPolicy();
+            case PRIORITY:
+                return new PriorityLoadSheddingPolicy();
+            case CODEL:
+                return new CoDelLoadSheddingPolicy();
+            default:
+                throw new IllegalArgumentException( "Unknown load shedding policy: " + name );
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+/**
+ * Gives each priority its own share of the pool: a task is shed once the load factor reaches
+ * {@code maxLoadFactor * (minFraction + (1 - minFraction) * priority / MAX_PRIORITY)}. The lowest priority is shed at
+ * {@code minFraction} of the maximum, while the highest may use all of it, so background work backs off first.
+ * @since 2.3
+ */
+public class PriorityLoadSheddingPolicy
+        implements LoadSheddingPolicy
+{
+    public static final float DEFAULT_MIN_FRACTION = 0.5f;
+
+    private final float minFraction;
+
+    public PriorityLoadSheddingPolicy()
+    {
+        this( DEFAULT_MIN_FRACTION );
+    }
+
+    public PriorityLoadSheddingPolicy( float minFraction )
+    {
+        if ( minFraction <= 0 || minFraction > 1 )
+        {
+            throw new IllegalArgumentException( "minFraction must be in (0, 1]" );
+        }
+
+        this.minFraction = minFraction;
+    }
+
+    @Override
+    public boolean shouldShed( double loadFactor, float maxLoadFactor, int priority )
+    {
+        int p = Math.max( MIN_PRIORITY, Math.min( MAX_PRIORITY, priority ) );
+        double limit = maxLoadFactor * ( minFraction + ( 1 - minFraction ) * p / MAX_PRIORITY );
+        return loadFactor >= limit;
+    }
+
+    @Override
+    public String toString()
+    {
+        return PRIORITY + "(minFraction=" + minFraction + ")";
+    }
+}
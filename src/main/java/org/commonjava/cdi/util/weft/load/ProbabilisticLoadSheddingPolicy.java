@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Random early rejection: below {@code startFraction * maxLoadFactor} nothing is shed; from there the rejection
+ * probability rises linearly to 1 at the maximum. Clients see a gradually increasing error rate instead of a cliff, so
+ * their retries spread out rather than arriving in lockstep.
+ * @since 2.3
+ */
+public class ProbabilisticLoadSheddingPolicy
+        implements LoadSheddingPolicy
+{
+    public static final float DEFAULT_START_FRACTION = 0.7f;
+
+    private final float startFraction;
+
+    public ProbabilisticLoadSheddingPolicy()
+    {
+        this( DEFAULT_START_FRACTION );
+    }
+
+    public ProbabilisticLoadSheddingPolicy( float startFraction )
+    {
+        if ( startFraction < 0 || startFraction >= 1 )
+        {
+            throw new IllegalArgumentException( "startFraction must be in [0, 1)" );
+        }
+
+        this.startFraction = startFraction;
+    }
+
+    @Override
+    public boolean shouldShed( double loadFactor, float maxLoadFactor, int priority )
+    {
+        double probability = sheddingProbability( loadFactor, maxLoadFactor );
+        return probability > 0 && ( probability >= 1 || ThreadLocalRandom.current().nextDouble() < probability );
+    }
+
+    double sheddingProbability( double loadFactor, float maxLoadFactor )
+    {
+        double start = maxLoadFactor * startFraction;
+        if ( loadFactor < start )
+        {
+            return 0;
+        }
+        if ( loadFactor >= maxLoadFactor )
+        {
+            return 1;
+        }
+
+        return ( loadFactor - start ) / ( maxLoadFactor - start );
+    }
+
+    @Override
+    public String toString()
+    {
+        return PROBABILISTIC + "(start=" + startFraction + ")";
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+/**
+ * Rejects everything once the load factor reaches its maximum, and nothing before. This is the original Weft behaviour.
+ * @since 2.3
+ */
+public class ThresholdLoadSheddingPolicy
+        implements LoadSheddingPolicy
+{
+    @Override
+    public boolean shouldShed( double loadFactor, float maxLoadFactor, int priority )
+    {
+        return loadFactor >= maxLoadFactor;
+    }
+
+    @Override
+    public String toString()
+    {
+        return THRESHOLD;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+/**
+ * TCP Vegas style limit. The lowest latency seen approximates the no-load latency, and
+ * {@code limit * (1 - minLatency / latency)} estimates how many tasks are queued rather than being served. The limit
+ * grows while that estimate is below alpha, shrinks once it is above beta, and backs off by half when a task is
+ * dropped. The no-load estimate is re-learned every so many samples, so a lasting shift in downstream latency is not
+ * mistaken for queueing forever.
+ * @since 2.3
+ */
+public class VegasConcurrencyLimit
+        implements ConcurrencyLimit
+{
+    public static final int DEFAULT_PROBE_INTERVAL = 1000;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final int probeInterval;
+
+    private volatile int limit;
+
+    // guarded by this
+    private long minLatency = Long.MAX_VALUE;
+
+    private int samplesSinceProbe;
+
+    public VegasConcurrencyLimit( int initialLimit, int minLimit, int maxLimit )
+    {
+        this( initialLimit, minLimit, maxLimit, DEFAULT_PROBE_INTERVAL );
+    }
+
+    public VegasConcurrencyLimit( int initialLimit, int minLimit, int maxLimit, int probeInterval )
+    {
+        this.minLimit = Math.max( 1, minLimit );
+        this.maxLimit = Math.max( this.minLimit, maxLimit );
+        this.probeInterval = probeInterval;
+        this.limit = Math.max( this.minLimit, Math.min( this.maxLimit, initialLimit ) );
+    }
+
+    @Override
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    @Override
+    public synchronized void onSample( long latencyNanos, long inFlight, boolean dropped )
+    {
+        if ( ++samplesSinceProbe >= probeInterval )
+        {
+            samplesSinceProbe = 0;
+            minLatency = latencyNanos;
+        }
+
+        if ( latencyNanos <= 0 )
+        {
+            return;
+        }
+
+        minLatency = Math.min( minLatency, latencyNanos );
+
+        int current = limit;
+        if ( dropped )
+        {
+            limit = Math.max( minLimit, current / 2 );
+            return;
+        }
+
+        double log = Math.max( 1, Math.log10( current ) );
+        double alpha = 3 * log;
+        double beta = 6 * log;
+        double queued = current * ( 1 - (double) minLatency / latencyNanos );
+
+        if ( queued < alpha && inFlight * 2 >= current )
+        {
+            limit = Math.min( maxLimit, current + (int) log );
+        }
+        else if ( queued > beta )
+        {
+            limit = Math.max( minLimit, current - (int) log );
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return VEGAS + "(limit=" + limit + ")";
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CancellationTokenTest
+{
+    private final PoolWeftExecutorService pool =
+            new PoolWeftExecutorService( "cancel-test", (ThreadPoolExecutor) Executors.newFixedThreadPool( 1 ) );
+
+    /**
+     * Cancel a request while one of its subtasks is running and more are queued behind it. The running one should see
+     * the cancellation by polling, the queued ones should never start, and new submissions should be rejected.
+     */
+    @Test
+    public void cancelledRequestSkipsQueuedSubtasks()
+            throws Exception
+    {
+        CancellationToken token = new CancellationToken();
+        ThreadContext.getContext( true ).setCancellationToken( token );
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        AtomicInteger ran = new AtomicInteger( 0 );
+
+        Future<Boolean> running = pool.submit( () -> {
+            started.countDown();
+            while ( !CancellationToken.isCurrentCancelled() )
+            {
+                Thread.sleep( 5 );
+            }
+            return true;
+        } );
+
+        List<Future<?>> queued = new ArrayList<>();
+        for ( int i = 0; i < 10; i++ )
+        {
+            queued.add( pool.submit( ran::incrementAndGet ) );
+        }
+
+        assertThat( started.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        token.cancel( "client went away" );
+
+        assertThat( running.get( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        for ( Future<?> f : queued )
+        {
+            try
+            {
+                f.get( 5, TimeUnit.SECONDS );
+                fail( "Queued task should have been skipped" );
+            }
+            catch ( ExecutionException e )
+            {
+                assertThat( e.getCause(), instanceOf( CancellationException.class ) );
+            }
+        }
+
+        try
+        {
+            pool.submit( ran::incrementAndGet );
+            fail( "Submission should have been rejected" );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // expected
+        }
+
+        assertThat( ran.get(), equalTo( 0 ) );
+        assertThat( pool.getCancelledTaskCount(), equalTo( 11L ) );
+    }
+
+    @Test
+    public void childIsCancelledWithParent()
+    {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.child();
+
+        child.cancel();
+        assertThat( parent.isCancelled(), equalTo( false ) );
+
+        CancellationToken other = parent.child();
+        parent.cancel( "done" );
+        assertThat( other.isCancelled(), equalTo( true ) );
+        assertThat( other.getReason(), equalTo( "done" ) );
+    }
+
+    /**
+     * Listeners fire once, for cancellation of the token or any ancestor, and not after removal.
+     */
+    @Test
+    public void listenersFireOnceOnAncestorCancel()
+    {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.child();
+
+        AtomicInteger fired = new AtomicInteger( 0 );
+        Runnable listener = fired::incrementAndGet;
+        child.addCancelListener( listener );
+
+        AtomicInteger removed = new AtomicInteger( 0 );
+        Runnable removedListener = removed::incrementAndGet;
+        child.addCancelListener( removedListener );
+        child.removeCancelListener( removedListener );
+
+        parent.cancel();
+        child.cancel();
+        assertThat( fired.get(), equalTo( 1 ) );
+        assertThat( removed.get(), equalTo( 0 ) );
+
+        child.addCancelListener( fired::incrementAndGet );
+        assertThat( fired.get(), equalTo( 2 ) );
+    }
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+        ThreadContext.clearContext();
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ConcurrentContextSensitiveWeakHashMapTest
+{
+    private final PoolWeftExecutorService executor =
+            new PoolWeftExecutorService( "concurrent-map-test", (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 ) );
+
+    /**
+     * Many tasks sharing one {@link ThreadContext} race to create the same lock. They should all get the same
+     * instance, it should survive GC while the context is alive, and be collected once the context is cleared.
+     */
+    @Test
+    public void run()
+            throws Exception
+    {
+        String path = "foo/bar/bar-1.0.pom";
+
+        ThreadContext.getContext( true );
+
+        final ConcurrentContextSensitiveWeakHashMap<String, ReentrantLock> map =
+                new ConcurrentContextSensitiveWeakHashMap<>();
+
+        List<Future<ReentrantLock>> futures = new ArrayList<>();
+        for ( int i = 0; i < 32; i++ )
+        {
+            futures.add( executor.submit( () -> map.computeIfAbsent( new String( path ), k -> new ReentrantLock() ) ) );
+        }
+
+        ReentrantLock lock = futures.get( 0 ).get();
+        for ( Future<ReentrantLock> f : futures )
+        {
+            assertThat( f.get(), sameInstance( lock ) );
+        }
+
+        Runtime.getRuntime().gc();
+
+        assertThat( map.get( new String( path ) ), sameInstance( lock ) );
+        assertThat( map.size(), equalTo( 1 ) );
+
+        ThreadContext.clearContext();
+
+        Runtime.getRuntime().gc();
+
+        assertThat( map.get( new String( path ) ), nullValue() );
+    }
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        ThreadContext.clearContext();
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.commonjava.cdi.util.weft.config.DefaultWeftConfig;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class CpuAffinityTest
+{
+    /**
+     * Threads from a factory with an affinity bind themselves before running; the kernel's view of the thread is
+     * checked through /proc.
+     */
+    @Test
+    public void threadsAreBoundToCpus()
+            throws Exception
+    {
+        TasksetAffinityBinder binder = new TasksetAffinityBinder();
+        assumeTrue( binder.isSupported() );
+
+        CpuSet cpus = CpuSet.parse( "0" );
+        NamedThreadFactory factory = new NamedThreadFactory( "pinned", new ThreadGroup( "pinned" ), true, 5 );
+        factory.setAffinity( cpus, binder );
+
+        CompletableFuture<String> allowed = new CompletableFuture<>();
+        Thread t = factory.newThread( () -> {
+            try
+            {
+                allowed.complete( Files.readAllLines( Paths.get( "/proc/thread-self/status" ) )
+                                       .stream()
+                                       .filter( l -> l.startsWith( "Cpus_allowed_list:" ) )
+                                       .map( l -> l.substring( l.indexOf( ':' ) + 1 ).trim() )
+                                       .findFirst()
+                                       .orElse( "" ) );
+            }
+            catch ( Exception e )
+            {
+                allowed.completeExceptionally( e );
+            }
+        } );
+        t.start();
+
+        assertThat( CpuSet.parse( allowed.get( 20, TimeUnit.SECONDS ) ), equalTo( cpus ) );
+    }
+
+    /**
+     * Pinning pools keeps other pools off their CPUs unless reserved CPUs are given, or cleared, explicitly.
+     */
+    @Test
+    public void pinnedCpusAreReservedByDefault()
+    {
+        DefaultWeftConfig config = new DefaultWeftConfig();
+        assertThat( config.getReservedCpus(), nullValue() );
+
+        config.configureCpuAffinity( "fast", "2-3" ).configureCpuAffinity( "faster", "4" );
+        assertThat( config.getReservedCpus(), equalTo( "2-4" ) );
+
+        config.configureReservedCpus( "" );
+        assertThat( CpuSet.parse( config.getReservedCpus() ).isEmpty(), equalTo( true ) );
+
+        config.configureReservedCpus( "6" );
+        assertThat( config.getReservedCpus(), equalTo( "6" ) );
+    }
+
+    @Test
+    public void bindingFailureDoesNotStopThread()
+            throws Exception
+    {
+        NamedThreadFactory factory = new NamedThreadFactory( "unbound", new ThreadGroup( "unbound" ), true, 5 );
+        factory.setAffinity( CpuSet.parse( "0" ), new TasksetAffinityBinder( "/no/such/taskset" ) );
+
+        CompletableFuture<Boolean> ran = new CompletableFuture<>();
+        factory.newThread( () -> ran.complete( true ) ).start();
+
+        assertThat( ran.get( 20, TimeUnit.SECONDS ), equalTo( true ) );
+    }
+}
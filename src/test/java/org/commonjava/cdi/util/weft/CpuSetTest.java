@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class CpuSetTest
+{
+    @Test
+    public void parseAndFormatRanges()
+    {
+        CpuSet cpus = CpuSet.parse( " 8, 0-3,10-11 " );
+        assertThat( cpus.size(), equalTo( 7 ) );
+        assertThat( cpus.contains( 2 ), equalTo( true ) );
+        assertThat( cpus.contains( 9 ), equalTo( false ) );
+        assertThat( cpus.toString(), equalTo( "0-3,8,10-11" ) );
+        assertThat( CpuSet.parse( null ), equalTo( CpuSet.EMPTY ) );
+        assertThat( CpuSet.parse( "" ).isEmpty(), equalTo( true ) );
+    }
+
+    @Test
+    public void minusAndUnion()
+    {
+        CpuSet all = CpuSet.parse( "0-7" );
+        CpuSet reserved = CpuSet.parse( "2-3" );
+        assertThat( all.minus( reserved ).toString(), equalTo( "0-1,4-7" ) );
+        assertThat( all.minus( reserved ).union( reserved ), equalTo( all ) );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectMalformedList()
+    {
+        CpuSet.parse( "1-x" );
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void rejectReversedRange()
+    {
+        CpuSet.parse( "3-1" );
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.commonjava.cdi.util.weft.exception.DeadlineExceededException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DeadlineOrderedThreadPoolExecutorTest
+{
+    private final PoolWeftExecutorService pool = new PoolWeftExecutorService( "deadline-test",
+            new DeadlineOrderedThreadPoolExecutor( 1, new NamedThreadFactory( "deadline-test", new ThreadGroup( "deadline-test" ), true, 5 ) ) );
+
+    /**
+     * Hold the only worker while tasks queue up. Once it is free, queued tasks should run earliest deadline first, tasks
+     * without a deadline last, and the task whose deadline passed in the queue should be dropped.
+     */
+    @Test
+    public void earliestDeadlineRunsFirstAndExpiredIsDropped()
+            throws Exception
+    {
+        CountDownLatch hold = new CountDownLatch( 1 );
+        pool.submit( () -> {
+            hold.await();
+            return null;
+        } );
+
+        List<String> order = Collections.synchronizedList( new ArrayList<>() );
+        Future<?> none = pool.submit( () -> order.add( "none" ) );
+        Future<?> late = pool.submit( () -> order.add( "late" ), Deadline.after( 20, TimeUnit.SECONDS ) );
+        Future<?> soon = pool.submit( () -> order.add( "soon" ), Deadline.after( 10, TimeUnit.SECONDS ) );
+        Future<?> doomed = pool.submit( () -> order.add( "doomed" ), Deadline.after( 50, TimeUnit.MILLISECONDS ) );
+
+        Thread.sleep( 100 );
+        hold.countDown();
+
+        none.get( 5, TimeUnit.SECONDS );
+        late.get( 5, TimeUnit.SECONDS );
+        soon.get( 5, TimeUnit.SECONDS );
+        try
+        {
+            doomed.get( 5, TimeUnit.SECONDS );
+            fail( "Expired task should not have run" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertThat( e.getCause(), instanceOf( DeadlineExceededException.class ) );
+        }
+
+        assertThat( order, equalTo( List.of( "soon", "late", "none" ) ) );
+        assertThat( pool.getExpiredTaskCount(), equalTo( 1L ) );
+    }
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+}
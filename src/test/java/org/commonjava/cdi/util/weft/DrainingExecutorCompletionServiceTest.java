@@ -0,0 +1,233 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class DrainingExecutorCompletionServiceTest
+{
+    private final ExecutorService pool = Executors.newFixedThreadPool( 4 );
+
+    private final ExecutorService delivery = Executors.newSingleThreadExecutor();
+
+    @Test
+    public void streamKeepsGoingPastFailures()
+    {
+        DrainingExecutorCompletionService<Integer> service = new DrainingExecutorCompletionService<>( pool );
+        for ( int i = 0; i < 50; i++ )
+        {
+            int idx = i;
+            service.submit( () -> {
+                if ( idx % 10 == 0 )
+                {
+                    throw new IllegalStateException( "failed: " + idx );
+                }
+                return idx;
+            } );
+        }
+
+        List<DrainingExecutorCompletionService.Completion<Integer>> all = service.stream().collect( Collectors.toList() );
+
+        assertThat( all.size(), equalTo( 50 ) );
+        assertThat( all.stream().filter( c -> !c.isSuccess() ).count(), equalTo( 5L ) );
+        assertThat( service.getCurrentCount(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void drainToFlushesBatches()
+            throws Exception
+    {
+        DrainingExecutorCompletionService<Integer> service = new DrainingExecutorCompletionService<>( pool );
+        for ( int i = 0; i < 25; i++ )
+        {
+            int idx = i;
+            service.submit( () -> idx );
+        }
+
+        AtomicInteger batches = new AtomicInteger( 0 );
+        int drained = service.drainTo( batch -> {
+            assertThat( batch.size() <= 10, equalTo( true ) );
+            batches.incrementAndGet();
+        }, 10, 5, TimeUnit.SECONDS );
+
+        assertThat( drained, equalTo( 25 ) );
+        assertThat( batches.get(), equalTo( 3 ) );
+    }
+
+    /**
+     * The subscriber asks for one result at a time; nothing is taken from the service beyond what it requested.
+     */
+    @Test
+    public void publisherHonoursDemand()
+            throws Exception
+    {
+        DrainingExecutorCompletionService<Integer> service = new DrainingExecutorCompletionService<>( pool );
+        for ( int i = 0; i < 20; i++ )
+        {
+            int idx = i;
+            service.submit( () -> idx );
+        }
+
+        CountDownLatch first = new CountDownLatch( 1 );
+        CountDownLatch complete = new CountDownLatch( 1 );
+        AtomicInteger received = new AtomicInteger( 0 );
+        Flow.Subscription[] subscription = new Flow.Subscription[1];
+
+        service.publisher( delivery ).subscribe( new Flow.Subscriber<DrainingExecutorCompletionService.Completion<Integer>>()
+        {
+            @Override
+            public void onSubscribe( Flow.Subscription s )
+            {
+                subscription[0] = s;
+                s.request( 1 );
+            }
+
+            @Override
+            public void onNext( DrainingExecutorCompletionService.Completion<Integer> item )
+            {
+                received.incrementAndGet();
+                first.countDown();
+            }
+
+            @Override
+            public void onError( Throwable throwable )
+            {
+            }
+
+            @Override
+            public void onComplete()
+            {
+                complete.countDown();
+            }
+        } );
+
+        assertThat( first.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        Thread.sleep( 100 );
+        assertThat( received.get(), equalTo( 1 ) );
+        assertThat( service.getCurrentCount(), equalTo( 19 ) );
+
+        subscription[0].request( Long.MAX_VALUE );
+        assertThat( complete.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( received.get(), equalTo( 20 ) );
+    }
+
+    /**
+     * A non-positive request is an error, signalled from the delivery thread like every other signal, and ends the
+     * subscription.
+     */
+    @Test
+    public void invalidRequestSignalsErrorOnDeliveryThread()
+            throws Exception
+    {
+        DrainingExecutorCompletionService<Integer> service = new DrainingExecutorCompletionService<>( pool );
+        service.submit( () -> 1 );
+
+        Thread deliveryThread = delivery.submit( Thread::currentThread ).get( 5, TimeUnit.SECONDS );
+        CountDownLatch failed = new CountDownLatch( 1 );
+        AtomicReference<Thread> errorThread = new AtomicReference<>();
+        AtomicInteger received = new AtomicInteger( 0 );
+
+        service.publisher( delivery ).subscribe( new Flow.Subscriber<DrainingExecutorCompletionService.Completion<Integer>>()
+        {
+            @Override
+            public void onSubscribe( Flow.Subscription s )
+            {
+                s.request( 0 );
+            }
+
+            @Override
+            public void onNext( DrainingExecutorCompletionService.Completion<Integer> item )
+            {
+                received.incrementAndGet();
+            }
+
+            @Override
+            public void onError( Throwable throwable )
+            {
+                errorThread.set( Thread.currentThread() );
+                failed.countDown();
+            }
+
+            @Override
+            public void onComplete()
+            {
+            }
+        } );
+
+        assertThat( failed.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( errorThread.get(), equalTo( deliveryThread ) );
+        assertThat( received.get(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void inFlightWindowBoundsOutstandingTasks()
+            throws Exception
+    {
+        DrainingExecutorCompletionService<Integer> service = new DrainingExecutorCompletionService<>( pool, 3 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        for ( int i = 0; i < 3; i++ )
+        {
+            int idx = i;
+            assertThat( service.trySubmit( () -> {
+                release.await();
+                return idx;
+            } ) != null, equalTo( true ) );
+        }
+
+        assertThat( service.trySubmit( () -> 3 ), nullValue() );
+        try
+        {
+            service.submit( () -> 3, 50, TimeUnit.MILLISECONDS );
+            fail( "Window should be full" );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // expected
+        }
+
+        release.countDown();
+        service.take();
+        assertThat( service.trySubmit( () -> 3 ) != null, equalTo( true ) );
+
+        int drained = service.drainTo( batch -> {}, 10, 5, TimeUnit.SECONDS );
+        assertThat( drained, equalTo( 3 ) );
+        assertThat( service.getCurrentCount(), equalTo( 0 ) );
+    }
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+        delivery.shutdownNow();
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class KeepAliveTest
+{
+    private final ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 );
+
+    private final PoolWeftExecutorService pool = new PoolWeftExecutorService( "kept", executor, 4, 10f, false );
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    /**
+     * The pool grows to its full size under load, and shrinks back to the warm minimum once idle for the keep-alive.
+     */
+    @Test
+    public void idleThreadsExitDownToMinimum()
+            throws Exception
+    {
+        pool.setKeepAlive( 100, TimeUnit.MILLISECONDS, 1 );
+        assertThat( executor.getCorePoolSize(), equalTo( 1 ) );
+
+        CountDownLatch running = new CountDownLatch( 4 );
+        CountDownLatch hold = new CountDownLatch( 1 );
+        for ( int i = 0; i < 4; i++ )
+        {
+            pool.execute( () -> {
+                running.countDown();
+                try
+                {
+                    hold.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+        }
+
+        assertThat( running.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( executor.getPoolSize(), equalTo( 4 ) );
+
+        hold.countDown();
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( executor.getPoolSize() > 1 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertThat( executor.getPoolSize(), equalTo( 1 ) );
+        assertThat( executor.getCorePoolSize(), equalTo( 1 ) );
+    }
+}
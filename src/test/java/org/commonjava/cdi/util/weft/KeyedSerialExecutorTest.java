@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.commonjava.cdi.util.weft.exception.PoolOverloadException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class KeyedSerialExecutorTest
+{
+    private final PoolWeftExecutorService pool =
+            new PoolWeftExecutorService( "serial-test", (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 ) );
+
+    /**
+     * Interleave submissions for several keys. Each key's tasks must run in submission order with no overlap, while
+     * the keys themselves share the pool.
+     */
+    @Test
+    public void sameKeyRunsInOrderWithoutOverlap()
+            throws Exception
+    {
+        KeyedSerialExecutor<String> serial = new KeyedSerialExecutor<>( pool, 8 );
+
+        int keys = 6;
+        int perKey = 500;
+        Map<String, List<Integer>> seen = new HashMap<>();
+        Map<String, AtomicBoolean> running = new HashMap<>();
+        AtomicInteger overlaps = new AtomicInteger( 0 );
+        for ( int k = 0; k < keys; k++ )
+        {
+            seen.put( "repo-" + k, Collections.synchronizedList( new ArrayList<>() ) );
+            running.put( "repo-" + k, new AtomicBoolean( false ) );
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        for ( int i = 0; i < perKey; i++ )
+        {
+            for ( int k = 0; k < keys; k++ )
+            {
+                String key = "repo-" + k;
+                int seq = i;
+                futures.add( serial.submit( key, () -> {
+                    if ( !running.get( key ).compareAndSet( false, true ) )
+                    {
+                        overlaps.incrementAndGet();
+                    }
+
+                    seen.get( key ).add( seq );
+                    running.get( key ).set( false );
+                } ) );
+            }
+        }
+
+        for ( Future<?> f : futures )
+        {
+            f.get();
+        }
+
+        assertThat( overlaps.get(), equalTo( 0 ) );
+        for ( List<Integer> order : seen.values() )
+        {
+            assertThat( order.size(), equalTo( perKey ) );
+            for ( int i = 0; i < perKey; i++ )
+            {
+                assertThat( order.get( i ), equalTo( i ) );
+            }
+        }
+
+        assertThat( serial.getQueuedTaskCount(), equalTo( 0 ) );
+    }
+
+    /**
+     * An overloaded pool refusing a drain must not strand the key: its pending tasks fail with the overload, and later
+     * submissions for the key run once the pool has room again.
+     */
+    @Test
+    public void overloadFailsPendingTasksAndReleasesKey()
+            throws Exception
+    {
+        PoolWeftExecutorService sensitive =
+                new PoolWeftExecutorService( "serial-overload", (ThreadPoolExecutor) Executors.newFixedThreadPool( 1 ),
+                                             1, 0.5f, true );
+        try
+        {
+            KeyedSerialExecutor<String> serial = new KeyedSerialExecutor<>( sensitive, 1 );
+
+            // with a batch size of 1, the running drain counts against the pool when it tries to reschedule itself.
+            CountDownLatch started = new CountDownLatch( 1 );
+            CountDownLatch hold = new CountDownLatch( 1 );
+            Future<?> first = serial.submit( "key", () -> {
+                started.countDown();
+                assertTrue( hold.await( 5, TimeUnit.SECONDS ) );
+                return null;
+            } );
+            assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+            Future<?> second = serial.submit( "key", () -> {} );
+            try
+            {
+                serial.submit( "other", () -> {} );
+                throw new AssertionError( "Expected the overloaded pool to refuse a new key" );
+            }
+            catch ( PoolOverloadException e )
+            {
+                assertThat( serial.getActiveKeyCount(), equalTo( 1 ) );
+            }
+
+            hold.countDown();
+            first.get( 5, TimeUnit.SECONDS );
+            try
+            {
+                second.get( 5, TimeUnit.SECONDS );
+                throw new AssertionError( "Expected the pending task to fail" );
+            }
+            catch ( ExecutionException e )
+            {
+                assertThat( e.getCause(), instanceOf( PoolOverloadException.class ) );
+            }
+
+            assertThat( serial.getActiveKeyCount(), equalTo( 0 ) );
+            assertThat( serial.getQueuedTaskCount(), equalTo( 0 ) );
+
+            while ( sensitive.getCurrentLoad() > 0 )
+            {
+                Thread.sleep( 10 );
+            }
+
+            assertThat( serial.submit( "key", () -> "ran" ).get( 5, TimeUnit.SECONDS ), equalTo( "ran" ) );
+        }
+        finally
+        {
+            sensitive.shutdownNow();
+        }
+    }
+
+    /**
+     * Cancelling the request that happened to schedule a key's drain skips only that request's tasks.
+     */
+    @Test
+    public void cancelledSubmitterDoesNotStrandOthers()
+            throws Exception
+    {
+        PoolWeftExecutorService single =
+                new PoolWeftExecutorService( "serial-cancel", (ThreadPoolExecutor) Executors.newFixedThreadPool( 1 ) );
+        try
+        {
+            KeyedSerialExecutor<String> serial = new KeyedSerialExecutor<>( single );
+
+            CountDownLatch hold = new CountDownLatch( 1 );
+            single.submit( () -> {
+                assertTrue( hold.await( 5, TimeUnit.SECONDS ) );
+                return null;
+            } );
+
+            CancellationToken first = new CancellationToken();
+            ThreadContext.getContext( true ).setCancellationToken( first );
+            Future<?> cancelled = serial.submit( "key", () -> {} );
+            ThreadContext.clearContext();
+
+            ThreadContext.getContext( true ).setCancellationToken( new CancellationToken() );
+            Future<String> other = serial.submit( "key", () -> "ran" );
+            ThreadContext.clearContext();
+
+            first.cancel( "client went away" );
+            hold.countDown();
+
+            assertThat( other.get( 5, TimeUnit.SECONDS ), equalTo( "ran" ) );
+            assertThat( cancelled.isCancelled(), equalTo( true ) );
+            assertThat( serial.getActiveKeyCount(), equalTo( 0 ) );
+        }
+        finally
+        {
+            single.shutdownNow();
+        }
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+}
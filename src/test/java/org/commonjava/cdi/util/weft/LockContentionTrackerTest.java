@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LockContentionTrackerTest
+{
+    /**
+     * Hammer one hot key among a stream of cold ones, with a tracker that can only hold a handful of keys. The hot key
+     * should survive eviction and be reported first, and it should be released once the locked function returns.
+     */
+    @Test
+    public void hotKeySurvivesEviction()
+    {
+        LockContentionTracker<String> tracker = new LockContentionTracker<>( 4 );
+        Locker<String> locker = new Locker<>( new ConcurrentHashMap<String, ReentrantLock>(), 10000, tracker );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            locker.lockAnd( "hot", 1, k -> {
+                assertThat( tracker.getHotKeys( 1 ).get( 0 ).getHolder(),
+                            equalTo( Thread.currentThread().getName() ) );
+                return null;
+            }, ( k, l ) -> false );
+
+            locker.lockAnd( "cold-" + i, 1, k -> null, ( k, l ) -> false );
+        }
+
+        List<LockKeyStats<String>> hot = tracker.getHotKeys();
+        assertThat( hot.size(), equalTo( 4 ) );
+        assertThat( hot.get( 0 ).getKey(), equalTo( "hot" ) );
+        assertThat( hot.get( 0 ).getAcquisitions(), equalTo( 100L ) );
+        assertThat( hot.get( 0 ).getHolder(), nullValue() );
+    }
+
+    /**
+     * A newcomer that displaces a key inherits its activity as error, which ranks it but is not counted as
+     * acquisitions.
+     */
+    @Test
+    public void inheritedErrorIsNotCounted()
+    {
+        LockContentionTracker<String> tracker = new LockContentionTracker<>( 2 );
+        for ( int i = 0; i < 3; i++ )
+        {
+            tracker.recordAcquired( "a", 0 );
+            tracker.recordReleased( "a" );
+        }
+        tracker.recordAcquired( "b", 0 );
+        tracker.recordReleased( "b" );
+        tracker.recordAcquired( "c", 0 );
+        tracker.recordReleased( "c" );
+
+        List<LockKeyStats<String>> hot = tracker.getHotKeys();
+        assertThat( hot.size(), equalTo( 2 ) );
+        assertThat( hot.get( 0 ).getKey(), equalTo( "a" ) );
+        assertThat( hot.get( 1 ).getKey(), equalTo( "c" ) );
+        assertThat( hot.get( 1 ).getAcquisitions(), equalTo( 1L ) );
+        assertThat( hot.get( 1 ).getError(), equalTo( 1L ) );
+    }
+
+    /**
+     * A try-lock that finds the key held is contention, not a timeout.
+     */
+    @Test
+    public void ifUnlockedCountsContention()
+            throws Exception
+    {
+        LockContentionTracker<String> tracker = new LockContentionTracker<>();
+        Locker<String> locker = new Locker<>( new ConcurrentHashMap<String, ReentrantLock>(), 10000, tracker );
+
+        CountDownLatch held = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        Thread holder = new Thread( () -> locker.lockAnd( "key", 1, k -> {
+            held.countDown();
+            try
+            {
+                assertTrue( release.await( 5, TimeUnit.SECONDS ) );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new IllegalStateException( e );
+            }
+            return null;
+        }, ( k, l ) -> false ) );
+        holder.start();
+        assertTrue( held.await( 5, TimeUnit.SECONDS ) );
+
+        assertThat( locker.ifUnlocked( "key", k -> "free", ( k, l ) -> "busy" ), equalTo( "busy" ) );
+
+        release.countDown();
+        holder.join();
+
+        LockKeyStats<String> stats = tracker.getHotKeys().get( 0 );
+        assertThat( stats.getAcquisitions(), equalTo( 1L ) );
+        assertThat( stats.getContended(), equalTo( 1L ) );
+        assertThat( stats.getTimeouts(), equalTo( 0L ) );
+        assertThat( stats.getActivity(), equalTo( 2L ) );
+    }
+
+    /**
+     * Releasing a reentrant inner hold keeps the thread recorded as holder until the outermost release.
+     */
+    @Test
+    public void reentrantReleaseKeepsHolder()
+    {
+        LockContentionTracker<String> tracker = new LockContentionTracker<>();
+        Locker<String> locker = new Locker<>( new ConcurrentHashMap<String, ReentrantLock>(), 10000, tracker );
+        String me = Thread.currentThread().getName();
+
+        locker.lockAnd( "key", 1, outer -> {
+            locker.lockAnd( "key", 1, inner -> null, ( k, l ) -> false );
+            assertThat( tracker.getHotKeys().get( 0 ).getHolder(), equalTo( me ) );
+            return null;
+        }, ( k, l ) -> false );
+
+        LockKeyStats<String> stats = tracker.getHotKeys().get( 0 );
+        assertThat( stats.getAcquisitions(), equalTo( 2L ) );
+        assertThat( stats.getHolder(), nullValue() );
+    }
+
+    /**
+     * A wait abandoned by interruption is recorded as a timeout.
+     */
+    @Test
+    public void interruptedWaitCountsAsTimeout()
+            throws Exception
+    {
+        LockContentionTracker<String> tracker = new LockContentionTracker<>();
+        SignallingLocker<String> locker =
+                new SignallingLocker<>( new ConcurrentHashMap<String, SignallingLock>(), 10000, tracker );
+
+        CountDownLatch held = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        Thread holder = new Thread( () -> locker.lockAnd( "key", ( k, l ) -> {
+            held.countDown();
+            try
+            {
+                assertTrue( release.await( 5, TimeUnit.SECONDS ) );
+            }
+            catch ( InterruptedException e )
+            {
+                throw new IllegalStateException( e );
+            }
+            return null;
+        } ) );
+        holder.start();
+        assertTrue( held.await( 5, TimeUnit.SECONDS ) );
+
+        AtomicReference<Object> result = new AtomicReference<>( "unset" );
+        Thread waiter = new Thread( () -> result.set( locker.lockAnd( "key", ( k, l ) -> "locked" ) ) );
+        waiter.start();
+        while ( waiter.getState() != Thread.State.WAITING )
+        {
+            Thread.yield();
+        }
+        waiter.interrupt();
+        waiter.join();
+
+        release.countDown();
+        holder.join();
+
+        LockKeyStats<String> stats = tracker.getHotKeys().get( 0 );
+        assertThat( result.get(), nullValue() );
+        assertThat( stats.getAcquisitions(), equalTo( 1L ) );
+        assertThat( stats.getTimeouts(), equalTo( 1L ) );
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.commonjava.cdi.util.weft.config.DefaultWeftConfig;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PhasedShutdownTest
+{
+    /**
+     * The front pool drains while the back pool it submits to keeps taking work; the hung pool is forced down at the
+     * deadline and its queued and running tasks are reported.
+     */
+    @Test
+    public void drainInLayersAndReportDroppedTasks()
+            throws Exception
+    {
+        DefaultWeftConfig config = new DefaultWeftConfig().configureThreads( "front", 2 )
+                                                          .configureThreads( "back", 2 )
+                                                          .configureThreads( "hung", 2 )
+                                                          .configureShutdownDependencies( "front", "back" );
+        WeftPoolBoy poolBoy = new WeftPoolBoy( config );
+        WeftExecutorService front = poolBoy.getPool( "front", 2, false );
+        WeftExecutorService back = poolBoy.getPool( "back", 2, false );
+        WeftExecutorService hung = poolBoy.getPool( "hung", 2, false );
+
+        AtomicBoolean handedOff = new AtomicBoolean( false );
+        front.execute( () -> {
+            sleep( 200 );
+            try
+            {
+                back.submit( () -> handedOff.set( true ) ).get();
+            }
+            catch ( Exception e )
+            {
+                throw new IllegalStateException( e );
+            }
+        } );
+
+        CountDownLatch never = new CountDownLatch( 1 );
+        for ( int i = 0; i < 3; i++ )
+        {
+            hung.execute( () -> {
+                try
+                {
+                    never.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            } );
+        }
+
+        ShutdownReport report = poolBoy.shutdown( 1, TimeUnit.SECONDS );
+
+        assertThat( handedOff.get(), equalTo( true ) );
+        assertThat( report.isClean(), equalTo( false ) );
+        assertThat( report.getDrainedPools().indexOf( "front" ) < report.getDrainedPools().indexOf( "back" ),
+                    equalTo( true ) );
+        assertThat( report.getDroppedCounts().get( "hung" ), equalTo( 1 ) );
+        assertThat( report.getDroppedTasks().get( "hung" ).size(), equalTo( 1 ) );
+        assertThat( report.getInterruptedTasks().get( "hung" ).size(), equalTo( 2 ) );
+    }
+
+    private static void sleep( long millis )
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.commonjava.cdi.util.weft.config.DefaultWeftConfig;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PoolReconfigurationTest
+{
+    private final PoolWeftExecutorService pool =
+            new PoolWeftExecutorService( "reconfigured", (ThreadPoolExecutor) Executors.newFixedThreadPool( 2 ), 2,
+                                         10f, false );
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Growing the pool starts queued tasks right away; disabling it runs new tasks inline, while everything already
+     * queued still runs on the pool.
+     */
+    @Test
+    public void resizeAndDisableKeepQueuedTasks()
+            throws Exception
+    {
+        CountDownLatch hold = new CountDownLatch( 1 );
+        AtomicInteger started = new AtomicInteger( 0 );
+        Semaphore starts = new Semaphore( 0 );
+        List<Future<?>> futures = new ArrayList<>();
+        for ( int i = 0; i < 5; i++ )
+        {
+            futures.add( pool.submit( () -> {
+                started.incrementAndGet();
+                starts.release();
+                assertTrue( hold.await( 5, TimeUnit.SECONDS ) );
+                return null;
+            } ) );
+        }
+
+        // every task blocks, so only as many can start as there are threads.
+        assertThat( starts.tryAcquire( 2, 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( started.get(), equalTo( 2 ) );
+
+        pool.reconfigure( 4, 2f, true, true );
+        assertThat( starts.tryAcquire( 2, 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( started.get(), equalTo( 4 ) );
+        assertThat( pool.getCorePoolSize(), equalTo( 4 ) );
+        assertThat( pool.getMaxLoadFactor(), equalTo( 2f ) );
+        assertThat( pool.isLoadSensitive(), equalTo( true ) );
+
+        pool.reconfigure( 1, 10f, false, false );
+        assertThat( pool.getMaximumPoolSize(), equalTo( 1 ) );
+
+        Thread caller = Thread.currentThread();
+        Future<Boolean> inline = pool.submit( () -> Thread.currentThread() == caller );
+        assertThat( inline.get( 1, TimeUnit.SECONDS ), equalTo( true ) );
+
+        hold.countDown();
+        for ( Future<?> f : futures )
+        {
+            f.get( 1, TimeUnit.SECONDS );
+        }
+
+        assertThat( started.get(), equalTo( 5 ) );
+    }
+
+    /**
+     * Changing a {@link DefaultWeftConfig} resizes the running pool through the change listener WeftPoolBoy registers.
+     */
+    @Test
+    public void configChangeResizesPoolThroughPoolBoy()
+    {
+        DefaultWeftConfig config = new DefaultWeftConfig().configureThreads( "live", 2 );
+        WeftPoolBoy poolBoy = new WeftPoolBoy( config );
+        try
+        {
+            PoolWeftExecutorService live = (PoolWeftExecutorService) poolBoy.getPool( "live", 2, false );
+            assertThat( live.getCorePoolSize(), equalTo( 2 ) );
+
+            config.configureThreads( "live", 5 );
+            assertThat( live.getCorePoolSize(), equalTo( 5 ) );
+            assertThat( live.getMaximumPoolSize(), equalTo( 5 ) );
+
+            config.configureMaxLoadFactor( "live", 3f );
+            config.configureLoadSensitive( "live", true );
+            assertThat( live.getMaxLoadFactor(), equalTo( 3f ) );
+            assertThat( live.isLoadSensitive(), equalTo( true ) );
+        }
+        finally
+        {
+            poolBoy.shutdown( 1, TimeUnit.SECONDS );
+        }
+    }
+}
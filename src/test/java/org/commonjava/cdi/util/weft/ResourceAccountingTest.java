@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThan;
+
+public class ResourceAccountingTest
+{
+    private final PoolWeftExecutorService pool =
+            new PoolWeftExecutorService( "accounted", (ThreadPoolExecutor) Executors.newFixedThreadPool( 2 ) );
+
+    @After
+    public void shutdown()
+    {
+        ThreadContext.clearContext();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void countsCpuAndAllocationPerTag()
+            throws Exception
+    {
+        pool.setResourceAccounting( new ResourceAccounting( "tenant" ) );
+
+        ThreadContext.getContext( true ).put( "tenant", "a" );
+        pool.submit( ResourceAccountingTest::work ).get( 10, TimeUnit.SECONDS );
+
+        ThreadContext.clearContext();
+        pool.submit( ResourceAccountingTest::work ).get( 10, TimeUnit.SECONDS );
+
+        ResourceUsage usage = pool.getResourceAccounting().getUsage();
+        assertThat( usage.getTasks(), equalTo( 2L ) );
+        assertThat( usage.getCpuTime( TimeUnit.NANOSECONDS ), greaterThan( 0L ) );
+        assertThat( usage.getAllocatedBytes(), greaterThan( 2_000_000L ) );
+        assertThat( usage.getCpuRate( null ), greaterThan( 0d ) );
+
+        Map<String, ResourceUsage> byTag = pool.getResourceAccounting().getUsageByTag();
+        assertThat( byTag.size(), equalTo( 1 ) );
+        assertThat( byTag.get( "a" ).getTasks(), equalTo( 1L ) );
+    }
+
+    private static int work()
+    {
+        int sum = 0;
+        for ( int i = 0; i < 1000; i++ )
+        {
+            byte[] chunk = new byte[1024];
+            chunk[i % chunk.length] = (byte) i;
+            sum += chunk[i % chunk.length];
+        }
+
+        return sum;
+    }
+}
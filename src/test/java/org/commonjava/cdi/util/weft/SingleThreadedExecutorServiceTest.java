@@ -0,0 +1,203 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.commonjava.cdi.util.weft.exception.DeadlineExceededException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class SingleThreadedExecutorServiceTest
+{
+    private final SingleThreadedExecutorService executor = new SingleThreadedExecutorService( "direct-test", 8 );
+
+    /**
+     * Recursive fan-out far deeper than the stack could take inline. Everything past the depth limit is queued on the
+     * trampoline and still runs, with the original context, before the outermost submit returns.
+     */
+    @Test
+    public void deepRecursionIsTrampolined()
+    {
+        ThreadContext ctx = ThreadContext.getContext( true );
+        AtomicInteger runs = new AtomicInteger( 0 );
+        AtomicInteger wrongContext = new AtomicInteger( 0 );
+
+        executor.execute( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if ( ThreadContext.getContext( false ) != ctx )
+                {
+                    wrongContext.incrementAndGet();
+                }
+
+                if ( runs.incrementAndGet() < 100000 )
+                {
+                    executor.execute( this );
+                }
+            }
+        } );
+
+        assertThat( runs.get(), equalTo( 100000 ) );
+        assertThat( wrongContext.get(), equalTo( 0 ) );
+        assertThat( executor.getTaskCount(), equalTo( 100000L ) );
+        assertThat( executor.getCompletedTaskCount(), equalTo( 100000L ) );
+        assertThat( executor.getQueuedTaskCount(), equalTo( 0 ) );
+        assertThat( executor.getActiveCount(), equalTo( 0 ) );
+        assertThat( executor.getDeferredTaskCount() > 0, equalTo( true ) );
+    }
+
+    /**
+     * Deadlines apply as they do in a pool: an expired one is rejected at submission, and a queued task whose deadline
+     * passes before it is dequeued is dropped.
+     */
+    @Test
+    public void expiredTasksAreSkipped()
+            throws Exception
+    {
+        SingleThreadedExecutorService shallow = new SingleThreadedExecutorService( "shallow", 1 );
+        AtomicInteger ran = new AtomicInteger( 0 );
+        Future<?>[] queued = new Future<?>[1];
+
+        shallow.execute( () -> {
+            queued[0] = shallow.submit( ran::incrementAndGet, Deadline.after( 10, TimeUnit.MILLISECONDS ) );
+            try
+            {
+                Thread.sleep( 50 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+
+        try
+        {
+            queued[0].get();
+            fail( "Queued task should have expired" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertThat( e.getCause(), instanceOf( DeadlineExceededException.class ) );
+        }
+
+        try
+        {
+            shallow.execute( ran::incrementAndGet, Deadline.after( -1, TimeUnit.MILLISECONDS ) );
+            fail( "Expired task should have been rejected" );
+        }
+        catch ( RejectedExecutionException e )
+        {
+            // expected
+        }
+
+        assertThat( ran.get(), equalTo( 0 ) );
+        assertThat( shallow.getExpiredTaskCount(), equalTo( 2L ) );
+    }
+
+    @Test
+    public void getRunsQueuedTaskInline()
+            throws Exception
+    {
+        Future<Integer> result = executor.submit( () -> nested( 20 ) );
+        assertThat( result.get(), equalTo( 20 ) );
+    }
+
+    private int nested( int remaining )
+            throws Exception
+    {
+        return remaining == 0 ? 0 : executor.submit( () -> nested( remaining - 1 ) ).get() + 1;
+    }
+
+    @Test
+    public void invokeAnyReturnsFirstSuccess()
+            throws Exception
+    {
+        AtomicInteger calls = new AtomicInteger( 0 );
+        Callable<String> fail = () -> {
+            calls.incrementAndGet();
+            throw new IllegalStateException( "nope" );
+        };
+        Callable<String> ok = () -> {
+            calls.incrementAndGet();
+            return "ok";
+        };
+        Callable<String> never = () -> {
+            calls.incrementAndGet();
+            return "never";
+        };
+
+        assertThat( executor.invokeAny( Arrays.asList( fail, ok, never ) ), equalTo( "ok" ) );
+        assertThat( calls.get(), equalTo( 2 ) );
+    }
+
+    @Test( expected = RejectedExecutionException.class )
+    public void rejectsAfterShutdown()
+            throws Exception
+    {
+        executor.shutdown();
+        assertThat( executor.awaitTermination( 1, TimeUnit.SECONDS ), equalTo( true ) );
+        executor.submit( () -> "too late" );
+    }
+
+    @Test
+    public void cancelledQueuedTaskDoesNotRun()
+    {
+        AtomicInteger runs = new AtomicInteger( 0 );
+        Future<?>[] queued = new Future<?>[1];
+
+        executor.execute( () -> nestThenSubmit( 8, runs, queued ) );
+
+        assertThat( queued[0].isCancelled(), equalTo( true ) );
+        assertThat( runs.get(), equalTo( 0 ) );
+        assertThat( executor.getQueuedTaskCount(), equalTo( 0 ) );
+    }
+
+    private void nestThenSubmit( int depth, AtomicInteger runs, Future<?>[] queued )
+    {
+        if ( depth > 1 )
+        {
+            executor.execute( () -> nestThenSubmit( depth - 1, runs, queued ) );
+        }
+        else
+        {
+            queued[0] = executor.submit( runs::incrementAndGet );
+            assertThat( queued[0].isDone(), equalTo( false ) );
+            assertThat( queued[0].cancel( false ), equalTo( true ) );
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        ThreadContext.clearContext();
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertTrue;
+
+public class TaskInfoTest
+{
+    private final PoolWeftExecutorService pool =
+            new PoolWeftExecutorService( "introspected", (ThreadPoolExecutor) Executors.newFixedThreadPool( 1 ) );
+
+    @After
+    public void shutdown()
+    {
+        ThreadContext.clearContext();
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void listRunningQueuedAndStuckTasks()
+            throws Exception
+    {
+        pool.setStuckTaskThreshold( 50, TimeUnit.MILLISECONDS );
+        ThreadContext.getContext( true ).put( "request-id", "r-1" );
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch hold = new CountDownLatch( 1 );
+        Future<?> running = pool.submit( new Named( "blocker", () -> {
+            started.countDown();
+            assertTrue( hold.await( 5, TimeUnit.SECONDS ) );
+            return null;
+        } ) );
+        Future<?> queued = pool.submit( new Named( "waiter", () -> null ) );
+
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+        Thread.sleep( 100 );
+
+        List<TaskInfo> runningTasks = pool.getRunningTasks();
+        assertThat( runningTasks.size(), equalTo( 1 ) );
+        TaskInfo info = runningTasks.get( 0 );
+        assertThat( info.getDescription(), equalTo( "blocker" ) );
+        assertThat( info.isRunning(), equalTo( true ) );
+        assertThat( info.getContextKeys().contains( "request-id" ), equalTo( true ) );
+        assertThat( info.isStuck(), equalTo( true ) );
+        assertThat( info.getStackTrace(), notNullValue() );
+        assertThat( info.toString(), containsString( "CountDownLatch.await" ) );
+
+        List<TaskInfo> queuedTasks = pool.getQueuedTasks();
+        assertThat( queuedTasks.size(), equalTo( 1 ) );
+        assertThat( queuedTasks.get( 0 ).getDescription(), equalTo( "waiter" ) );
+        assertThat( queuedTasks.get( 0 ).isRunning(), equalTo( false ) );
+
+        assertThat( pool.getStuckTasks().size(), equalTo( 1 ) );
+
+        hold.countDown();
+        running.get( 1, TimeUnit.SECONDS );
+        queued.get( 1, TimeUnit.SECONDS );
+
+        assertThat( pool.getRunningTasks().isEmpty(), equalTo( true ) );
+        assertThat( pool.getQueuedTasks().isEmpty(), equalTo( true ) );
+    }
+
+    /**
+     * A task cancelled while queued, or refused by the delegate, must not stay counted as queued or as load.
+     */
+    @Test
+    public void cancelledOrRejectedTasksLeaveNoBookkeeping()
+            throws Exception
+    {
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch hold = new CountDownLatch( 1 );
+        Future<?> running = pool.submit( () -> {
+            started.countDown();
+            assertTrue( hold.await( 5, TimeUnit.SECONDS ) );
+            return null;
+        } );
+        assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+        Future<?> queued = pool.submit( () -> {} );
+        assertThat( pool.getQueuedTasks().size(), equalTo( 1 ) );
+        assertThat( pool.getCurrentLoad(), equalTo( 2L ) );
+
+        queued.cancel( true );
+        assertThat( pool.getQueuedTasks().isEmpty(), equalTo( true ) );
+        assertThat( pool.getCurrentLoad(), equalTo( 1L ) );
+
+        hold.countDown();
+        running.get( 1, TimeUnit.SECONDS );
+
+        ThreadPoolExecutor full = new ThreadPoolExecutor( 1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>() );
+        PoolWeftExecutorService refusing = new PoolWeftExecutorService( "refusing", full );
+        CountDownLatch busy = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        try
+        {
+            refusing.submit( () -> {
+                busy.countDown();
+                assertTrue( release.await( 5, TimeUnit.SECONDS ) );
+                return null;
+            } );
+            assertTrue( busy.await( 5, TimeUnit.SECONDS ) );
+
+            try
+            {
+                refusing.submit( () -> {} );
+                throw new AssertionError( "Expected the delegate to refuse the task" );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                assertThat( refusing.getQueuedTasks().isEmpty(), equalTo( true ) );
+                assertThat( refusing.getCurrentLoad(), equalTo( 1L ) );
+            }
+        }
+        finally
+        {
+            release.countDown();
+            refusing.shutdownNow();
+        }
+    }
+
+    /**
+     * invokeAny returns on the first success and cancels the rest; tasks it never got to submit, or cancelled while
+     * queued, must not stay counted.
+     */
+    @Test
+    public void invokeAnyLeavesNoBookkeeping()
+            throws Exception
+    {
+        List<Callable<String>> tasks = Arrays.asList( () -> "a", () -> "b", () -> "c", () -> "d" );
+        for ( int i = 0; i < 20; i++ )
+        {
+            assertThat( pool.invokeAny( tasks ).isEmpty(), equalTo( false ) );
+        }
+
+        // a task may have started just before it was cancelled, and finishes on its own.
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( pool.getCurrentLoad() > 0 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertThat( pool.getCurrentLoad(), equalTo( 0L ) );
+        assertThat( pool.getQueuedTasks().isEmpty(), equalTo( true ) );
+        assertThat( pool.invokeAll( tasks ).size(), equalTo( 4 ) );
+        assertThat( pool.getCurrentLoad(), equalTo( 0L ) );
+
+        ThreadPoolExecutor full = new ThreadPoolExecutor( 1, 1, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>() );
+        PoolWeftExecutorService refusing = new PoolWeftExecutorService( "refusing", full );
+        CountDownLatch busy = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        try
+        {
+            refusing.submit( () -> {
+                busy.countDown();
+                assertTrue( release.await( 5, TimeUnit.SECONDS ) );
+                return null;
+            } );
+            assertTrue( busy.await( 5, TimeUnit.SECONDS ) );
+
+            try
+            {
+                refusing.invokeAny( tasks );
+                throw new AssertionError( "Expected the delegate to refuse the tasks" );
+            }
+            catch ( RejectedExecutionException e )
+            {
+                assertThat( refusing.getQueuedTasks().isEmpty(), equalTo( true ) );
+                assertThat( refusing.getCurrentLoad(), equalTo( 1L ) );
+            }
+        }
+        finally
+        {
+            release.countDown();
+            refusing.shutdownNow();
+        }
+    }
+
+    private static final class Named
+            implements Callable<Object>
+    {
+        private final String name;
+
+        private final Callable<Object> callable;
+
+        private Named( String name, Callable<Object> callable )
+        {
+            this.name = name;
+            this.callable = callable;
+        }
+
+        @Override
+        public Object call()
+                throws Exception
+        {
+            return callable.call();
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class TaskWatchdogTest
+{
+    private final TaskWatchdog watchdog = new TaskWatchdog( 20 );
+
+    private final PoolWeftExecutorService pool =
+            new PoolWeftExecutorService( "watched", (ThreadPoolExecutor) Executors.newFixedThreadPool( 2 ) );
+
+    @After
+    public void shutdown()
+    {
+        watchdog.close();
+        pool.shutdownNow();
+    }
+
+    /**
+     * A hung task is interrupted, a hung {@link StoppableRunnable} is stopped, and each is reported only once.
+     */
+    @Test
+    public void interruptAndStopOverrunningTasks()
+            throws Exception
+    {
+        watchdog.watch( pool, 50, TimeUnit.MILLISECONDS, TaskWatchdog.Action.STOP );
+
+        CountDownLatch never = new CountDownLatch( 1 );
+        CountDownLatch interrupted = new CountDownLatch( 1 );
+        pool.execute( () -> {
+            try
+            {
+                never.await();
+            }
+            catch ( InterruptedException e )
+            {
+                interrupted.countDown();
+            }
+        } );
+
+        CountDownLatch stopped = new CountDownLatch( 1 );
+        pool.execute( new StoppableRunnable()
+        {
+            @Override
+            protected void doExecute()
+            {
+                while ( !isStopped() )
+                {
+                    Thread.onSpinWait();
+                }
+                stopped.countDown();
+            }
+        } );
+
+        assertThat( interrupted.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( stopped.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        Thread.sleep( 100 );
+
+        assertThat( watchdog.getOverrunCount(), equalTo( 2L ) );
+        assertThat( watchdog.getInterruptedCount(), equalTo( 1L ) );
+        assertThat( watchdog.getStoppedCount(), equalTo( 1L ) );
+        assertThat( pool.getOverrunTaskCount(), equalTo( 2L ) );
+    }
+}
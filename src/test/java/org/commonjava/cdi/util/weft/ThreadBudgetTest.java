@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ThreadBudgetTest
+{
+    private final ThreadBudget budget = new ThreadBudget( 6, 50 );
+
+    private final PoolWeftExecutorService a =
+            new PoolWeftExecutorService( "budget-a", (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 ) );
+
+    private final PoolWeftExecutorService b =
+            new PoolWeftExecutorService( "budget-b", (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 ) );
+
+    /**
+     * Pool A bursts and borrows the unreserved threads, but pool B can still grow to its guarantee. Once idle, both
+     * shrink back and the borrowed threads return to the budget.
+     */
+    @Test
+    public void burstBorrowsWithoutTakingGuarantees()
+            throws Exception
+    {
+        a.joinThreadBudget( budget, 2 );
+        b.joinThreadBudget( budget, 2 );
+        assertThat( budget.getAvailable(), equalTo( 2 ) );
+
+        CountDownLatch hold = new CountDownLatch( 1 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            a.submit( () -> {
+                assertTrue( hold.await( 5, TimeUnit.SECONDS ) );
+                return null;
+            } );
+        }
+
+        assertThat( a.getThreadBudget().getThreads(), equalTo( 4 ) );
+        assertThat( budget.getAvailable(), equalTo( 0 ) );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            b.submit( () -> {
+                assertTrue( hold.await( 5, TimeUnit.SECONDS ) );
+                return null;
+            } );
+        }
+
+        assertThat( b.getThreadBudget().getThreads(), equalTo( 2 ) );
+
+        hold.countDown();
+        Thread.sleep( 300 );
+
+        assertThat( a.getThreadBudget().getThreads(), equalTo( 1 ) );
+        assertThat( b.getThreadBudget().getThreads(), equalTo( 1 ) );
+        assertThat( budget.getAvailable(), equalTo( 2 ) );
+    }
+
+
+    @After
+    public void shutdown()
+    {
+        a.shutdownNow();
+        b.shutdownNow();
+        budget.close();
+    }
+}
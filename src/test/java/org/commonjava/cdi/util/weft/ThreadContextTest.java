@@ -0,0 +1,335 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ThreadContextTest
+{
+    private final PoolWeftExecutorService executor =
+            new PoolWeftExecutorService( "context-test", (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 ) );
+
+    /**
+     * Fan out tasks from a context in snapshot mode. Each task should see the parent's entries as of submission, keep
+     * its own writes private, and only affect the parent when it publishes.
+     */
+    @Test
+    public void snapshotChildrenWriteLocallyUntilPublished()
+            throws Exception
+    {
+        ThreadContext ctx = ThreadContext.getContext( true, ThreadContext.Inheritance.SNAPSHOT );
+        ctx.put( "request", "r-1" );
+
+        List<Future<?>> futures = new ArrayList<>();
+        for ( int i = 0; i < 16; i++ )
+        {
+            final int idx = i;
+            futures.add( executor.submit( () -> {
+                ThreadContext child = ThreadContext.getContext( false );
+                assertThat( child, not( sameInstance( ctx ) ) );
+                assertThat( child.getParent(), sameInstance( ctx ) );
+                assertThat( child.get( "request" ), equalTo( "r-1" ) );
+
+                child.put( "task", idx );
+                assertThat( child.get( "task" ), equalTo( idx ) );
+
+                if ( idx == 0 )
+                {
+                    child.put( "published", true );
+                    child.publish();
+                }
+            } ) );
+        }
+
+        ctx.put( "late", "not visible to earlier snapshots" );
+
+        for ( Future<?> f : futures )
+        {
+            f.get();
+        }
+
+        // only the first task published its writes.
+        assertThat( ctx.get( "task" ), equalTo( 0 ) );
+        assertThat( ctx.get( "published" ), equalTo( true ) );
+        assertThat( ctx.get( "request" ), equalTo( "r-1" ) );
+    }
+
+    @Test
+    public void snapshotSurvivesManyKeys()
+    {
+        ThreadContext ctx = ThreadContext.getContext( true, ThreadContext.Inheritance.SNAPSHOT );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            ctx.put( "key-" + i, i );
+        }
+
+        ThreadContext child = ctx.snapshot();
+        for ( int i = 0; i < 1000; i += 2 )
+        {
+            child.remove( "key-" + i );
+        }
+
+        assertThat( ctx.size(), equalTo( 1000 ) );
+        assertThat( child.size(), equalTo( 500 ) );
+        assertThat( child.get( "key-1" ), equalTo( 1 ) );
+        assertThat( child.get( "key-2" ), nullValue() );
+
+        child.publish();
+        assertThat( ctx.size(), equalTo( 500 ) );
+    }
+
+    /**
+     * With a finalizer executor configured, the finalizers should run there, exactly once, and not on the thread that
+     * dropped the last reference.
+     */
+    @Test
+    public void finalizersRunAsynchronously()
+            throws Exception
+    {
+        ThreadContext.setFinalizerExecutor( executor );
+
+        CountDownLatch latch = new CountDownLatch( 1 );
+        AtomicInteger runs = new AtomicInteger( 0 );
+        AtomicReference<String> finalizerThread = new AtomicReference<>();
+
+        ThreadContext ctx = ThreadContext.getContext( true );
+        ctx.registerFinalizer( c -> {
+            runs.incrementAndGet();
+            finalizerThread.set( Thread.currentThread().getName() );
+            latch.countDown();
+        } );
+
+        executor.submit( () -> ThreadContext.getContext( false ).put( "touched", true ) ).get();
+        assertThat( ctx.getReferenceCount(), equalTo( 1 ) );
+
+        ThreadContext.clearContext();
+
+        assertThat( latch.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( runs.get(), equalTo( 1 ) );
+        assertThat( finalizerThread.get(), not( equalTo( Thread.currentThread().getName() ) ) );
+        assertThat( ctx.getReferenceCount(), equalTo( 0 ) );
+    }
+
+    /**
+     * Whichever carrier is in use, a context bound with runWith should only be visible while the task runs, and the
+     * caller's own context should be untouched afterward.
+     */
+    @Test
+    public void runWithBindsOnlyForTheTask()
+            throws Exception
+    {
+        LoggerFactory.getLogger( getClass() ).info( "Using context carrier: {}", ThreadContext.getCarrierName() );
+
+        ThreadContext outer = ThreadContext.getContext( true );
+        ThreadContext inner = outer.snapshot();
+
+        String seen = ThreadContext.callWith( inner, () -> {
+            assertThat( ThreadContext.getContext( false ), sameInstance( inner ) );
+            return "ok";
+        } );
+
+        assertThat( seen, equalTo( "ok" ) );
+        assertThat( ThreadContext.getContext( false ), sameInstance( outer ) );
+        assertThat( inner.getReferenceCount(), equalTo( 0 ) );
+        assertThat( outer.getReferenceCount(), equalTo( 1 ) );
+    }
+
+    /**
+     * A task that clears the context it runs with drops its own reference only once, and a context it creates in its
+     * place is finalized when the task ends.
+     */
+    @Test
+    public void taskClearingContextReleasesOnce()
+            throws Exception
+    {
+        AtomicInteger finalized = new AtomicInteger( 0 );
+        ThreadContext ctx = ThreadContext.getContext( true );
+        ctx.registerFinalizer( c -> finalized.incrementAndGet() );
+
+        AtomicInteger replacementFinalized = new AtomicInteger( 0 );
+        ThreadContext.runWith( ctx, () -> {
+            ThreadContext.clearContext();
+            assertThat( ThreadContext.getContext( false ), nullValue() );
+            ThreadContext.getContext( true ).registerFinalizer( c -> replacementFinalized.incrementAndGet() );
+        } );
+
+        assertThat( ThreadContext.getContext( false ), sameInstance( ctx ) );
+        assertThat( ctx.getReferenceCount(), equalTo( 1 ) );
+        assertThat( finalized.get(), equalTo( 0 ) );
+        assertThat( replacementFinalized.get(), equalTo( 1 ) );
+
+        executor.submit( ThreadContext::clearContext ).get();
+        assertThat( ctx.getReferenceCount(), equalTo( 1 ) );
+        assertThat( finalized.get(), equalTo( 0 ) );
+
+        ThreadContext.clearContext();
+        assertThat( ctx.getReferenceCount(), equalTo( 0 ) );
+        assertThat( finalized.get(), equalTo( 1 ) );
+    }
+
+    /**
+     * A snapshot parent cleared by its thread while a child task still runs must not be finalized, or lose its pins,
+     * until that task is done.
+     */
+    @Test
+    public void runningSnapshotChildRetainsParent()
+            throws Exception
+    {
+        AtomicInteger finalized = new AtomicInteger( 0 );
+        ThreadContext ctx = ThreadContext.getContext( true, ThreadContext.Inheritance.SNAPSHOT );
+        ctx.registerFinalizer( c -> finalized.incrementAndGet() );
+
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch hold = new CountDownLatch( 1 );
+        AtomicReference<Boolean> pinned = new AtomicReference<>();
+        Future<?> child = executor.submit( () -> {
+            ThreadContext.getContext( false ).pin( "scope", "lock-key" );
+            started.countDown();
+            try
+            {
+                hold.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            pinned.set( ThreadContext.getContext( false ).getPinned( "scope" ).contains( "lock-key" ) );
+        } );
+
+        started.await();
+        assertThat( ctx.getReferenceCount(), equalTo( 2 ) );
+
+        ThreadContext.clearContext();
+        assertThat( finalized.get(), equalTo( 0 ) );
+        assertThat( ctx.getPinned( "scope" ).contains( "lock-key" ), equalTo( true ) );
+
+        hold.countDown();
+        child.get( 5, TimeUnit.SECONDS );
+
+        // the task's future completes just before the worker lets go of the child context.
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( finalized.get() == 0 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+
+        assertThat( pinned.get(), equalTo( true ) );
+        assertThat( finalized.get(), equalTo( 1 ) );
+        assertThat( ctx.getReferenceCount(), equalTo( 0 ) );
+        assertThat( ctx.getPinned( "scope" ).isEmpty(), equalTo( true ) );
+    }
+
+    /**
+     * A pinned value stays reachable while its context lives, even with no other references to it, and unpinning
+     * drops it.
+     */
+    @Test
+    public void pinnedValuesSurviveGcUntilUnpinned()
+            throws Exception
+    {
+        ThreadContext ctx = ThreadContext.getContext( true );
+
+        Object value = new Object();
+        WeakReference<Object> ref = new WeakReference<>( value );
+        ctx.pin( "scope", value );
+        ctx.pin( "other", "kept" );
+        value = null;
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            Runtime.getRuntime().gc();
+            Thread.sleep( 10 );
+        }
+
+        assertThat( ref.get(), not( nullValue() ) );
+        assertThat( ctx.getPinned( "scope" ).contains( ref.get() ), equalTo( true ) );
+
+        ctx.unpin( "scope" );
+        assertThat( ctx.getPinned( "scope" ).isEmpty(), equalTo( true ) );
+        assertThat( ctx.getPinned( "other" ).contains( "kept" ), equalTo( true ) );
+
+        for ( int i = 0; i < 50 && ref.get() != null; i++ )
+        {
+            Runtime.getRuntime().gc();
+            Thread.sleep( 10 );
+        }
+
+        assertThat( ref.get(), nullValue() );
+    }
+
+    /**
+     * Pins are dropped when the context is finalized.
+     */
+    @Test
+    public void pinsClearedOnFinalization()
+    {
+        ThreadContext ctx = ThreadContext.getContext( true );
+        ctx.pin( "scope", "value" );
+
+        ThreadContext.clearContext();
+
+        assertThat( ctx.getReferenceCount(), equalTo( 0 ) );
+        assertThat( ctx.getPinned( "scope" ).isEmpty(), equalTo( true ) );
+    }
+
+    /**
+     * Registering the same finalizer instance twice runs it once, while a distinct instance still runs.
+     */
+    @Test
+    public void finalizersAreDedupedByIdentity()
+    {
+        AtomicInteger runs = new AtomicInteger( 0 );
+        Consumer<ThreadContext> finalizer = c -> runs.incrementAndGet();
+        Consumer<ThreadContext> other = c -> runs.incrementAndGet();
+
+        ThreadContext ctx = ThreadContext.getContext( true );
+        ctx.registerFinalizer( finalizer );
+        ctx.registerFinalizer( finalizer );
+        ctx.registerFinalizer( other );
+
+        ThreadContext.clearContext();
+
+        assertThat( runs.get(), equalTo( 2 ) );
+    }
+
+    @After
+    public void shutdown()
+    {
+        ThreadContext.setFinalizerExecutor( null );
+        executor.shutdownNow();
+        ThreadContext.clearContext();
+    }
+}
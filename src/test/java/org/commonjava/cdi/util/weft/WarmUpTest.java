@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.commonjava.cdi.util.weft.load.ConcurrencyLimit;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class WarmUpTest
+{
+    private final Set<String> warmed = ConcurrentHashMap.newKeySet();
+
+    private final NamedThreadFactory factory = new NamedThreadFactory( "warm", new ThreadGroup( "warm" ), true, 5 );
+
+    private final ThreadPoolExecutor executor =
+            new ThreadPoolExecutor( 3, 3, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), factory );
+
+    private final PoolWeftExecutorService pool = new PoolWeftExecutorService( "warm", executor );
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void prestartRunsWarmUpOnEveryThread()
+            throws Exception
+    {
+        factory.setWarmUp( () -> warmed.add( Thread.currentThread().getName() ) );
+
+        int started = pool.warmUp( 100, 5, TimeUnit.SECONDS );
+
+        assertThat( started, equalTo( 3 ) );
+
+        // a thread that picked up none of the no-ops may still be finishing its warm-up.
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( warmed.size() < 3 && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 10 );
+        }
+        assertThat( warmed.size(), equalTo( 3 ) );
+        assertThat( pool.getCurrentLoad(), equalTo( 0L ) );
+    }
+
+    /**
+     * Warm-up no-ops must not teach the concurrency limit a no-op latency, or show up in resource accounting.
+     */
+    @Test
+    public void warmUpBypassesLimitsAndAccounting()
+    {
+        AtomicInteger samples = new AtomicInteger( 0 );
+        pool.setConcurrencyLimit( new ConcurrencyLimit()
+        {
+            @Override
+            public int getLimit()
+            {
+                return 1;
+            }
+
+            @Override
+            public void onSample( long latencyNanos, long inFlight, boolean dropped )
+            {
+                samples.incrementAndGet();
+            }
+        } );
+        pool.setResourceAccounting( new ResourceAccounting() );
+
+        pool.warmUp( 100, 5, TimeUnit.SECONDS );
+
+        assertThat( samples.get(), equalTo( 0 ) );
+        assertThat( pool.getResourceAccounting().getUsage().getTasks(), equalTo( 0L ) );
+        assertThat( pool.getShedTaskCount(), equalTo( 0L ) );
+        assertThat( pool.getCurrentLoad(), equalTo( 0L ) );
+    }
+}
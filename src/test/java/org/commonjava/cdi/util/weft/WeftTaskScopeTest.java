@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WeftTaskScopeTest
+{
+    private final PoolWeftExecutorService pool =
+            new PoolWeftExecutorService( "scope-test", (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 ) );
+
+    /**
+     * Cancelling the parent token wakes a blocked join right away, instead of when the subtasks finish on their own.
+     */
+    @Test
+    public void parentCancellationWakesJoin()
+            throws Exception
+    {
+        CancellationToken parent = new CancellationToken();
+        ThreadContext.getContext( true ).setCancellationToken( parent );
+
+        try (WeftTaskScope<Object> scope = new WeftTaskScope<>( pool ))
+        {
+            scope.fork( () -> {
+                Thread.sleep( 30000 );
+                return null;
+            } );
+
+            new Thread( () -> {
+                try
+                {
+                    Thread.sleep( 100 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                parent.cancel( "request aborted" );
+            } ).start();
+
+            long start = System.nanoTime();
+            try
+            {
+                scope.join();
+                fail( "Expected join to be cancelled" );
+            }
+            catch ( CancellationException e )
+            {
+                assertThat( e.getMessage(), containsString( "request aborted" ) );
+            }
+
+            assertThat( TimeUnit.NANOSECONDS.toSeconds( System.nanoTime() - start ) < 10, equalTo( true ) );
+            assertThat( scope.isShutdown(), equalTo( true ) );
+        }
+    }
+
+    /**
+     * Forking from a thread without a context gives the subtasks one carrying the scope's token, without leaving a
+     * context behind on the forking thread.
+     */
+    @Test
+    public void forkWithoutContextLeavesNoneBehind()
+            throws Exception
+    {
+        ThreadContext.clearContext();
+
+        try (WeftTaskScope<Boolean> scope = new WeftTaskScope<>( pool ))
+        {
+            scope.fork( () -> CancellationToken.current() == scope.getCancellationToken() );
+
+            assertThat( ThreadContext.getContext( false ), nullValue() );
+            assertThat( scope.join().get( 0 ), equalTo( true ) );
+        }
+
+        assertThat( ThreadContext.getContext( false ), nullValue() );
+    }
+
+    @Test
+    public void joinReturnsResultsInForkOrder()
+            throws Exception
+    {
+        ThreadContext.getContext( true ).put( "request", "r-1" );
+
+        try (WeftTaskScope<String> scope = new WeftTaskScope<>( pool ))
+        {
+            for ( int i = 0; i < 10; i++ )
+            {
+                int idx = i;
+                scope.fork( () -> {
+                    Thread.sleep( 10 - idx );
+                    return ThreadContext.getContext( false ).get( "request" ) + "-" + idx;
+                } );
+            }
+
+            List<String> results = scope.join();
+            assertThat( results.size(), equalTo( 10 ) );
+            assertThat( results.get( 3 ), equalTo( "r-1-3" ) );
+        }
+    }
+
+    /**
+     * One failing subtask should interrupt its slow siblings, and close() should not return until they have stopped.
+     */
+    @Test
+    public void failureCancelsSiblings()
+            throws Exception
+    {
+        AtomicInteger stillRunning = new AtomicInteger( 0 );
+        AtomicInteger interrupted = new AtomicInteger( 0 );
+
+        long start = System.currentTimeMillis();
+        try (WeftTaskScope<String> scope = new WeftTaskScope<>( pool ))
+        {
+            for ( int i = 0; i < 3; i++ )
+            {
+                scope.fork( () -> {
+                    stillRunning.incrementAndGet();
+                    try
+                    {
+                        Thread.sleep( 30000 );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted.incrementAndGet();
+                    }
+                    finally
+                    {
+                        stillRunning.decrementAndGet();
+                    }
+                    return "slow";
+                } );
+            }
+
+            scope.fork( () -> {
+                Thread.sleep( 50 );
+                throw new IllegalStateException( "boom" );
+            } );
+
+            try
+            {
+                scope.join();
+                fail( "Should have failed" );
+            }
+            catch ( ExecutionException e )
+            {
+                assertThat( e.getCause(), instanceOf( IllegalStateException.class ) );
+            }
+        }
+
+        assertThat( stillRunning.get(), equalTo( 0 ) );
+        assertThat( interrupted.get(), equalTo( 3 ) );
+        assertThat( System.currentTimeMillis() - start < 10000, equalTo( true ) );
+    }
+
+    @Test
+    public void deadlineShutsDownScope()
+            throws Exception
+    {
+        AtomicInteger ran = new AtomicInteger( 0 );
+        try (WeftTaskScope<Integer> scope = new WeftTaskScope<>( pool, 100, TimeUnit.MILLISECONDS ))
+        {
+            for ( int i = 0; i < 20; i++ )
+            {
+                scope.fork( () -> {
+                    ran.incrementAndGet();
+                    Thread.sleep( 200 );
+                    return 1;
+                } );
+            }
+
+            try
+            {
+                scope.join();
+                fail( "Should have timed out" );
+            }
+            catch ( TimeoutException e )
+            {
+                // expected
+            }
+        }
+
+        // only the first batch of 4 ever started; the rest were dropped from the queue.
+        assertThat( ran.get(), equalTo( 4 ) );
+    }
+
+    /**
+     * The deadline shuts the scope down even if nobody joins, and subtasks see it as their context's deadline.
+     */
+    @Test
+    public void deadlineShutsDownScopeWithoutJoin()
+            throws Exception
+    {
+        CountDownLatch interrupted = new CountDownLatch( 2 );
+        AtomicReference<Deadline> seen = new AtomicReference<>();
+        try (WeftTaskScope<Integer> scope = new WeftTaskScope<>( pool, 100, TimeUnit.MILLISECONDS ))
+        {
+            for ( int i = 0; i < 2; i++ )
+            {
+                scope.fork( () -> {
+                    seen.set( ThreadContext.getContext( false ).getDeadline() );
+                    try
+                    {
+                        Thread.sleep( 30000 );
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted.countDown();
+                    }
+                    return 1;
+                } );
+            }
+
+            assertTrue( interrupted.await( 5, TimeUnit.SECONDS ) );
+            assertThat( scope.isShutdown(), equalTo( true ) );
+            assertThat( seen.get().remaining( TimeUnit.SECONDS ) <= 0, equalTo( true ) );
+
+            try
+            {
+                scope.join();
+                fail( "Should have timed out" );
+            }
+            catch ( TimeoutException e )
+            {
+                assertThat( e.getMessage(), containsString( "2 subtasks" ) );
+            }
+        }
+    }
+
+    @After
+    public void shutdown()
+    {
+        pool.shutdownNow();
+        ThreadContext.clearContext();
+    }
+}
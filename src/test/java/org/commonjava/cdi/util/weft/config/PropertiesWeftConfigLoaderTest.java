@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.config;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class PropertiesWeftConfigLoaderTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private PropertiesWeftConfigLoader loader;
+
+    @After
+    public void close()
+            throws Exception
+    {
+        System.clearProperty( "weft.pool.my.pool.priority" );
+        if ( loader != null )
+        {
+            loader.close();
+        }
+    }
+
+    /**
+     * System properties override the file, invalid values are skipped, and a rewrite of the file applies only the
+     * values that changed, telling listeners once per changed pool.
+     */
+    @Test
+    public void loadOverrideAndReload()
+            throws Exception
+    {
+        Path file = temp.getRoot().toPath().resolve( "weft.properties" );
+        Files.write( file, ( "weft.threads=3\n" + "weft.pool.my.pool.threads=4\n" + "weft.pool.my.pool.priority=5\n"
+                + "weft.pool.my.pool.loadSensitive=yes\n" ).getBytes() );
+        System.setProperty( "weft.pool.my.pool.priority", "7" );
+
+        loader = new PropertiesWeftConfigLoader( file );
+        DefaultWeftConfig config = loader.load();
+
+        assertThat( config.getDefaultThreads(), equalTo( 3 ) );
+        assertThat( config.getThreads( "my.pool" ), equalTo( 4 ) );
+        assertThat( config.getPriority( "my.pool" ), equalTo( 7 ) );
+        assertThat( config.isLoadSensitive( "my.pool", false ), equalTo( false ) );
+
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        config.addChangeListener( changes::add );
+        loader.watch();
+
+        Files.write( file, ( "weft.threads=3\n" + "weft.pool.my.pool.threads=8\n"
+                + "weft.pool.my.pool.maxLoadFactor=2.5\n" ).getBytes() );
+
+        assertThat( changes.poll( 10, TimeUnit.SECONDS ), equalTo( "my.pool" ) );
+        assertThat( config.getThreads( "my.pool" ), equalTo( 8 ) );
+        assertThat( config.getMaxLoadFactor( "my.pool", 10f ), equalTo( 2.5f ) );
+        assertThat( changes.poll( 200, TimeUnit.MILLISECONDS ), nullValue() );
+    }
+
+    /**
+     * A file mounted the way Kubernetes mounts a ConfigMap, through a {@code ..data} symlink that is swapped to a new
+     * directory, is reloaded when the link is swapped.
+     */
+    @Test
+    public void reloadsSwappedSymlink()
+            throws Exception
+    {
+        Path root = temp.getRoot().toPath();
+        Path v1 = Files.createDirectory( root.resolve( "..v1" ) );
+        Path v2 = Files.createDirectory( root.resolve( "..v2" ) );
+        Files.write( v1.resolve( "weft.properties" ), "weft.pool.my.pool.threads=4\n".getBytes() );
+        Files.write( v2.resolve( "weft.properties" ), "weft.pool.my.pool.threads=6\n".getBytes() );
+
+        Path data = Files.createSymbolicLink( root.resolve( "..data" ), v1.getFileName() );
+        Path file = Files.createSymbolicLink( root.resolve( "weft.properties" ),
+                                              data.getFileName().resolve( "weft.properties" ) );
+
+        loader = new PropertiesWeftConfigLoader( file );
+        DefaultWeftConfig config = loader.load();
+        assertThat( config.getThreads( "my.pool" ), equalTo( 4 ) );
+
+        BlockingQueue<String> changes = new LinkedBlockingQueue<>();
+        config.addChangeListener( changes::add );
+        loader.watch();
+
+        Path tmp = Files.createSymbolicLink( root.resolve( "..data_tmp" ), v2.getFileName() );
+        Files.move( tmp, data, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+
+        assertThat( changes.poll( 10, TimeUnit.SECONDS ), equalTo( "my.pool" ) );
+        assertThat( config.getThreads( "my.pool" ), equalTo( 6 ) );
+    }
+}
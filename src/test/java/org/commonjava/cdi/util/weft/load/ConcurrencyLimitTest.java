@@ -0,0 +1,200 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+import org.commonjava.cdi.util.weft.PoolWeftExecutorService;
+import org.commonjava.cdi.util.weft.exception.PoolOverloadException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrencyLimitTest
+{
+    @Test
+    public void aimdGrowsUnderUseAndBacksOffOnDrop()
+    {
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit( 10, 1, 100 );
+        long fast = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            limit.onSample( fast, 10, false );
+        }
+        assertThat( limit.getLimit(), equalTo( 15 ) );
+
+        // idle pool: no growth
+        limit.onSample( fast, 1, false );
+        assertThat( limit.getLimit(), equalTo( 15 ) );
+
+        limit.onSample( fast, 15, true );
+        assertThat( limit.getLimit(), equalTo( 13 ) );
+    }
+
+    /**
+     * Latency climbing well above its long-term average should pull the gradient limit down.
+     */
+    @Test
+    public void gradientShrinksWhenLatencyRises()
+    {
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit( 50, 1, 200 );
+        long base = TimeUnit.MILLISECONDS.toNanos( 10 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            limit.onSample( base, 50, false );
+        }
+
+        int settled = limit.getLimit();
+        for ( int i = 0; i < 50; i++ )
+        {
+            limit.onSample( base * 10, settled, false );
+        }
+
+        assertThat( limit.getLimit() < settled, equalTo( true ) );
+    }
+
+    @Test
+    public void poolRejectsAtLimit()
+            throws Exception
+    {
+        PoolWeftExecutorService pool =
+                new PoolWeftExecutorService( "limit-test", (ThreadPoolExecutor) Executors.newFixedThreadPool( 2 ) );
+        pool.setConcurrencyLimit( new AimdConcurrencyLimit( 3, 1, 3 ) );
+
+        CountDownLatch hold = new CountDownLatch( 1 );
+        try
+        {
+            for ( int i = 0; i < 3; i++ )
+            {
+                pool.submit( () -> {
+                    hold.await();
+                    return null;
+                } );
+            }
+
+            try
+            {
+                pool.submit( () -> null );
+                fail( "Fourth task should have been rejected" );
+            }
+            catch ( PoolOverloadException e )
+            {
+                assertThat( pool.getShedTaskCount(), equalTo( 1L ) );
+                assertThat( e.getConcurrencyLimit(), equalTo( 3 ) );
+            }
+        }
+        finally
+        {
+            hold.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Many threads submitting at once must not get more tasks past the limit than it allows.
+     */
+    @Test
+    public void concurrentSubmittersDoNotOvershootLimit()
+            throws Exception
+    {
+        PoolWeftExecutorService pool =
+                new PoolWeftExecutorService( "limit-race", (ThreadPoolExecutor) Executors.newFixedThreadPool( 2 ) );
+        pool.setConcurrencyLimit( new AimdConcurrencyLimit( 3, 1, 3 ) );
+
+        CountDownLatch hold = new CountDownLatch( 1 );
+        CountDownLatch go = new CountDownLatch( 1 );
+        AtomicInteger accepted = new AtomicInteger( 0 );
+        List<Thread> submitters = new ArrayList<>();
+        try
+        {
+            for ( int i = 0; i < 16; i++ )
+            {
+                Thread t = new Thread( () -> {
+                    try
+                    {
+                        assertTrue( go.await( 5, TimeUnit.SECONDS ) );
+                        pool.submit( () -> hold.await( 5, TimeUnit.SECONDS ) );
+                        accepted.incrementAndGet();
+                    }
+                    catch ( PoolOverloadException | InterruptedException e )
+                    {
+                        // rejected at the limit
+                    }
+                } );
+                submitters.add( t );
+                t.start();
+            }
+
+            go.countDown();
+            for ( Thread t : submitters )
+            {
+                t.join( 5000 );
+            }
+
+            assertThat( accepted.get(), equalTo( 3 ) );
+            assertThat( pool.getCurrentLoad(), equalTo( 3L ) );
+        }
+        finally
+        {
+            hold.countDown();
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A task that throws is a bad sample, so the limit backs off as it would for a dropped task.
+     */
+    @Test
+    public void failedTaskBacksOffLimit()
+            throws Exception
+    {
+        PoolWeftExecutorService pool =
+                new PoolWeftExecutorService( "limit-fail", (ThreadPoolExecutor) Executors.newFixedThreadPool( 2 ) );
+        AimdConcurrencyLimit limit = new AimdConcurrencyLimit( 10, 1, 100 );
+        pool.setConcurrencyLimit( limit );
+        try
+        {
+            Future<Object> failed = pool.submit( () -> {
+                throw new IllegalStateException( "downstream failed" );
+            } );
+            try
+            {
+                failed.get( 5, TimeUnit.SECONDS );
+                fail( "Task should have failed" );
+            }
+            catch ( ExecutionException e )
+            {
+                assertThat( limit.getLimit(), equalTo( 9 ) );
+            }
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+}
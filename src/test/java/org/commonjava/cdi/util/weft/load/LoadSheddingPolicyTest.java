@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2013-2022 Red Hat, Inc. (https://github.com/Commonjava/weft)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.cdi.util.weft.load;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class LoadSheddingPolicyTest
+{
+    @Test
+    public void probabilisticRampsUpToMax()
+    {
+        ProbabilisticLoadSheddingPolicy policy = new ProbabilisticLoadSheddingPolicy( 0.5f );
+
+        assertThat( policy.sheddingProbability( 4, 10 ), equalTo( 0.0 ) );
+        assertThat( policy.sheddingProbability( 7.5, 10 ), equalTo( 0.5 ) );
+        assertThat( policy.sheddingProbability( 10, 10 ), equalTo( 1.0 ) );
+
+        int shed = 0;
+        for ( int i = 0; i < 10000; i++ )
+        {
+            if ( policy.shouldShed( 7.5, 10, LoadSheddingPolicy.NORM_PRIORITY ) )
+            {
+                shed++;
+            }
+        }
+
+        assertThat( shed > 4000 && shed < 6000, equalTo( true ) );
+    }
+
+    @Test
+    public void lowPriorityIsShedFirst()
+    {
+        PriorityLoadSheddingPolicy policy = new PriorityLoadSheddingPolicy( 0.5f );
+
+        assertThat( policy.shouldShed( 6, 10, LoadSheddingPolicy.MIN_PRIORITY ), equalTo( true ) );
+        assertThat( policy.shouldShed( 6, 10, LoadSheddingPolicy.NORM_PRIORITY ), equalTo( false ) );
+        assertThat( policy.shouldShed( 9, 10, LoadSheddingPolicy.MAX_PRIORITY ), equalTo( false ) );
+        assertThat( policy.shouldShed( 10, 10, LoadSheddingPolicy.MAX_PRIORITY ), equalTo( true ) );
+    }
+
+    /**
+     * Sojourn times stay above target for a full interval, so CoDel starts dropping; one short sojourn ends it.
+     */
+    @Test
+    public void coDelDropsWhileQueueStands()
+            throws Exception
+    {
+        CoDelLoadSheddingPolicy policy = new CoDelLoadSheddingPolicy( 5, 20, TimeUnit.MILLISECONDS );
+        long slow = TimeUnit.MILLISECONDS.toNanos( 50 );
+
+        policy.recordSojourn( slow );
+        assertThat( policy.shouldShed( 2, 10, LoadSheddingPolicy.NORM_PRIORITY ), equalTo( false ) );
+
+        Thread.sleep( 30 );
+        policy.recordSojourn( slow );
+        assertThat( policy.isDropping(), equalTo( true ) );
+        assertThat( policy.shouldShed( 2, 10, LoadSheddingPolicy.NORM_PRIORITY ), equalTo( true ) );
+
+        // the next drop is spaced out by the control law.
+        assertThat( policy.shouldShed( 2, 10, LoadSheddingPolicy.NORM_PRIORITY ), equalTo( false ) );
+
+        policy.recordSojourn( 0 );
+        assertThat( policy.isDropping(), equalTo( false ) );
+        assertThat( policy.shouldShed( 2, 10, LoadSheddingPolicy.NORM_PRIORITY ), equalTo( false ) );
+    }
+
+    /**
+     * A burst ends with a slow task, leaving CoDel dropping; once the queue has drained, a submission after the idle
+     * period is accepted.
+     */
+    @Test
+    public void coDelStopsDroppingOnceDrained()
+            throws Exception
+    {
+        CoDelLoadSheddingPolicy policy = new CoDelLoadSheddingPolicy( 5, 20, TimeUnit.MILLISECONDS );
+        long slow = TimeUnit.MILLISECONDS.toNanos( 50 );
+
+        policy.recordSojourn( slow );
+        Thread.sleep( 30 );
+        policy.recordSojourn( slow );
+        assertThat( policy.isDropping(), equalTo( true ) );
+
+        // idle: nothing running or queued.
+        Thread.sleep( 30 );
+        assertThat( policy.shouldShed( 0, 10, LoadSheddingPolicy.NORM_PRIORITY ), equalTo( false ) );
+        assertThat( policy.isDropping(), equalTo( false ) );
+
+        // a new backlog does not resume dropping until it has stood for another interval.
+        assertThat( policy.shouldShed( 2, 10, LoadSheddingPolicy.NORM_PRIORITY ), equalTo( false ) );
+    }
+}